@@ -7,67 +7,141 @@ import com.wurmonline.mesh.MeshIO;
 import com.wurmonline.mesh.Tiles;
 import com.wurmonline.mesh.Tiles.Tile;
 import com.wurmonline.mesh.TreeData.TreeType;
-import com.wurmonline.wurmapi.api.map.dump.Colorist;
+import com.wurmonline.wurmapi.api.map.LayerStorage;
+import com.wurmonline.wurmapi.api.map.MapChangeListener;
+import com.wurmonline.wurmapi.api.map.MapChanges;
+import com.wurmonline.wurmapi.api.map.MapLayer;
+import com.wurmonline.wurmapi.api.map.components.ConnectedComponents;
+import com.wurmonline.wurmapi.api.map.components.TilePredicate;
 import com.wurmonline.wurmapi.api.map.dump.DefaultColorist;
+import com.wurmonline.wurmapi.api.map.dump.DumpRequest;
+import com.wurmonline.wurmapi.api.map.dump.ReliefStyle;
+import com.wurmonline.wurmapi.api.map.edits.EditOp;
+import com.wurmonline.wurmapi.api.map.edits.TileEditLog;
+import com.wurmonline.wurmapi.api.map.filter.TerrainFilter;
+import com.wurmonline.wurmapi.api.map.generator.WorldSettings;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapFormat;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+import com.wurmonline.wurmapi.api.map.overview.OverviewLevel;
+import com.wurmonline.wurmapi.api.map.paths.Path;
+import com.wurmonline.wurmapi.api.map.paths.PathCost;
+import com.wurmonline.wurmapi.api.map.validation.ValidationReport;
+import com.wurmonline.wurmapi.api.map.validation.ViolationType;
+import com.wurmonline.wurmapi.api.map.veins.OreVein;
+import com.wurmonline.wurmapi.internal.ChunkedLayer;
+import com.wurmonline.wurmapi.internal.ComponentLabeler;
+import com.wurmonline.wurmapi.internal.DefaultTiles;
+import com.wurmonline.wurmapi.internal.DumpRenderer;
+import com.wurmonline.wurmapi.internal.EditApplier;
+import com.wurmonline.wurmapi.internal.FlagBits;
+import com.wurmonline.wurmapi.internal.HeightmapIO;
+import com.wurmonline.wurmapi.internal.LayerWatcher;
+import com.wurmonline.wurmapi.internal.MeshLayer;
+import com.wurmonline.wurmapi.internal.NormalCache;
+import com.wurmonline.wurmapi.internal.Meshes;
+import com.wurmonline.wurmapi.internal.OverviewCache;
+import com.wurmonline.wurmapi.internal.PathFinder;
+import com.wurmonline.wurmapi.internal.RowBands;
+import com.wurmonline.wurmapi.internal.SaveJournal;
+import com.wurmonline.wurmapi.internal.TileLayer;
+import com.wurmonline.wurmapi.internal.TileRenderer;
+import com.wurmonline.wurmapi.internal.VeinGenerator;
+import com.wurmonline.wurmapi.internal.WorldGenerator;
+import com.wurmonline.wurmapi.internal.WorldValidator;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class MapData {
     
-    private static final float MAP_HEIGHT = 1000;
-
     public static final int DEFAULT_ROCK_RESOURCE_COUNT = 51;
 
     public static final int DEFAULT_ORE_RESOURCE_COUNT = 1000;
+    
+    /**
+     * Number of errors of every kind listed by {@link #validate(boolean)}.
+     */
+    public static final int DEFAULT_LISTED_VIOLATIONS = 1000;
 
     private final MeshIO surfaceMesh;
     private final MeshIO rockMesh;
     private final MeshIO flagsMesh;
-    private final MeshIO caveMesh;
-    private final MeshIO resourcesMesh;
-    private final MeshIO[] allMeshes;
+    private final TileLayer caveLayer;
+    private final TileLayer resourcesLayer;
+    private final TileLayer[] allLayers;
+    private final LayerWatcher[] watchers;
+    private final OverviewCache overviewCache;
+    private final NormalCache surfaceNormals;
+    private final NormalCache rockNormals;
+    private final TileRenderer tileRenderer;
+    private final SaveJournal journal;
+    private volatile MapChangeListener[] changeListeners = new MapChangeListener[0];
 
-    MapData(String root) throws IOException {
+    MapData(String root, LayerStorage storage) throws IOException {
+        SaveJournal.recover(root);
         this.surfaceMesh = MeshIO.open(root + "top_layer.map");
         this.rockMesh = MeshIO.open(root + "rock_layer.map");
         this.flagsMesh = MeshIO.open(root + "flags.map");
-        this.caveMesh = MeshIO.open(root + "map_cave.map");
-        this.resourcesMesh = MeshIO.open(root + "resources.map");
-        allMeshes = new MeshIO[] {surfaceMesh, rockMesh, flagsMesh, caveMesh, resourcesMesh};
+        if (storage == LayerStorage.CHUNKED) {
+            this.caveLayer = ChunkedLayer.open(root + "map_cave.map");
+            this.resourcesLayer = ChunkedLayer.open(root + "resources.map");
+        }
+        else {
+            this.caveLayer = new MeshLayer(MeshIO.open(root + "map_cave.map"));
+            this.resourcesLayer = new MeshLayer(MeshIO.open(root + "resources.map"));
+        }
+        allLayers = new TileLayer[] {new MeshLayer(surfaceMesh), new MeshLayer(rockMesh), new MeshLayer(flagsMesh), caveLayer, resourcesLayer};
+        watchers = createWatchers(root);
+        overviewCache = new OverviewCache(surfaceMesh);
+        surfaceNormals = new NormalCache(surfaceMesh);
+        rockNormals = new NormalCache(rockMesh);
+        tileRenderer = new TileRenderer(surfaceMesh, rockMesh, caveLayer, surfaceNormals, rockNormals);
+        journal = new SaveJournal(root, allLayers);
     }
 
-    MapData(String root, int powerOfTwo) throws IOException {
+    MapData(String root, int powerOfTwo, LayerStorage storage) throws IOException {
+        SaveJournal.discard(root);
         this.surfaceMesh = createMap(root + "top_layer.map", powerOfTwo);
         this.rockMesh = createMap(root + "rock_layer.map", powerOfTwo);
         this.flagsMesh = createMap(root + "flags.map", powerOfTwo);
-        this.caveMesh = createMap(root + "map_cave.map", powerOfTwo);
-        this.resourcesMesh = createMap(root + "resources.map", powerOfTwo);
-        allMeshes = new MeshIO[] {surfaceMesh, rockMesh, flagsMesh, caveMesh, resourcesMesh};
+        if (storage == LayerStorage.CHUNKED) {
+            this.caveLayer = ChunkedLayer.create(root + "map_cave.map", powerOfTwo);
+            this.resourcesLayer = ChunkedLayer.create(root + "resources.map", powerOfTwo);
+        }
+        else {
+            this.caveLayer = new MeshLayer(createMap(root + "map_cave.map", powerOfTwo));
+            this.resourcesLayer = new MeshLayer(createMap(root + "resources.map", powerOfTwo));
+        }
+        allLayers = new TileLayer[] {new MeshLayer(surfaceMesh), new MeshLayer(rockMesh), new MeshLayer(flagsMesh), caveLayer, resourcesLayer};
+        watchers = createWatchers(root);
+        overviewCache = new OverviewCache(surfaceMesh);
+        surfaceNormals = new NormalCache(surfaceMesh);
+        rockNormals = new NormalCache(rockMesh);
+        tileRenderer = new TileRenderer(surfaceMesh, rockMesh, caveLayer, surfaceNormals, rockNormals);
+        journal = new SaveJournal(root, allLayers);
 
-        int halfWidth = getWidth() / 2;
-        int halfHeight = getHeight() / 2;
-        
-        for (int i = 0; i < getWidth(); i++) {
-            for (int i2 = 0; i2 < getHeight(); i2++) {
-                setCaveTile(i, i2, Tile.TILE_CAVE_WALL);
-                
-                int distToEdge = Math.min(halfWidth - Math.abs(i - halfWidth), halfHeight - Math.abs(i2 - halfHeight));
-                if (distToEdge > 5) {
-                    setRockHeight(i, i2, (short) (95));
-                    setSurfaceTile(i, i2, Tile.TILE_DIRT, (short) (100));
-                }
-                else {
-                    setRockHeight(i, i2, (short) (-200));
-                    setSurfaceTile(i, i2, Tile.TILE_DIRT, (short) (-100));
+        for (MapLayer layer : MapLayer.values()) {
+            final TileLayer tiles = getLayer(layer);
+            for (int i = 0; i < getWidth(); i++) {
+                for (int i2 = 0; i2 < getHeight(); i2++) {
+                    tiles.setTile(i, i2, DefaultTiles.get(layer, i, i2, getWidth()));
                 }
             }
         }
+        // created map files contain only zeros
+        journal.markAllChanged();
     }
     
     private MeshIO createMap(String dir, int powerOfTwo) throws IOException {
@@ -86,6 +160,68 @@ public final class MapData {
         return MeshIO.createMap(dir, powerOfTwo, data);
     }
     
+    private LayerWatcher[] createWatchers(String root) {
+        final MapLayer[] layers = MapLayer.values();
+        final LayerWatcher[] result = new LayerWatcher[layers.length];
+        for (MapLayer layer : layers) {
+            result[layer.ordinal()] = new LayerWatcher(new File(root + layer.getFileName()), allLayers[layer.ordinal()]);
+        }
+        return result;
+    }
+    
+    private TileLayer getLayer(MapLayer layer) {
+        if (layer == null) {
+            throw new IllegalArgumentException("Map layer is null");
+        }
+        return allLayers[layer.ordinal()];
+    }
+    
+    /**
+     * Registers listener notified about every change of map data made through this object, including rows reloaded by {@link #refresh()}.
+     * 
+     * @param listener listener to add.
+     */
+    public synchronized void addChangeListener(MapChangeListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is null");
+        }
+        final MapChangeListener[] listeners = Arrays.copyOf(changeListeners, changeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        changeListeners = listeners;
+    }
+    
+    /**
+     * @param listener listener to remove. Nothing happens if it wasn't registered.
+     */
+    public synchronized void removeChangeListener(MapChangeListener listener) {
+        final List<MapChangeListener> listeners = new ArrayList<>(Arrays.asList(changeListeners));
+        listeners.remove(listener);
+        changeListeners = listeners.toArray(new MapChangeListener[0]);
+    }
+    
+    private void tilesChanged(MapLayer layer, int fromX, int fromY, int toX, int toY) {
+        journal.markChanged(layer, fromY, toY);
+        notifyListeners(layer, fromX, fromY, toX, toY);
+    }
+    
+    private void notifyListeners(MapLayer layer, int fromX, int fromY, int toX, int toY) {
+        for (MapChangeListener listener : changeListeners) {
+            listener.tilesChanged(layer, fromX, fromY, toX, toY);
+        }
+    }
+    
+    private void tilesChanged(MapLayer layer) {
+        tilesChanged(layer, 0, 0, getWidth(), getHeight());
+    }
+    
+    /**
+     * @param layer map layer.
+     * @return approximate number of bytes used to keep layer in memory.
+     */
+    public long getMemoryUsage(MapLayer layer) {
+        return getLayer(layer).getMemoryUsage();
+    }
+    
     /**
      * Currently map width and height are always equal, but two methods exists in case if this will change in a future.
      * 
@@ -206,6 +342,9 @@ public final class MapData {
         }
         
         surfaceMesh.setTile(x, y, Tiles.encode(height, (byte) tileType.getId(), data));
+        overviewCache.invalidate(x, y);
+        surfaceNormals.invalidate(x, y);
+        tilesChanged(MapLayer.SURFACE, x, y, x + 1, y + 1);
     }
     
     /**
@@ -300,6 +439,8 @@ public final class MapData {
         short currentHeight = Tiles.decodeHeight(data);
 
         surfaceMesh.setTile(x, y, Tiles.encode(currentHeight, foliageType, resultData));
+        overviewCache.invalidate(x, y);
+        tilesChanged(MapLayer.SURFACE, x, y, x + 1, y + 1);
     }
     
     /**
@@ -344,6 +485,8 @@ public final class MapData {
         
         short currentHeight = Tiles.decodeHeight(surfaceMesh.getTile(x, y));
         surfaceMesh.setTile(x, y, Tiles.encode(currentHeight,(byte) currentType, GrassData.encodeGrassTileData(grassStage, grassType, flower)));
+        overviewCache.invalidate(x, y);
+        tilesChanged(MapLayer.SURFACE, x, y, x + 1, y + 1);
     }
     
     public short getRockHeight(int x, int y) {
@@ -361,6 +504,8 @@ public final class MapData {
      */
     public void setRockHeight(int x, int y, short height) {
         rockMesh.setTile(x, y, Tiles.encode(height, (byte) Tiles.TILE_TYPE_ROCK, (byte) 0));
+        rockNormals.invalidate(x, y);
+        tilesChanged(MapLayer.ROCK, x, y, x + 1, y + 1);
     }
     
     /**
@@ -370,7 +515,7 @@ public final class MapData {
      * @return cave tile type in location.
      */
     public Tile getCaveTile(int x, int y) {
-        return Tiles.getTile(Tiles.decodeType(caveMesh.getTile(x, y)));
+        return Tiles.getTile(Tiles.decodeType(caveLayer.getTile(x, y)));
     }
 
     /**
@@ -416,7 +561,8 @@ public final class MapData {
     }
     
     public void setCaveTile(int x, int y, Tile tileType, short height, byte data) {
-        caveMesh.setTile(x, y, Tiles.encode(height, tileType.getId(), data));
+        caveLayer.setTile(x, y, Tiles.encode(height, tileType.getId(), data));
+        tilesChanged(MapLayer.CAVE, x, y, x + 1, y + 1);
     }
     
     /**
@@ -425,7 +571,7 @@ public final class MapData {
      * @return number of mining actions needed to deplete vein.
      */
     public short getCaveResourceCount(int x, int y) {
-        final int value = resourcesMesh.getTile(x, y);
+        final int value = resourcesLayer.getTile(x, y);
         final int toReturn = (value >> 16) & 0xFFFF;
         return (short) toReturn;
     }
@@ -442,8 +588,504 @@ public final class MapData {
             throw new IllegalArgumentException("Invalid amount of resources in cave tile: "+resourceCount+", must be higher than 0");
         }
         
-        final int value = resourcesMesh.getTile(x, y);
-        resourcesMesh.setTile(x, y, ((resourceCount & 0xFFFF) << 16) + (value & 0xFFFF));
+        final int value = resourcesLayer.getTile(x, y);
+        resourcesLayer.setTile(x, y, ((resourceCount & 0xFFFF) << 16) + (value & 0xFFFF));
+        tilesChanged(MapLayer.RESOURCES, x, y, x + 1, y + 1);
+    }
+    
+    /**
+     * Generates ore veins inside cave walls. Only plain cave walls are replaced, tunnels and existing veins are left untouched.<br>
+     * Result depends only on seed, veins and current caves - never on number of threads.
+     * 
+     * @param seed seed of generated veins.
+     * @param veins kinds of veins to generate.
+     * @return number of cave wall tiles replaced by veins.
+     */
+    public long generateVeins(long seed, OreVein... veins) {
+        return generateVeins(seed, Arrays.asList(veins), ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Generates ore veins inside cave walls. Only plain cave walls are replaced, tunnels and existing veins are left untouched.<br>
+     * Result depends only on seed, veins and current caves - never on number of threads.
+     * 
+     * @param seed seed of generated veins.
+     * @param veins kinds of veins to generate, in order of priority - earlier veins are placed first.
+     * @param pool pool to generate veins on, or null to generate them in calling thread.
+     * @return number of cave wall tiles replaced by veins.
+     */
+    public long generateVeins(long seed, List<OreVein> veins, ForkJoinPool pool) {
+        if (veins.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many vein kinds: " + veins.size());
+        }
+        final long replaced = new VeinGenerator(caveLayer, resourcesLayer).generate(seed, veins, pool);
+        tilesChanged(MapLayer.CAVE);
+        tilesChanged(MapLayer.RESOURCES);
+        return replaced;
+    }
+    
+    /**
+     * Generates whole new world with default settings, using all available processors.<br>
+     * Please see {@link #generateWorld(long, com.wurmonline.wurmapi.api.map.generator.WorldSettings, java.util.concurrent.ForkJoinPool) this method} for more details.
+     * 
+     * @param seed seed of generated world.
+     * @return number of cave wall tiles replaced by veins.
+     */
+    public long generateWorld(long seed) {
+        return generateWorld(seed, WorldSettings.defaults(), ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Generates whole new world: terrain heights with ocean around map edges, rock layer, surface tile types, trees, bushes, grass and flowers,
+     * and caves with ore veins. All tiles of surface, rock, cave and resources layers are replaced, flags are left untouched.<br>
+     * Result depends only on seed and settings - never on number of threads.
+     * 
+     * @param seed seed of generated world.
+     * @param settings generated world settings.
+     * @param pool pool to generate world on, or null to generate it in calling thread.
+     * @return number of cave wall tiles replaced by veins.
+     */
+    public long generateWorld(long seed, WorldSettings settings, ForkJoinPool pool) {
+        if (settings == null) {
+            throw new IllegalArgumentException("Settings are null");
+        }
+        final long veins = new WorldGenerator(surfaceMesh, rockMesh, caveLayer, resourcesLayer).generate(seed, settings, pool);
+        overviewCache.invalidateAll();
+        surfaceNormals.invalidateAll();
+        rockNormals.invalidateAll();
+        tilesChanged(MapLayer.SURFACE);
+        tilesChanged(MapLayer.ROCK);
+        tilesChanged(MapLayer.CAVE);
+        tilesChanged(MapLayer.RESOURCES);
+        return veins;
+    }
+    
+    /**
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @return all 32 flag bits of tile.
+     */
+    public int getFlags(int x, int y) {
+        return flagsMesh.getTile(x, y);
+    }
+    
+    /**
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @param flags all 32 flag bits of tile.
+     */
+    public void setFlags(int x, int y, int flags) {
+        flagsMesh.setTile(x, y, flags);
+        tilesChanged(MapLayer.FLAGS, x, y, x + 1, y + 1);
+    }
+    
+    /**
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @param flag index of flag bit, from 0 to 31.
+     * @return true if flag is set on tile.
+     */
+    public boolean getFlag(int x, int y, int flag) {
+        checkFlag(flag);
+        return ((flagsMesh.getTile(x, y) >>> flag) & 1) != 0;
+    }
+    
+    /**
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @param flag index of flag bit, from 0 to 31.
+     * @param value true to set flag, false to clear it.
+     */
+    public void setFlag(int x, int y, int flag, boolean value) {
+        checkFlag(flag);
+        final int flags = flagsMesh.getTile(x, y);
+        flagsMesh.setTile(x, y, value ? flags | (1 << flag) : flags & ~(1 << flag));
+        tilesChanged(MapLayer.FLAGS, x, y, x + 1, y + 1);
+    }
+    
+    /**
+     * Returns all tiles with flag set.<br>
+     * Tiles in returned set (and in all sets accepted by other flag methods) are indexed by x + y * map width,
+     * so sets can be combined with {@link BitSet#and(java.util.BitSet)}, {@link BitSet#or(java.util.BitSet)} and similar methods.
+     * 
+     * @param flag index of flag bit, from 0 to 31.
+     * @return set of tiles with flag set.
+     */
+    public BitSet getFlagTiles(int flag) {
+        checkFlag(flag);
+        return new FlagBits(flagsMesh, ForkJoinPool.commonPool()).getTiles(flag);
+    }
+    
+    /**
+     * Finds all tiles inside rectangle matching predicate. Returned set can be used to change flags of these tiles,
+     * for example: {@code setFlag(flag, selectTiles(MapLayer.SURFACE, TilePredicate.heightBelow((short) 0), 0, 0, 100, 100), true)}.
+     * 
+     * @param layer layer passed to predicate.
+     * @param predicate predicate to test tiles with.
+     * @param fromX first column (inclusive).
+     * @param fromY first row (inclusive).
+     * @param toX last column (exclusive).
+     * @param toY last row (exclusive).
+     * @return set of matching tiles.
+     */
+    public BitSet selectTiles(MapLayer layer, TilePredicate predicate, int fromX, int fromY, int toX, int toY) {
+        checkRectangle(fromX, fromY, toX, toY);
+        return new FlagBits(flagsMesh, ForkJoinPool.commonPool()).selectTiles(getLayer(layer), predicate, fromX, fromY, toX, toY);
+    }
+    
+    /**
+     * Sets or clears flag on all tiles in set. Flags of other tiles are not changed.
+     * 
+     * @param flag index of flag bit, from 0 to 31.
+     * @param tiles set of tiles to change.
+     * @param value true to set flag, false to clear it.
+     */
+    public void setFlag(int flag, BitSet tiles, boolean value) {
+        checkFlag(flag);
+        if (tiles.length() > getWidth() * getHeight()) {
+            throw new IllegalArgumentException("Tile set contains tiles outside of map: " + (tiles.length() - 1));
+        }
+        new FlagBits(flagsMesh, ForkJoinPool.commonPool()).setFlag(flag, tiles, value);
+        if (!tiles.isEmpty()) {
+            // rows between the first and the last tile of set
+            tilesChanged(MapLayer.FLAGS, 0, tiles.nextSetBit(0) / getWidth(), getWidth(), (tiles.length() - 1) / getWidth() + 1);
+        }
+    }
+    
+    /**
+     * Sets or clears flag on all tiles inside rectangle.
+     * 
+     * @param flag index of flag bit, from 0 to 31.
+     * @param fromX first column (inclusive).
+     * @param fromY first row (inclusive).
+     * @param toX last column (exclusive).
+     * @param toY last row (exclusive).
+     * @param value true to set flag, false to clear it.
+     */
+    public void setFlag(int flag, int fromX, int fromY, int toX, int toY, boolean value) {
+        checkFlag(flag);
+        checkRectangle(fromX, fromY, toX, toY);
+        new FlagBits(flagsMesh, ForkJoinPool.commonPool()).setFlag(flag, fromX, fromY, toX, toY, value);
+        tilesChanged(MapLayer.FLAGS, fromX, fromY, toX, toY);
+    }
+    
+    /**
+     * @param flag index of flag bit, from 0 to 31.
+     * @return number of tiles on map with flag set.
+     */
+    public long countFlag(int flag) {
+        return countFlag(flag, 0, 0, getWidth(), getHeight());
+    }
+    
+    /**
+     * @param flag index of flag bit, from 0 to 31.
+     * @param fromX first column (inclusive).
+     * @param fromY first row (inclusive).
+     * @param toX last column (exclusive).
+     * @param toY last row (exclusive).
+     * @return number of tiles inside rectangle with flag set.
+     */
+    public long countFlag(int flag, int fromX, int fromY, int toX, int toY) {
+        checkFlag(flag);
+        checkRectangle(fromX, fromY, toX, toY);
+        return new FlagBits(flagsMesh, ForkJoinPool.commonPool()).countFlag(flag, fromX, fromY, toX, toY);
+    }
+    
+    private void checkFlag(int flag) {
+        if (flag < 0 || flag >= Integer.SIZE) {
+            throw new IllegalArgumentException("Invalid flag: " + flag + ", must be between 0 and 31");
+        }
+    }
+    
+    private void checkRectangle(int fromX, int fromY, int toX, int toY) {
+        if (fromX < 0 || fromY < 0 || toX > getWidth() || toY > getHeight() || fromX > toX || fromY > toY) {
+            throw new IllegalArgumentException("Invalid rectangle: (" + fromX + ", " + fromY + ") - (" + toX + ", " + toY + ")");
+        }
+    }
+    
+    /**
+     * Imports heightmap file into surface or rock layer, using format matching file extension (.png, .r16 or .raw).<br>
+     * Please see {@link #importHeightmap(java.io.File, com.wurmonline.wurmapi.api.map.heightmap.HeightmapFormat, com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer, boolean) this method} for more details.
+     * 
+     * @param file heightmap file.
+     * @param layer layer to import heights into.
+     */
+    public void importHeightmap(File file, HeightmapLayer layer) throws IOException {
+        importHeightmap(file, HeightmapFormat.forFile(file), layer, true);
+    }
+    
+    /**
+     * Imports heightmap file into surface or rock layer.<br>
+     * Heightmap must have exactly the same size as the map. Sample value 32768 is height 0, every sample step is one height unit.<br>
+     * File is streamed in bands of rows, so memory use does not depend on map size. Tile types and tile data are left untouched.<br><br>
+     * 
+     * Surface is never left below rock: when importing surface, heights lower than rock are raised to rock height;
+     * when importing rock, surface lower than new rock height is raised to it (just like {@link #saveChanges()} does).
+     * 
+     * @param file heightmap file.
+     * @param format heightmap file format.
+     * @param layer layer to import heights into.
+     * @param parallel true to decode and apply rows on multiple threads.
+     */
+    public void importHeightmap(File file, HeightmapFormat format, HeightmapLayer layer, boolean parallel) throws IOException {
+        new HeightmapIO(surfaceMesh, rockMesh).importHeightmap(file, format, layer, parallel);
+        overviewCache.invalidateAll();
+        surfaceNormals.invalidateAll();
+        rockNormals.invalidateAll();
+        tilesChanged(MapLayer.SURFACE);
+        tilesChanged(MapLayer.ROCK);
+    }
+    
+    /**
+     * Exports surface or rock layer to heightmap file, using format matching file extension (.png, .r16 or .raw).
+     * 
+     * @param file heightmap file, overwritten if it exists.
+     * @param layer layer to export.
+     */
+    public void exportHeightmap(File file, HeightmapLayer layer) throws IOException {
+        exportHeightmap(file, HeightmapFormat.forFile(file), layer);
+    }
+    
+    /**
+     * Exports surface or rock layer to heightmap file. File is written in bands of rows, so memory use does not depend on map size.
+     * 
+     * @param file heightmap file, overwritten if it exists.
+     * @param format heightmap file format.
+     * @param layer layer to export.
+     */
+    public void exportHeightmap(File file, HeightmapFormat format, HeightmapLayer layer) throws IOException {
+        new HeightmapIO(surfaceMesh, rockMesh).exportHeightmap(file, format, layer, true);
+    }
+    
+    /**
+     * Runs terrain filter (smoothing, erosion, slope clamping) over surface or rock layer, using all available processors.<br>
+     * Please see {@link #applyFilter(com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer, com.wurmonline.wurmapi.api.map.filter.TerrainFilter, int, java.util.concurrent.ForkJoinPool) this method} for more details.
+     * 
+     * @param layer layer to filter.
+     * @param filter filter to run.
+     * @param passes number of filter passes.
+     */
+    public void applyFilter(HeightmapLayer layer, TerrainFilter filter, int passes) {
+        applyFilter(layer, filter, passes, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Runs terrain filter (smoothing, erosion, slope clamping) over surface or rock layer.<br>
+     * Filter is working on a copy of layer heights, so it never reads its own output. Tile types and tile data are left untouched.<br>
+     * Surface is never left below rock after filtering, see {@link #importHeightmap(java.io.File, com.wurmonline.wurmapi.api.map.heightmap.HeightmapFormat, com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer, boolean) importHeightmap}.
+     * 
+     * @param layer layer to filter.
+     * @param filter filter to run.
+     * @param passes number of filter passes.
+     * @param pool pool to run filter on, or null to run it in calling thread.
+     */
+    public void applyFilter(HeightmapLayer layer, TerrainFilter filter, int passes, ForkJoinPool pool) {
+        final int size = getWidth();
+        final int[] surface = surfaceMesh.getData();
+        final int[] rock = rockMesh.getData();
+        final int[] source = layer == HeightmapLayer.SURFACE ? surface : rock;
+        final float[] heights = new float[size * size];
+        
+        RowBands.forEach(size, RowBands.DEFAULT_BAND_HEIGHT, pool, (fromY, toY) -> {
+            for (int index = fromY * size; index < toY * size; index++) {
+                heights[index] = Tiles.decodeHeight(source[index]);
+            }
+        });
+        
+        filter.apply(heights, size, passes, pool);
+        
+        RowBands.forEach(size, RowBands.DEFAULT_BAND_HEIGHT, pool, (fromY, toY) -> {
+            for (int index = fromY * size; index < toY * size; index++) {
+                final float height = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(heights[index])));
+                Meshes.setLayerHeight(surface, rock, index, layer, (short) height);
+            }
+        });
+        Meshes.markRowsDirty(surfaceMesh, 0, size);
+        Meshes.markRowsDirty(rockMesh, 0, size);
+        overviewCache.invalidateAll();
+        surfaceNormals.invalidateAll();
+        rockNormals.invalidateAll();
+        tilesChanged(MapLayer.SURFACE);
+        tilesChanged(MapLayer.ROCK);
+    }
+    
+    /**
+     * Applies all edits of log, grouped by layer and row instead of in order they were added, using all available processors.<br>
+     * Result is the same as applying edits one by one in log order, but every row is touched only once, and edits overwritten
+     * by later {@link EditOp#SET} of the same tile are skipped. Only rows with edits are marked as changed and saved.<br>
+     * Edits are written as they are - map errors like surface below rock are only fixed by {@link #saveChanges()}.
+     * 
+     * @param log edits to apply. Log is not cleared.
+     * @return number of applied edits, not counting skipped ones.
+     */
+    public int applyEdits(TileEditLog log) {
+        if (log == null) {
+            throw new IllegalArgumentException("Edit log is null");
+        }
+        return new EditApplier(allLayers).apply(log, ForkJoinPool.commonPool(), (layer, y, fromX, toX) -> {
+            if (layer == MapLayer.SURFACE) {
+                overviewCache.invalidate(fromX, y, toX, y + 1);
+                surfaceNormals.invalidate(fromX, y, toX, y + 1);
+            }
+            else if (layer == MapLayer.ROCK) {
+                rockNormals.invalidate(fromX, y, toX, y + 1);
+            }
+            tilesChanged(layer, fromX, y, toX, y + 1);
+        });
+    }
+    
+    /**
+     * Checks world for map errors of all kinds, using all available processors. Up to {@value #DEFAULT_LISTED_VIOLATIONS} errors of every kind are listed.<br>
+     * Please see {@link #validate(Set, boolean, int, ForkJoinPool)} for details.
+     * 
+     * @param repair true to repair found errors, false to only check world.
+     * @return found errors.
+     */
+    public ValidationReport validate(boolean repair) {
+        return validate(EnumSet.allOf(ViolationType.class), repair, DEFAULT_LISTED_VIOLATIONS, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Checks world for map errors in one pass over all layers, in parallel bands of rows. Every kind of error is described by {@link ViolationType},
+     * together with the way it is repaired. {@link #saveChanges()} repairs {@link ViolationType#SURFACE_BELOW_ROCK} and {@link ViolationType#EXPOSED_ROCK}
+     * errors the same way.<br>
+     * Only repaired rows are marked as changed and saved.
+     * 
+     * @param types kinds of errors to check.
+     * @param repair true to repair found errors, false to only check world.
+     * @param maxListed maximum number of listed errors of every kind, 0 to only count them.
+     * @param pool pool to validate on, or null to validate in calling thread.
+     * @return found errors.
+     */
+    public ValidationReport validate(Set<ViolationType> types, boolean repair, int maxListed, ForkJoinPool pool) {
+        if (types == null) {
+            throw new IllegalArgumentException("Violation types are null");
+        }
+        else if (maxListed < 0) {
+            throw new IllegalArgumentException("Invalid number of listed violations: " + maxListed + ", must be at least 0");
+        }
+        
+        final WorldValidator validator = new WorldValidator(surfaceMesh, rockMesh, caveLayer, resourcesLayer);
+        return validator.validate(types, repair, maxListed, pool, (layer, y, fromX, toX) -> {
+            if (layer == MapLayer.SURFACE) {
+                overviewCache.invalidate(fromX, y, toX, y + 1);
+                surfaceNormals.invalidate(fromX, y, toX, y + 1);
+            }
+            tilesChanged(layer, fromX, y, toX, y + 1);
+        });
+    }
+    
+    /**
+     * Finds connected regions of tiles matching predicate in any layer, using all available processors.<br>
+     * Tiles are connected through their edges. Map is split into bands of rows, which are labelled independently and merged afterwards,
+     * so even map-sized components are handled without recursion.
+     * 
+     * @param layer layer to analyse.
+     * @param predicate predicate deciding which tiles belong to components.
+     * @return label raster and statistics of every component.
+     */
+    public ConnectedComponents findComponents(MapLayer layer, TilePredicate predicate) {
+        return new ComponentLabeler(getLayer(layer), ForkJoinPool.commonPool()).label(predicate);
+    }
+    
+    /**
+     * @return lakes and seas - connected regions of surface below water level (height lower than 0).
+     */
+    public ConnectedComponents findWaterBodies() {
+        return findComponents(MapLayer.SURFACE, TilePredicate.heightBelow((short) 0));
+    }
+    
+    /**
+     * @return cave systems - connected regions of cave layer which are not solid walls.
+     */
+    public ConnectedComponents findCaveSystems() {
+        return findComponents(MapLayer.CAVE, TilePredicate.tileType(tile -> tile.isCave() && !tile.isSolidCave()));
+    }
+    
+    /**
+     * @return forests - connected regions of tree tiles on surface.
+     */
+    public ConnectedComponents findForests() {
+        return findComponents(MapLayer.SURFACE, TilePredicate.tileType(Tile::isTree));
+    }
+    
+    /**
+     * Finds cheapest path between two surface tiles, moving to any of 8 neighbouring tiles in every step.<br>
+     * Please see {@link #findPath(int, int, int, int, com.wurmonline.wurmapi.api.map.paths.PathCost, boolean) this method} for more details.
+     * 
+     * @param fromX x location of start.
+     * @param fromY y location of start.
+     * @param toX x location of target.
+     * @param toY y location of target.
+     * @param cost cost of steps, for example {@link PathCost#terrain(float, short, float)}.
+     * @return cheapest path, or null if target can't be reached.
+     */
+    public Path findPath(int fromX, int fromY, int toX, int toY, PathCost cost) {
+        return findPath(fromX, fromY, toX, toY, cost, false);
+    }
+    
+    /**
+     * Finds path between two surface tiles, moving to any of 8 neighbouring tiles in every step.<br>
+     * Exact search always returns cheapest path, but across whole map it can examine millions of tiles.
+     * Hierarchical search first plans route over 64x64 tile chunks and then searches only tiles near that route,
+     * so long paths are found much faster, but they can be slightly more expensive than cheapest one.
+     * If there is no path near planned route, whole map is searched.
+     * 
+     * @param fromX x location of start.
+     * @param fromY y location of start.
+     * @param toX x location of target.
+     * @param toY y location of target.
+     * @param cost cost of steps, for example {@link PathCost#terrain(float, short, float)}.
+     * @param hierarchical true for hierarchical search, false for exact search.
+     * @return path, or null if target can't be reached.
+     */
+    public Path findPath(int fromX, int fromY, int toX, int toY, PathCost cost, boolean hierarchical) {
+        final int size = surfaceMesh.getSize();
+        if (fromX < 0 || fromY < 0 || fromX >= size || fromY >= size || toX < 0 || toY < 0 || toX >= size || toY >= size) {
+            throw new IllegalArgumentException("Invalid path: (" + fromX + ", " + fromY + ") to (" + toX + ", " + toY + ")");
+        }
+        else if (cost == null) {
+            throw new IllegalArgumentException("Cost is null");
+        }
+        return new PathFinder(surfaceMesh).find(fromX, fromY, toX, toY, cost, hierarchical);
+    }
+    
+    /**
+     * Returns downscaled surface layer, where every block of 2^level x 2^level tiles is reduced to its most common tile type and average height.<br>
+     * Levels are computed on first request and cached. Changes made to surface only invalidate regions they touch,
+     * so next request recomputes only these regions.
+     * 
+     * @param level power of two of block size, from 0 (single tiles) to map power of two (whole map).
+     * @return overview level.
+     */
+    public OverviewLevel getOverview(int level) {
+        return overviewCache.getLevel(level, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Returns distant terrain data - most common tile type of every 16x16 tiles block, the same data server calculates using {@link MeshIO#calcDistantTerrain()}.<br>
+     * Type of block (x, y) is stored at index x + y * (map width / 16).
+     * 
+     * @return distant terrain types. Returned array is not copied, so it shouldn't be modified.
+     */
+    public byte[] getDistantTerrainTypes() {
+        return getOverview(4).getTypes();
+    }
+    
+    /**
+     * Creates flat, downscaled map dump from cached overview data - every pixel shows most common tile type of its block.<br>
+     * This is much faster than creating full map dump, and looks better than skipping tiles.
+     * 
+     * @param desiredPowerOfTwo desired output image power of two, or map power of two if it is lower than this value.
+     * @param showWater set true if you want to make water visible, false otherwise.
+     * @return map image
+     */
+    public BufferedImage createOverviewDump(int desiredPowerOfTwo, boolean showWater) {
+        if (desiredPowerOfTwo < 0) {
+            throw new IllegalArgumentException("Desired power of two is negative.");
+        }
+        final int level = surfaceMesh.getSizeLevel() - Math.min(desiredPowerOfTwo, surfaceMesh.getSizeLevel());
+        return DumpRenderer.renderOverview(getOverview(level), new DefaultColorist(), showWater);
     }
     
     /**
@@ -465,80 +1107,7 @@ public final class MapData {
      * @return map image
      */
     public BufferedImage createMapDump(int desiredPowerOfTwo) {
-        if (desiredPowerOfTwo < 7) {
-            throw new IllegalArgumentException("Desired power of two is smaller than 7.");
-        }
-        final int scale = Math.min(desiredPowerOfTwo, surfaceMesh.getSizeLevel());
-        final int scaleDiff = surfaceMesh.getSizeLevel() - scale;
-        
-        int downscalePower = 1 << scaleDiff;
-        final int lWidth = getWidth();
-        final int downWidth = getWidth() / downscalePower;
-
-        final BufferedImage bi2 = new BufferedImage(downWidth, downWidth, BufferedImage.TYPE_INT_RGB);
-        final float[] data = new float[downWidth * downWidth * 3];
-        
-        for (int x = 0; x < lWidth; x += downscalePower) {
-            int alt = downWidth - 1;
-            for (int y = lWidth - 1; y >= 0; y -= downscalePower) {
-                float node = (float) (getSurfaceHeight(x, y) / (Short.MAX_VALUE / 3.3f));
-                float node2 = x == lWidth - 1 || y == lWidth - 1 ? node : (float) (getSurfaceHeight(x + downscalePower, y + downscalePower) / (Short.MAX_VALUE / 3.3f));
-
-                final byte tex = Tiles.decodeType(surfaceMesh.getTile(x, y));
-
-                final float hh = node;
-
-                float h = ((node2 - node) * 1500) / 256.0f * downWidth / 128 + hh / 2 + 1.0f;
-                h *= 0.4f;
-
-                float r = h;
-                float g = h;
-                float b = h;
-
-                final Tile tile = Tiles.getTile(tex);
-                final Color color;
-                if (tile != null) {
-                    color = tile.getColor();
-                }
-                else {
-                    color = Tile.TILE_DIRT.getColor();
-                }
-                r *= (color.getRed() / 255.0f) * 2;
-                g *= (color.getGreen() / 255.0f) * 2;
-                b *= (color.getBlue() / 255.0f) * 2;
-
-                if (r < 0)
-                    r = 0;
-                if (r > 1)
-                    r = 1;
-                if (g < 0)
-                    g = 0;
-                if (g > 1)
-                    g = 1;
-                if (b < 0)
-                    b = 0;
-                if (b > 1)
-                    b = 1;
-
-                if (node < 0) {
-                    r = r * 0.2f + 0.4f * 0.4f;
-                    g = g * 0.2f + 0.5f * 0.4f;
-                    b = b * 0.2f + 1.0f * 0.4f;
-                }
-
-                final int altTarget = y / downscalePower - (int) (Tiles.decodeHeight(surfaceMesh.getTile(x, y)) * MAP_HEIGHT / 4  / (Short.MAX_VALUE / 3.3f)) / downscalePower;
-                while (alt > altTarget && alt >= 0) {
-                    final int coord = (x / downscalePower + alt * downWidth) * 3;
-                    data[coord + 0] = r * 255;
-                    data[coord + 1] = g * 255;
-                    data[coord + 2] = b * 255;
-                    alt--;
-                }
-            }
-        }
-
-        bi2.getRaster().setPixels(0, 0, downWidth, downWidth, data);
-        return bi2;
+        return createDumps(DumpRequest.map(desiredPowerOfTwo)).get(0);
     }
     
     /**
@@ -549,15 +1118,15 @@ public final class MapData {
      * @return map image
      */
     public BufferedImage createTerrainDump(boolean showWater) {
-        return createFlatDump(true, showWater);
+        return createDumps(DumpRequest.terrain(showWater)).get(0);
     }
 
     public BufferedImage createFlowerDump(boolean showWater) {
-        return createFlatDump(true, showWater, true, false, new DefaultColorist());
+        return createDumps(DumpRequest.flowers(showWater)).get(0);
     }
 
     public BufferedImage createTreeDump(boolean showWater) {
-        return createFlatDump(true, showWater, false, true, new DefaultColorist());
+        return createDumps(DumpRequest.trees(showWater)).get(0);
     }
 
     /**
@@ -569,111 +1138,7 @@ public final class MapData {
      * @return map image
      */
     public BufferedImage createCaveDump(boolean showWater, Tile... tiles) {
-        return createFlatDump(false, showWater, tiles);
-    }
-
-    private BufferedImage createFlatDump(boolean isSurface, boolean showWater, Tile... allowedTiles) {
-        return createFlatDump(isSurface, showWater, false, false, new DefaultColorist(), allowedTiles);
-    }
-
-    private BufferedImage createFlatDump(boolean isSurface, boolean showWater, boolean showFlowerTypes,
-                                         boolean showTreeTypes, Colorist colorist, Tile... allowedTiles) {
-        final MeshIO terrainMesh;
-        if (isSurface) {
-            terrainMesh = surfaceMesh;
-        }
-        else {
-            terrainMesh = caveMesh;
-        }
-        
-        final MeshIO heightMesh;
-        if (isSurface) {
-            heightMesh = surfaceMesh;
-        }
-        else {
-            heightMesh = rockMesh;
-        }
-        
-        int lWidth = 16384;
-        if (lWidth > getWidth())
-            lWidth = getWidth();
-        int yo = getWidth() - lWidth;
-        if (yo < 0)
-            yo = 0;
-        int xo = getWidth() - lWidth;
-        if (xo < 0)
-            xo = 0;
-
-        final Random random = new Random();
-        if (xo > 0)
-            xo = random.nextInt(xo);
-        if (yo > 0)
-            yo = random.nextInt(yo);
-
-        final BufferedImage bi2 = new BufferedImage(lWidth, lWidth, BufferedImage.TYPE_INT_RGB);
-        final float[] data = new float[lWidth * lWidth * 3];
-        
-        for (int x = 0; x < lWidth; x++) {
-            for (int y = lWidth - 1; y >= 0; y--) {
-                final short height = Tiles.decodeHeight(heightMesh.getTile(x + xo, y + yo));
-                final int encodedTile = terrainMesh.getTile(x + xo, y + yo);
-                final byte tex = Tiles.decodeType(encodedTile);
-                final Tile tile = Tiles.getTile(tex);
-                boolean visible = true;
-                
-                if (allowedTiles != null && allowedTiles.length > 0) {
-                    visible = false;
-                    for (int i = 0; i< allowedTiles.length; i++) {
-                        if (allowedTiles[i] == tile) {
-                            visible = true;
-                            break;
-                        }
-                    }
-                }
-
-                final Color color;
-                if (tile != null) {
-                    if (isSurface) {
-                        if (tile.isGrass() && showFlowerTypes) {
-                            color = colorist.getFlowerColorFor(encodedTile);
-                        } else if (tile.isTree() && showTreeTypes) {
-                            color = colorist.getTreeColorFor(tile.getTreeType(Tiles.decodeData(encodedTile)));
-                        } else {
-                            color = colorist.getSurfaceColorFor(tile);
-                        }
-                    }
-                    else if (visible) {
-                        color = colorist.getCaveColorFor(tile);
-                    }
-                    else {
-                        color = colorist.getCaveColorFor(Tile.TILE_CAVE_WALL);
-                    }
-                }
-                else {
-                    if (isSurface) {
-                        color = colorist.getSurfaceUnknownColor();
-                    }
-                    else {
-                        color = colorist.getCaveUnknownColor();
-                    }
-                }
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-                if (height < 0 && showWater) {
-                    r = (int) (r * 0.2f + 0.4f * 0.4f * 256f);
-                    g = (int) (g * 0.2f + 0.5f * 0.4f * 256f);
-                    b = (int) (b * 0.2f + 1.0f * 0.4f * 256f);
-                }
-                
-                data[(x + y * lWidth) * 3 + 0] = r;
-                data[(x + y * lWidth) * 3 + 1] = g;
-                data[(x + y * lWidth) * 3 + 2] = b;
-            }
-        }
-
-        bi2.getRaster().setPixels(0, 0, lWidth, lWidth, data);
-        return bi2;
+        return createDumps(DumpRequest.cave(showWater, tiles)).get(0);
     }
 
     /**
@@ -685,122 +1150,150 @@ public final class MapData {
      * @return map image
      */
     public BufferedImage createTopographicDump(boolean showWater, short interval) {
-        int lWidth = 16384;
-        if (lWidth > getWidth())
-            lWidth = getWidth();
-        int yo = getWidth() - lWidth;
-        if (yo < 0)
-            yo = 0;
-        int xo = getWidth() - lWidth;
-        if (xo < 0)
-            xo = 0;
-
-        final Random random = new Random();
-        if (xo > 0)
-            xo = random.nextInt(xo);
-        if (yo > 0)
-            yo = random.nextInt(yo);
-
-        final BufferedImage bi2 = new BufferedImage(lWidth, lWidth, BufferedImage.TYPE_INT_RGB);
-        final float[] data = new float[lWidth * lWidth * 3];
-        
-        for (int x = 0; x < lWidth; x++) {
-            for (int y = lWidth - 1; y >= 0; y--) {
-                final short height = Tiles.decodeHeight(surfaceMesh.getTile(x + xo, y + yo));
-                final short nearHeightNX = x == 0 ? height : Tiles.decodeHeight(surfaceMesh.getTile(x + xo - 1, y + yo));
-                final short nearHeightNY = y == 0 ? height : Tiles.decodeHeight(surfaceMesh.getTile(x + xo, y + yo - 1));
-                final short nearHeightX = x == lWidth - 1 ? height : Tiles.decodeHeight(surfaceMesh.getTile(x + xo + 1, y + yo));
-                final short nearHeightY = y == lWidth - 1 ? height : Tiles.decodeHeight(surfaceMesh.getTile(x + xo, y + yo + 1));
-                boolean isControur = checkContourLine(height, nearHeightNX, interval) || checkContourLine(height, nearHeightNY, interval) || checkContourLine(height, nearHeightX, interval) || checkContourLine(height, nearHeightY, interval);
-                
-                final byte tex = Tiles.decodeType(surfaceMesh.getTile(x + xo, y + yo));
-
-                final Tile tile = Tiles.getTile(tex);
-                final Color color;
-                if (tile != null) {
-                    color = tile.getColor();
-                }
-                else {
-                    color = Tile.TILE_DIRT.getColor();
-                }
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-                if (isControur) {
-                    r = 0;
-                    g = 0;
-                    b = 0;
-                }
-                else if (height < 0 && showWater) {
-                    r = (int) (r * 0.2f + 0.4f * 0.4f * 256f);
-                    g = (int) (g * 0.2f + 0.5f * 0.4f * 256f);
-                    b = (int) (b * 0.2f + 1.0f * 0.4f * 256f);
-                }
-                
-                data[(x + y * lWidth) * 3 + 0] = r;
-                data[(x + y * lWidth) * 3 + 1] = g;
-                data[(x + y * lWidth) * 3 + 2] = b;
-            }
-        }
-
-        bi2.getRaster().setPixels(0, 0, lWidth, lWidth, data);
-        return bi2;
+        return createDumps(DumpRequest.topographic(showWater, interval)).get(0);
     }
     
-    private boolean checkContourLine(short h0, short h1, short interval) {
-        if (h0 == h1) {
-            return false;
-        }
-        for (int i = h0; i<=h1; i++) {
-            if (i % interval == 0) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * Creates shaded relief of surface layer - terrain type colors lit from north-west, computed from terrain normals.<br>
+     * Normals are cached between dumps, and changes made to map only cause recomputing normals in changed areas.
+     * Please see {@link DumpRequest#relief(com.wurmonline.wurmapi.api.map.dump.ReliefStyle, HeightmapLayer, boolean, int)} for other relief styles.
+     * 
+     * @param desiredPowerOfTwo desired output image power of two, or map power of two if it is lower than this value.
+     * @return map image
+     */
+    public BufferedImage createReliefDump(int desiredPowerOfTwo) {
+        return createDumps(DumpRequest.relief(ReliefStyle.HILLSHADE, HeightmapLayer.SURFACE, true, desiredPowerOfTwo)).get(0);
     }
     
     /**
-     * Saves all changes to file. Before saving, this method will remove some map errors like wrong terrain type on completely exposed tiles and surface layer being lower than rock layer.
+     * Creates many map dumps at once, in a single pass over map data - this is much faster than creating them one by one.<br>
+     * You don't need to save map first to create updated map dumps - it is using data from memory.<br>
+     * On maps bigger than 16384 tiles, all flat dumps show the same randomly chosen 16384x16384 window.
+     * 
+     * @param requests dumps to create.
+     * @return map images, in the same order as requests.
      */
-    public void saveChanges() {
-        for (int i = 0; i < getWidth(); i++) {
-            for (int i2 = 0; i2 < getHeight(); i2++) {
-                short surfaceHeight = getSurfaceHeight(i, i2);
-                short rockHeight = getRockHeight(i, i2);
-                
-                if (rockHeight > surfaceHeight) {
-                    setSurfaceHeight(i, i2, rockHeight);
-                }
+    public List<BufferedImage> createDumps(DumpRequest... requests) {
+        return createDumps(Arrays.asList(requests));
+    }
+    
+    /**
+     * Creates many map dumps at once, in a single pass over map data - this is much faster than creating them one by one.<br>
+     * Please see {@link #createDumps(com.wurmonline.wurmapi.api.map.dump.DumpRequest...) this method} for more details.
+     * 
+     * @param requests dumps to create.
+     * @return map images, in the same order as requests.
+     */
+    public List<BufferedImage> createDumps(List<DumpRequest> requests) {
+        return new DumpRenderer(surfaceMesh, rockMesh, caveLayer, surfaceNormals, rockNormals).render(requests, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Renders single 256x256 tile of map dump, reading only the part of map shown on it. At zoom 0 one tile shows whole map,
+     * and every next zoom level splits tiles into four. At highest zoom levels single map tile is shown as square of pixels.<br>
+     * You don't need to save map first to create updated tile - it is using data from memory.<br><br>
+     * 
+     * Unlike full map dumps, tiles of all styles always show whole map, and output size of map dump requests is ignored.
+     * 
+     * @param request style of tile.
+     * @param zoom zoom level, from 0 to {@link #getMaxTileZoom()}.
+     * @param tileX column of tile, from 0 to 2^zoom - 1.
+     * @param tileY row of tile, from 0 to 2^zoom - 1.
+     * @return tile image
+     */
+    public BufferedImage createDumpTile(DumpRequest request, int zoom, int tileX, int tileY) {
+        return tileRenderer.render(request, zoom, tileX, tileY);
+    }
+    
+    /**
+     * @return highest zoom level accepted by {@link #createDumpTile(DumpRequest, int, int, int)}.
+     */
+    public int getMaxTileZoom() {
+        return tileRenderer.getMaxZoom();
+    }
+    
+    /**
+     * Reloads rows of map files changed on disk since the last refresh, for example saved by a server running on the same world.<br>
+     * Files which were not modified are not read at all, and only rows with changed checksums are reloaded, so refreshing is cheap enough to be done often.<br><br>
+     * 
+     * Reloaded rows replace unsaved changes made with this API in the same rows. First refresh compares files with data loaded when world was opened.
+     * 
+     * @return rows reloaded in every layer, with changed part of every row.
+     */
+    public MapChanges refresh() throws IOException {
+        final Map<MapLayer, int[]> changes = new EnumMap<>(MapLayer.class);
+        for (MapLayer layer : MapLayer.values()) {
+            final LayerWatcher.ReloadListener listener;
+            if (layer == MapLayer.SURFACE) {
+                listener = (y, fromX, toX) -> {
+                    overviewCache.invalidate(fromX, y, toX, y + 1);
+                    surfaceNormals.invalidate(fromX, y, toX, y + 1);
+                    notifyListeners(layer, fromX, y, toX, y + 1);
+                };
             }
-        }
-        
-        for (int i = 0; i < getWidth() - 1; i++) {
-            for (int i2 = 0; i2 < getHeight() - 1; i2++) {
-                short h00 = getDirtLayerHeight(i, i2);
-                short h10 = getDirtLayerHeight(i + 1, i2);
-                short h01 = getDirtLayerHeight(i, i2 + 1);
-                short h11 = getDirtLayerHeight(i + 1, i2 + 1);
-                int total = h00 + h10 + h01 + h11;
-                if (total == 0) {
-                    short height = getSurfaceHeight(i, i2);
-                    surfaceMesh.setTile(i, i2, Tiles.encode(height, (byte) Tiles.TILE_TYPE_ROCK, (byte) 0));
-                }
+            else if (layer == MapLayer.ROCK) {
+                listener = (y, fromX, toX) -> {
+                    rockNormals.invalidate(fromX, y, toX, y + 1);
+                    notifyListeners(layer, fromX, y, toX, y + 1);
+                };
+            }
+            else {
+                // reloaded rows are the same as in map files, so they aren't marked as changed for saving
+                listener = (y, fromX, toX) -> notifyListeners(layer, fromX, y, toX, y + 1);
             }
+            changes.put(layer, watchers[layer.ordinal()].refresh(listener));
         }
+        return new MapChanges(changes);
+    }
+    
+    /**
+     * Saves all changes to file. Before saving, this method will remove some map errors like wrong terrain type on completely exposed tiles and surface layer being lower than rock layer.<br>
+     * Layers are written one after another, so crash during save can leave them inconsistent, and errors are only logged.
+     * Please see {@link #saveChangesJournaled()} for atomic save.
+     */
+    public void saveChanges() {
+        fixErrors();
         
+        // rows saved here don't have to be written by next journaled save
+        final BitSet[] changedRows = journal.takeChanges();
         try {
-            for (MeshIO file : allMeshes) {
-                file.saveAll();
+            for (TileLayer layer : allLayers) {
+                layer.save();
             }
         } catch (IOException ex) {
+            journal.restoreChanges(changedRows);
             Logger.getLogger(MapData.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
+    /**
+     * Saves all changes to file atomically, fixing the same map errors as {@link #saveChanges()}.<br>
+     * Changed rows of all layers are first written to journal file in world directory, which is synced to disk once, and only then to map files.
+     * If save is interrupted, it is completed or discarded next time world is opened, so map files never contain only part of changes.<br>
+     * Only rows changed since the last save are written - rows are marked as changed when they are edited, so map isn't read to find them.<br>
+     * Once this method was used, closing {@link WurmAPI} saves remaining changes through journal as well, fixing map errors first,
+     * so changes made after the last save can't be left half written by crash during close.
+     * 
+     * @return number of written rows, counting rows of every layer.
+     */
+    public int saveChangesJournaled() throws IOException {
+        fixErrors();
+        return journal.save();
+    }
+    
+    private void fixErrors() {
+        validate(EnumSet.of(ViolationType.SURFACE_BELOW_ROCK, ViolationType.EXPOSED_ROCK), true, 0, ForkJoinPool.commonPool());
+    }
+    
     void close() {
         try {
-            for (MeshIO file : allMeshes) {
-                file.close();
+            if (journal.isUsed()) {
+                // layers write their dirty rows in place on close, so they must be durable in journal first
+                fixErrors();
+                journal.save();
+            }
+            for (TileLayer layer : allLayers) {
+                layer.close();
             }
         } catch (IOException ex) {
             Logger.getLogger(MapData.class.getName()).log(Level.SEVERE, null, ex);
@@ -0,0 +1,85 @@
+package com.wurmonline.wurmapi.api;
+
+import com.wurmonline.wurmapi.internal.WorldStreamer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Crops, resizes and merges worlds by streaming map files directly, without opening worlds with {@link WurmAPI}.<br>
+ * Memory use doesn't depend on map size - every map file is copied through its own fixed size row buffer, and all map files are copied at the same time.<br><br>
+ * 
+ * Only map files are copied. None of used worlds can be opened with {@link WurmAPI} or by server during the transfer.<br>
+ * All map files of source world, and of target world when pasting, are checked first, so missing or damaged map file fails the transfer
+ * before anything is written.<br>
+ * Save journal left by interrupted save of source world, or of target world when pasting, is replayed first, like when world is opened.
+ * Journal left in target world which is replaced by crop or resize is discarded.
+ */
+public final class WorldTransfer {
+    
+    private WorldTransfer() {
+    }
+    
+    /**
+     * Creates new world from square part of existing world.
+     * 
+     * @param sourceWorld path to existing world directory.
+     * @param targetWorld path to new or existing world directory. Existing map files will be replaced.
+     * @param fromX left edge of copied part in source world.
+     * @param fromY top edge of copied part in source world.
+     * @param powerOfTwo power of two of new map (must be between 10 and 15).
+     */
+    public static void crop(String sourceWorld, String targetWorld, int fromX, int fromY, int powerOfTwo) throws IOException {
+        checkPowerOfTwo(powerOfTwo);
+        final WorldStreamer streamer = createStreamer(sourceWorld, targetWorld);
+        final int sourceSize = 1 << streamer.getSourceSizeLevel();
+        if (fromX < 0 || fromY < 0 || fromX + (1 << powerOfTwo) > sourceSize || fromY + (1 << powerOfTwo) > sourceSize) {
+            throw new IllegalArgumentException("Cropped area (" + fromX + ", " + fromY + ") with size 2^" + powerOfTwo + " is outside of source map");
+        }
+        streamer.resize(powerOfTwo, -fromX, -fromY);
+    }
+    
+    /**
+     * Creates new world with different size, containing whole or part of existing world.
+     * Tiles not covered by source world are the same as in world created with {@link WurmAPI#create(java.lang.String, int)}.
+     * 
+     * @param sourceWorld path to existing world directory.
+     * @param targetWorld path to new or existing world directory. Existing map files will be replaced.
+     * @param powerOfTwo power of two of new map (must be between 10 and 15).
+     * @param offsetX location of source world left edge in new world, can be negative.
+     * @param offsetY location of source world top edge in new world, can be negative.
+     */
+    public static void resize(String sourceWorld, String targetWorld, int powerOfTwo, int offsetX, int offsetY) throws IOException {
+        checkPowerOfTwo(powerOfTwo);
+        createStreamer(sourceWorld, targetWorld).resize(powerOfTwo, offsetX, offsetY);
+    }
+    
+    /**
+     * Copies whole source world into existing target world. Parts of source world outside of target world are skipped.
+     * 
+     * @param sourceWorld path to existing world directory.
+     * @param targetWorld path to existing world directory.
+     * @param toX location of source world left edge in target world, can be negative.
+     * @param toY location of source world top edge in target world, can be negative.
+     */
+    public static void paste(String sourceWorld, String targetWorld, int toX, int toY) throws IOException {
+        createStreamer(sourceWorld, targetWorld).paste(toX, toY);
+    }
+    
+    private static WorldStreamer createStreamer(String sourceWorld, String targetWorld) throws IOException {
+        final File source = new File(sourceWorld);
+        final File target = new File(targetWorld);
+        if (source.getCanonicalFile().equals(target.getCanonicalFile())) {
+            throw new IllegalArgumentException("Source and target world are the same: " + sourceWorld);
+        }
+        // target directory is created only by resize, after source world is checked
+        return new WorldStreamer(sourceWorld + File.separator, targetWorld + File.separator);
+    }
+    
+    private static void checkPowerOfTwo(int powerOfTwo) {
+        if (powerOfTwo < 10 || powerOfTwo > 15) {
+            throw new IllegalArgumentException("Invalid map size: map with size 2^" + powerOfTwo + " cannot be created");
+        }
+    }
+    
+}
@@ -1,5 +1,6 @@
 package com.wurmonline.wurmapi.api;
 
+import com.wurmonline.wurmapi.api.map.LayerStorage;
 import com.wurmonline.wurmapi.api.map.dump.Colorist;
 
 import java.io.File;
@@ -14,7 +15,18 @@ public class WurmAPI {
      * @return WurmAPI instance
      */
     public static WurmAPI open(String worldDirectory) throws IOException {
-        return new WurmAPI(worldDirectory);
+        return new WurmAPI(worldDirectory, LayerStorage.DENSE);
+    }
+    
+    /**
+     * Creates new WurmAPI instance. This method must be used on existing and valid world directory.
+     * 
+     * @param worldDirectory path to existing world directory.
+     * @param storage how cave and resources layers should be kept in memory.
+     * @return WurmAPI instance
+     */
+    public static WurmAPI open(String worldDirectory, LayerStorage storage) throws IOException {
+        return new WurmAPI(worldDirectory, storage);
     }
     
     /**
@@ -25,21 +37,33 @@ public class WurmAPI {
      * @return WurmAPI instance
      */
     public static WurmAPI create(String worldDirectory, int powerOfTwo) throws IOException {
-        return new WurmAPI(worldDirectory, powerOfTwo);
+        return new WurmAPI(worldDirectory, powerOfTwo, LayerStorage.DENSE);
+    }
+    
+    /**
+     * Creates new WurmAPI instance.
+     * 
+     * @param worldDirectory path to new or existing world directory.
+     * @param powerOfTwo power of two of new map (must be between 10 and 15)
+     * @param storage how cave and resources layers should be kept in memory.
+     * @return WurmAPI instance
+     */
+    public static WurmAPI create(String worldDirectory, int powerOfTwo, LayerStorage storage) throws IOException {
+        return new WurmAPI(worldDirectory, powerOfTwo, storage);
     }
     
     private final String rootDir;
     private final MapData mapData;
     
-    private WurmAPI(String worldDirectory) throws IOException {
+    private WurmAPI(String worldDirectory, LayerStorage storage) throws IOException {
         this.rootDir = worldDirectory + File.separator;
         File file = new File(rootDir);
         file.mkdirs();
         
-        this.mapData = new MapData(rootDir);
+        this.mapData = new MapData(rootDir, storage);
     }
     
-    private WurmAPI(String worldDirectory, int powerOfTwo) throws IOException {
+    private WurmAPI(String worldDirectory, int powerOfTwo, LayerStorage storage) throws IOException {
         if (powerOfTwo < 10 || powerOfTwo > 15) {
             throw new IllegalArgumentException("Invalid map size: map with size 2^" + powerOfTwo + " cannot be created");
         }
@@ -48,7 +72,7 @@ public class WurmAPI {
         File file = new File(rootDir);
         file.mkdirs();
         
-        this.mapData = new MapData(rootDir, powerOfTwo);
+        this.mapData = new MapData(rootDir, powerOfTwo, storage);
     }
     
     public MapData getMapData() {
@@ -0,0 +1,19 @@
+package com.wurmonline.wurmapi.api.map;
+
+/**
+ * How cave and resources layers are kept in memory.
+ */
+public enum LayerStorage {
+    
+    /**
+     * One int per tile, the same way as server keeps them. Fastest, but uses 4 bytes per tile for every layer.
+     */
+    DENSE,
+    
+    /**
+     * Layers are split into 64x64 tile chunks and uniform chunks are compressed, which usually saves most of memory
+     * on big maps, as caves are mostly solid rock. Reading and writing single tiles is slightly slower.
+     */
+    CHUNKED
+    
+}
@@ -0,0 +1,20 @@
+package com.wurmonline.wurmapi.api.map;
+
+/**
+ * Receives changes of map data made through {@link com.wurmonline.wurmapi.api.MapData}, including rows reloaded by
+ * {@link com.wurmonline.wurmapi.api.MapData#refresh()}.<br>
+ * Listener is called right after every change, from thread which made it - possibly once for every changed tile,
+ * so it should be cheap and thread safe.
+ */
+public interface MapChangeListener {
+    
+    /**
+     * @param layer changed layer.
+     * @param fromX first changed column (inclusive).
+     * @param fromY first changed row (inclusive).
+     * @param toX last changed column (exclusive).
+     * @param toY last changed row (exclusive).
+     */
+    void tilesChanged(MapLayer layer, int fromX, int fromY, int toX, int toY);
+    
+}
@@ -0,0 +1,111 @@
+package com.wurmonline.wurmapi.api.map;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Rows of map files changed on disk and reloaded by {@link com.wurmonline.wurmapi.api.MapData#refresh()},
+ * together with changed part of every reloaded row.
+ */
+public final class MapChanges {
+    
+    private final Map<MapLayer, int[]> changedSpans;
+    
+    /**
+     * @param changedSpans changed part of every row of each layer: first changed column (inclusive) of row y at index {@code 2 * y}
+     * and last changed column (exclusive) at index {@code 2 * y + 1}. Unchanged rows have empty span. Layers without changes can be skipped.
+     */
+    public MapChanges(Map<MapLayer, int[]> changedSpans) {
+        this.changedSpans = new EnumMap<>(MapLayer.class);
+        for (Map.Entry<MapLayer, int[]> entry : changedSpans.entrySet()) {
+            final int[] spans = entry.getValue();
+            for (int i = 0; i < spans.length; i += 2) {
+                if (spans[i] < spans[i + 1]) {
+                    this.changedSpans.put(entry.getKey(), spans.clone());
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return true if no rows were changed in any layer.
+     */
+    public boolean isEmpty() {
+        return changedSpans.isEmpty();
+    }
+    
+    /**
+     * @param layer map layer.
+     * @return true if any row of layer was changed.
+     */
+    public boolean isChanged(MapLayer layer) {
+        return changedSpans.containsKey(layer);
+    }
+    
+    /**
+     * @param layer map layer.
+     * @param y row of map.
+     * @return true if row of layer was changed.
+     */
+    public boolean isRowChanged(MapLayer layer, int y) {
+        return getChangedFromX(layer, y) < getChangedToX(layer, y);
+    }
+    
+    /**
+     * @param layer map layer.
+     * @param y row of map.
+     * @return first changed column of row (inclusive), equal to {@link #getChangedToX(MapLayer, int)} if row wasn't changed.
+     */
+    public int getChangedFromX(MapLayer layer, int y) {
+        final int[] spans = changedSpans.get(layer);
+        return spans != null ? spans[2 * y] : 0;
+    }
+    
+    /**
+     * @param layer map layer.
+     * @param y row of map.
+     * @return last changed column of row (exclusive), equal to {@link #getChangedFromX(MapLayer, int)} if row wasn't changed.
+     */
+    public int getChangedToX(MapLayer layer, int y) {
+        final int[] spans = changedSpans.get(layer);
+        return spans != null ? spans[2 * y + 1] : 0;
+    }
+    
+    /**
+     * @param layer map layer.
+     * @return set of changed rows of layer. Consecutive rows can be found using {@link BitSet#nextSetBit(int)} and {@link BitSet#nextClearBit(int)}.
+     */
+    public BitSet getChangedRows(MapLayer layer) {
+        final BitSet rows = new BitSet();
+        final int[] spans = changedSpans.get(layer);
+        if (spans != null) {
+            for (int y = 0; y < spans.length / 2; y++) {
+                if (spans[2 * y] < spans[2 * y + 1]) {
+                    rows.set(y);
+                }
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * @param layer map layer.
+     * @return copy of changed spans of layer, in format accepted by {@link #MapChanges(Map)}, or null if layer wasn't changed.
+     */
+    public int[] getChangedSpans(MapLayer layer) {
+        final int[] spans = changedSpans.get(layer);
+        return spans != null ? spans.clone() : null;
+    }
+    
+    @Override
+    public String toString() {
+        final Map<MapLayer, Integer> counts = new EnumMap<>(MapLayer.class);
+        for (MapLayer layer : changedSpans.keySet()) {
+            counts.put(layer, getChangedRows(layer).cardinality());
+        }
+        return "MapChanges [changedRows=" + counts + "]";
+    }
+    
+}
@@ -0,0 +1,46 @@
+package com.wurmonline.wurmapi.api.map;
+
+/**
+ * All layers (map files) of a Wurm Unlimited world.
+ */
+public enum MapLayer {
+    
+    /**
+     * Surface tiles, heights and tile data ("top_layer.map").
+     */
+    SURFACE("top_layer.map"),
+    
+    /**
+     * Rock heights ("rock_layer.map").
+     */
+    ROCK("rock_layer.map"),
+    
+    /**
+     * Per-tile flags ("flags.map").
+     */
+    FLAGS("flags.map"),
+    
+    /**
+     * Cave tiles ("map_cave.map").
+     */
+    CAVE("map_cave.map"),
+    
+    /**
+     * Resource counts of cave tiles ("resources.map").
+     */
+    RESOURCES("resources.map");
+    
+    private final String fileName;
+    
+    MapLayer(String fileName) {
+        this.fileName = fileName;
+    }
+    
+    /**
+     * @return name of map file storing this layer, relative to world directory.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+    
+}
@@ -0,0 +1,71 @@
+package com.wurmonline.wurmapi.api.map.components;
+
+/**
+ * Statistics of single connected component.
+ */
+public final class Component {
+    
+    private final int label;
+    private final int area;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    
+    Component(int label, int area, int minX, int minY, int maxX, int maxY) {
+        this.label = label;
+        this.area = area;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+    
+    /**
+     * @return label of component in label raster, starting from 1.
+     */
+    public int getLabel() {
+        return label;
+    }
+    
+    /**
+     * @return number of tiles in component.
+     */
+    public int getArea() {
+        return area;
+    }
+    
+    /**
+     * @return lowest x of component tiles.
+     */
+    public int getMinX() {
+        return minX;
+    }
+    
+    /**
+     * @return lowest y of component tiles.
+     */
+    public int getMinY() {
+        return minY;
+    }
+    
+    /**
+     * @return highest x of component tiles.
+     */
+    public int getMaxX() {
+        return maxX;
+    }
+    
+    /**
+     * @return highest y of component tiles.
+     */
+    public int getMaxY() {
+        return maxY;
+    }
+    
+    @Override
+    public String toString() {
+        return "Component " + label + " [area=" + area + ", bounds=(" + minX + ", " + minY + ")-(" + maxX + ", " + maxY + ")]";
+    }
+    
+}
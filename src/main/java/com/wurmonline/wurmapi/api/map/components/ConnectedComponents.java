@@ -0,0 +1,113 @@
+package com.wurmonline.wurmapi.api.map.components;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Result of connected component analysis: label raster and per-component statistics.<br>
+ * Tiles are connected through their edges (4-connectivity). Components are labelled from 1 in order of their first tile
+ * (row after row), tiles not matching predicate have label 0.
+ */
+public final class ConnectedComponents {
+    
+    private final int size;
+    private final int[] labels;
+    private final int count;
+    private final int[] area;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+    
+    /**
+     * Creates result from label raster, computing statistics of every component.
+     * 
+     * @param size width and height of labelled map.
+     * @param labels labels, row after row.
+     * @param count number of components.
+     */
+    public ConnectedComponents(int size, int[] labels, int count) {
+        this.size = size;
+        this.labels = labels;
+        this.count = count;
+        this.area = new int[count + 1];
+        this.minX = new int[count + 1];
+        this.minY = new int[count + 1];
+        this.maxX = new int[count + 1];
+        this.maxY = new int[count + 1];
+        
+        for (int y = 0; y < size; y++) {
+            final int row = y * size;
+            for (int x = 0; x < size; x++) {
+                final int label = labels[row + x];
+                if (label == 0) {
+                    continue;
+                }
+                if (area[label]++ == 0) {
+                    minX[label] = x;
+                    maxX[label] = x;
+                    minY[label] = y;
+                }
+                else if (x < minX[label]) {
+                    minX[label] = x;
+                }
+                else if (x > maxX[label]) {
+                    maxX[label] = x;
+                }
+                maxY[label] = y;
+            }
+        }
+    }
+    
+    /**
+     * @return number of components found.
+     */
+    public int getComponentCount() {
+        return count;
+    }
+    
+    /**
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @return label of component in location, or 0 if tile doesn't belong to any component.
+     */
+    public int getLabel(int x, int y) {
+        return labels[x + y * size];
+    }
+    
+    /**
+     * @return label raster, row after row. Returned array is not copied, so it shouldn't be modified.
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+    
+    /**
+     * @param label component label, from 1 to {@link #getComponentCount()}.
+     * @return statistics of component.
+     */
+    public Component getComponent(int label) {
+        if (label < 1 || label > count) {
+            throw new IllegalArgumentException("Invalid component label: " + label);
+        }
+        return new Component(label, area[label], minX[label], minY[label], maxX[label], maxY[label]);
+    }
+    
+    /**
+     * @return statistics of all components, ordered by label.
+     */
+    public List<Component> getComponents() {
+        return new AbstractList<Component>() {
+            @Override
+            public Component get(int index) {
+                return getComponent(index + 1);
+            }
+            
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+    
+}
@@ -0,0 +1,47 @@
+package com.wurmonline.wurmapi.api.map.components;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+
+import java.util.function.Predicate;
+
+/**
+ * Decides which tiles of a layer belong to components.
+ */
+@FunctionalInterface
+public interface TilePredicate {
+    
+    /**
+     * Called concurrently from multiple threads, so it must be thread safe.
+     * 
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @param tile raw 32-bit tile data of the layer (see {@link com.wurmonline.wurmapi.api.MapData#setSurfaceTile(int, int, com.wurmonline.mesh.Tiles.Tile, short) setSurfaceTile} for surface and cave data layout).
+     * @return true if tile matches.
+     */
+    boolean test(int x, int y, int tile);
+    
+    /**
+     * @param height height limit.
+     * @return predicate matching tiles lower than given height.
+     */
+    static TilePredicate heightBelow(short height) {
+        return (x, y, tile) -> Tiles.decodeHeight(tile) < height;
+    }
+    
+    /**
+     * Creates predicate checking tile type. Condition is evaluated once per tile type, not once per tile.
+     * 
+     * @param condition condition tile type must meet. Unknown tile types never match.
+     * @return predicate matching tiles with types meeting condition.
+     */
+    static TilePredicate tileType(Predicate<Tile> condition) {
+        final boolean[] matching = new boolean[256];
+        for (int id = 0; id < matching.length; id++) {
+            final Tile tile = Tiles.getTile((byte) id);
+            matching[id] = tile != null && condition.test(tile);
+        }
+        return (x, y, tile) -> matching[Tiles.decodeType(tile) & 0xFF];
+    }
+    
+}
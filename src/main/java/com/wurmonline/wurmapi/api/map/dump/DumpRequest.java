@@ -0,0 +1,197 @@
+package com.wurmonline.wurmapi.api.map.dump;
+
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+
+/**
+ * Describes single map dump to render with {@link com.wurmonline.wurmapi.api.MapData#createDumps(DumpRequest...)}.<br>
+ * Requests are immutable - methods changing options return modified copy.<br><br>
+ * 
+ * Colors returned by {@link Colorist} are cached per tile type and tile data before rendering,
+ * so colorist shouldn't depend on anything else (like height) of encoded tiles.
+ */
+public final class DumpRequest {
+    
+    private final DumpType type;
+    private final boolean showWater;
+    private final Colorist colorist;
+    private final Tile[] tiles;
+    private final short interval;
+    private final int powerOfTwo;
+    private final ReliefStyle reliefStyle;
+    private final HeightmapLayer layer;
+    private final boolean blendColors;
+    
+    private DumpRequest(DumpType type, boolean showWater, Colorist colorist, Tile[] tiles, short interval, int powerOfTwo) {
+        this(type, showWater, colorist, tiles, interval, powerOfTwo, ReliefStyle.HILLSHADE, HeightmapLayer.SURFACE, true);
+    }
+    
+    private DumpRequest(DumpType type, boolean showWater, Colorist colorist, Tile[] tiles, short interval, int powerOfTwo,
+                        ReliefStyle reliefStyle, HeightmapLayer layer, boolean blendColors) {
+        this.type = type;
+        this.showWater = showWater;
+        this.colorist = colorist;
+        this.tiles = tiles;
+        this.interval = interval;
+        this.powerOfTwo = powerOfTwo;
+        this.reliefStyle = reliefStyle;
+        this.layer = layer;
+        this.blendColors = blendColors;
+    }
+    
+    private static DumpRequest of(DumpType type, boolean showWater) {
+        return new DumpRequest(type, showWater, new DefaultColorist(), new Tile[0], (short) 0, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @return request for full size classical map dump, with semi-3d terrain.
+     */
+    public static DumpRequest map() {
+        return of(DumpType.MAP, true);
+    }
+    
+    /**
+     * @param desiredPowerOfTwo desired output image power of two, or map power of two if it is lower than this value. Must be bigger than 7.
+     * @return request for downscaled classical map dump, with semi-3d terrain.
+     */
+    public static DumpRequest map(int desiredPowerOfTwo) {
+        if (desiredPowerOfTwo < 7) {
+            throw new IllegalArgumentException("Desired power of two is smaller than 7.");
+        }
+        return new DumpRequest(DumpType.MAP, true, new DefaultColorist(), new Tile[0], (short) 0, desiredPowerOfTwo);
+    }
+    
+    /**
+     * @param showWater set true if you want to make water visible, false otherwise.
+     * @return request for flat dump showing surface terrain types.
+     */
+    public static DumpRequest terrain(boolean showWater) {
+        return of(DumpType.TERRAIN, showWater);
+    }
+    
+    /**
+     * @param showWater set true if you want to make water visible, false otherwise.
+     * @return request for flat dump showing flower types on grass.
+     */
+    public static DumpRequest flowers(boolean showWater) {
+        return of(DumpType.FLOWER, showWater);
+    }
+    
+    /**
+     * @param showWater set true if you want to make water visible, false otherwise.
+     * @return request for flat dump showing tree types.
+     */
+    public static DumpRequest trees(boolean showWater) {
+        return of(DumpType.TREE, showWater);
+    }
+    
+    /**
+     * @param showWater set true if you want to make water visible, false otherwise.
+     * @param tiles ore types to show on cave dump (all will be shown if not specified or null)
+     * @return request for flat dump showing cave terrain types.
+     */
+    public static DumpRequest cave(boolean showWater, Tile... tiles) {
+        return new DumpRequest(DumpType.CAVE, showWater, new DefaultColorist(), tiles != null ? tiles.clone() : new Tile[0], (short) 0, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @param showWater set true if you want to make water visible, false otherwise.
+     * @param interval interval for next contour line, must not be 0.
+     * @return request for flat dump with contour lines.
+     */
+    public static DumpRequest topographic(boolean showWater, short interval) {
+        if (interval == 0) {
+            throw new IllegalArgumentException("Contour interval must not be 0");
+        }
+        return new DumpRequest(DumpType.TOPOGRAPHIC, showWater, new DefaultColorist(), new Tile[0], interval, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @param style what relief should show.
+     * @param layer layer to take heights from.
+     * @param blendColors set true to shade terrain type colors (with water visible), false for greyscale or pure hue relief.
+     * @return request for full size shaded relief dump.
+     */
+    public static DumpRequest relief(ReliefStyle style, HeightmapLayer layer, boolean blendColors) {
+        return relief(style, layer, blendColors, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Downscaled relief is not sampled - every pixel shows average color of all tiles it covers.
+     * 
+     * @param style what relief should show.
+     * @param layer layer to take heights from.
+     * @param blendColors set true to shade terrain type colors (with water visible), false for greyscale or pure hue relief.
+     * @param desiredPowerOfTwo desired output image power of two, or map power of two if it is lower than this value. Must not be negative.
+     * @return request for downscaled shaded relief dump.
+     */
+    public static DumpRequest relief(ReliefStyle style, HeightmapLayer layer, boolean blendColors, int desiredPowerOfTwo) {
+        if (style == null || layer == null) {
+            throw new IllegalArgumentException("Relief style and layer must not be null");
+        }
+        else if (desiredPowerOfTwo < 0) {
+            throw new IllegalArgumentException("Desired power of two is negative.");
+        }
+        return new DumpRequest(DumpType.RELIEF, blendColors, new DefaultColorist(), new Tile[0], (short) 0, desiredPowerOfTwo, style, layer, blendColors);
+    }
+    
+    /**
+     * @param colorist colorist to use instead of {@link DefaultColorist}.
+     * @return copy of this request using given colorist.
+     */
+    public DumpRequest withColorist(Colorist colorist) {
+        if (colorist == null) {
+            throw new IllegalArgumentException("Colorist is null");
+        }
+        return new DumpRequest(type, showWater, colorist, tiles, interval, powerOfTwo, reliefStyle, layer, blendColors);
+    }
+    
+    public DumpType getType() {
+        return type;
+    }
+    
+    public boolean isShowWater() {
+        return showWater;
+    }
+    
+    public Colorist getColorist() {
+        return colorist;
+    }
+    
+    /**
+     * @return cave tile types to show, empty if all should be shown.
+     */
+    public Tile[] getTiles() {
+        return tiles.clone();
+    }
+    
+    public short getInterval() {
+        return interval;
+    }
+    
+    /**
+     * @return desired power of two of map dump, {@link Integer#MAX_VALUE} for full size.
+     */
+    public int getPowerOfTwo() {
+        return powerOfTwo;
+    }
+    
+    public ReliefStyle getReliefStyle() {
+        return reliefStyle;
+    }
+    
+    /**
+     * @return layer relief is computed from.
+     */
+    public HeightmapLayer getLayer() {
+        return layer;
+    }
+    
+    /**
+     * @return true if relief shades terrain type colors.
+     */
+    public boolean isBlendColors() {
+        return blendColors;
+    }
+    
+}
@@ -0,0 +1,43 @@
+package com.wurmonline.wurmapi.api.map.dump;
+
+/**
+ * Kinds of map dumps which can be rendered.
+ */
+public enum DumpType {
+    
+    /**
+     * Classical Wurm Online map dump, with semi-3d terrain.
+     */
+    MAP,
+    
+    /**
+     * Flat dump showing surface terrain types.
+     */
+    TERRAIN,
+    
+    /**
+     * Flat dump showing surface terrain types, with grass tiles coloured by flower type.
+     */
+    FLOWER,
+    
+    /**
+     * Flat dump showing surface terrain types, with tree tiles coloured by tree type.
+     */
+    TREE,
+    
+    /**
+     * Flat dump showing cave terrain types.
+     */
+    CAVE,
+    
+    /**
+     * Flat dump showing surface terrain types with contour lines.
+     */
+    TOPOGRAPHIC,
+    
+    /**
+     * Shaded relief of surface or rock layer, computed from terrain normals, optionally blended with terrain types.
+     */
+    RELIEF
+    
+}
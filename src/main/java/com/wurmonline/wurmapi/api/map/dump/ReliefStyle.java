@@ -0,0 +1,23 @@
+package com.wurmonline.wurmapi.api.map.dump;
+
+/**
+ * What shaded relief dump shows about terrain shape.
+ */
+public enum ReliefStyle {
+    
+    /**
+     * Terrain lit from north-west, 45 degrees above horizon - slopes facing light are brighter, slopes facing away are darker.
+     */
+    HILLSHADE,
+    
+    /**
+     * Steepness of terrain - flat terrain is bright, and the steeper slope is, the darker it gets.
+     */
+    SLOPE,
+    
+    /**
+     * Direction slopes are facing, as hue - red for north, then yellow, green and blue clockwise. Flat terrain is grey.
+     */
+    ASPECT
+    
+}
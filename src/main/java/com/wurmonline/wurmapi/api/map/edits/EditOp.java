@@ -0,0 +1,33 @@
+package com.wurmonline.wurmapi.api.map.edits;
+
+/**
+ * Operation of single tile edit in {@link TileEditLog}. Every operation changes raw 32-bit tile data of one layer using edit value.
+ */
+public enum EditOp {
+    
+    /**
+     * Replaces whole tile data with value. Earlier edits of the same tile in the same log are skipped, as they would be overwritten.
+     */
+    SET,
+    
+    /**
+     * Replaces height (lowest 16 bits of tile data) with lowest 16 bits of value, keeping tile type and tile data.
+     */
+    SET_HEIGHT,
+    
+    /**
+     * Replaces tile type and tile data (highest 16 bits of tile data) with lowest 16 bits of value ({@code type << 8 | data}), keeping height.
+     */
+    SET_TYPE,
+    
+    /**
+     * Sets bits of tile data which are set in value, for example flags.
+     */
+    SET_BITS,
+    
+    /**
+     * Clears bits of tile data which are set in value, for example flags.
+     */
+    CLEAR_BITS
+    
+}
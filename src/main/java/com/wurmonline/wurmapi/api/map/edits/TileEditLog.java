@@ -0,0 +1,181 @@
+package com.wurmonline.wurmapi.api.map.edits;
+
+import com.wurmonline.wurmapi.api.map.MapLayer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Buffer of tile edits, applied all at once by {@link com.wurmonline.wurmapi.api.MapData#applyEdits(TileEditLog)}.<br>
+ * Edits are kept in primitive arrays, in order they were added or read.<br><br>
+ * 
+ * Binary format of edit log is a sequence of 10 byte big-endian records, without any header:<br>
+ * 1 byte: layer ({@link MapLayer#ordinal()})<br>
+ * 1 byte: operation ({@link EditOp#ordinal()})<br>
+ * 2 bytes: unsigned x location<br>
+ * 2 bytes: unsigned y location<br>
+ * 4 bytes: value
+ */
+public final class TileEditLog {
+    
+    /**
+     * Size of single edit record in binary format, in bytes.
+     */
+    public static final int RECORD_SIZE = 10;
+    
+    private static final MapLayer[] LAYERS = MapLayer.values();
+    private static final EditOp[] OPS = EditOp.values();
+    
+    private static final int MAX_LOCATION = 0xFFFF;
+    
+    private int[] locations = new int[1024];
+    private byte[] kinds = new byte[1024];
+    private int[] values = new int[1024];
+    private int size;
+    
+    /**
+     * Adds single edit to the end of log.
+     * 
+     * @param layer layer to edit.
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @param op operation.
+     * @param value value used by operation.
+     * @return this log.
+     */
+    public TileEditLog add(MapLayer layer, int x, int y, EditOp op, int value) {
+        if (layer == null || op == null) {
+            throw new IllegalArgumentException("Layer and operation must not be null");
+        }
+        else if (x < 0 || y < 0 || x > MAX_LOCATION || y > MAX_LOCATION) {
+            throw new IllegalArgumentException("Invalid location: (" + x + ", " + y + ")");
+        }
+        append(layer.ordinal(), op.ordinal(), x, y, value);
+        return this;
+    }
+    
+    /**
+     * Reads edits in binary format until the end of stream, and adds them to the end of log.
+     * 
+     * @param input stream to read, it is not closed.
+     * @return number of edits read.
+     */
+    public int read(InputStream input) throws IOException {
+        final byte[] bytes = new byte[RECORD_SIZE * 8192];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int read = 0;
+        int filled = 0;
+        while (true) {
+            final int length = input.read(bytes, filled, bytes.length - filled);
+            if (length < 0) {
+                break;
+            }
+            filled += length;
+            final int records = filled / RECORD_SIZE;
+            for (int i = 0; i < records; i++) {
+                final int offset = i * RECORD_SIZE;
+                final int layer = bytes[offset];
+                final int op = bytes[offset + 1];
+                if (layer < 0 || layer >= LAYERS.length || op < 0 || op >= OPS.length) {
+                    throw new IOException("Invalid edit record " + (read + i) + ": layer " + layer + ", operation " + op);
+                }
+                append(layer, op, buffer.getChar(offset + 2), buffer.getChar(offset + 4), buffer.getInt(offset + 6));
+            }
+            read += records;
+            // incomplete record is moved to the beginning of buffer and completed by next read
+            final int remaining = filled - records * RECORD_SIZE;
+            System.arraycopy(bytes, records * RECORD_SIZE, bytes, 0, remaining);
+            filled = remaining;
+        }
+        if (filled != 0) {
+            throw new EOFException("Edit log ended in the middle of record " + read);
+        }
+        return read;
+    }
+    
+    /**
+     * Writes all edits in binary format.
+     * 
+     * @param output stream to write, it is not closed.
+     */
+    public void write(OutputStream output) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 8192);
+        for (int i = 0; i < size; i++) {
+            if (!buffer.hasRemaining()) {
+                output.write(buffer.array(), 0, buffer.position());
+                ((Buffer) buffer).clear();
+            }
+            buffer.put((byte) (kinds[i] >> 4)).put((byte) (kinds[i] & 0xF));
+            buffer.putChar((char) getX(i)).putChar((char) getY(i)).putInt(values[i]);
+        }
+        output.write(buffer.array(), 0, buffer.position());
+    }
+    
+    /**
+     * @return number of edits in log.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Removes all edits, keeping allocated memory.
+     */
+    public void clear() {
+        size = 0;
+    }
+    
+    /**
+     * @param index index of edit, in order edits were added.
+     * @return edited layer.
+     */
+    public MapLayer getLayer(int index) {
+        checkIndex(index);
+        return LAYERS[kinds[index] >> 4];
+    }
+    
+    public EditOp getOp(int index) {
+        checkIndex(index);
+        return OPS[kinds[index] & 0xF];
+    }
+    
+    public int getX(int index) {
+        checkIndex(index);
+        return locations[index] & MAX_LOCATION;
+    }
+    
+    public int getY(int index) {
+        checkIndex(index);
+        return locations[index] >>> 16;
+    }
+    
+    public int getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+    
+    private void append(int layer, int op, int x, int y, int value) {
+        if (size == values.length) {
+            final int capacity = size * 2;
+            locations = Arrays.copyOf(locations, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        locations[size] = (y << 16) | x;
+        kinds[size] = (byte) ((layer << 4) | op);
+        values[size] = value;
+        size++;
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid edit index: " + index + ", log size is " + size);
+        }
+    }
+    
+}
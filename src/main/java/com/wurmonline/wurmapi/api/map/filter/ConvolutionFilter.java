@@ -0,0 +1,78 @@
+package com.wurmonline.wurmapi.api.map.filter;
+
+import java.util.Arrays;
+
+/**
+ * Separable convolution - every pass is one horizontal and one vertical sweep, so cost grows linearly with kernel radius.
+ */
+final class ConvolutionFilter extends TerrainFilter {
+    
+    private final float[] weights;
+    private final int radius;
+    
+    private ConvolutionFilter(float[] weights) {
+        this.weights = weights;
+        this.radius = weights.length / 2;
+    }
+    
+    static ConvolutionFilter box(int radius) {
+        final float[] weights = new float[radius * 2 + 1];
+        Arrays.fill(weights, 1f / weights.length);
+        return new ConvolutionFilter(weights);
+    }
+    
+    static ConvolutionFilter gaussian(float sigma) {
+        final int radius = Math.max(1, (int) Math.ceil(sigma * 3));
+        final float[] weights = new float[radius * 2 + 1];
+        float total = 0;
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+            total += weights[i + radius];
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= total;
+        }
+        return new ConvolutionFilter(weights);
+    }
+    
+    @Override
+    void run(FilterGrid grid, int passes) {
+        final int size = grid.size;
+        for (int pass = 0; pass < passes; pass++) {
+            final float[] source = grid.heights;
+            final float[] target = grid.target();
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    final int row = y * size;
+                    for (int x = 0; x < size; x++) {
+                        float sum = 0;
+                        for (int k = -radius; k <= radius; k++) {
+                            sum += weights[k + radius] * source[row + grid.clamp(x + k)];
+                        }
+                        target[row + x] = sum;
+                    }
+                }
+            });
+            grid.swap();
+            
+            final float[] horizontal = grid.heights;
+            final float[] vertical = grid.target();
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    final int row = y * size;
+                    Arrays.fill(vertical, row, row + size, 0);
+                    // whole rows are accumulated at once, so halo rows are read sequentially
+                    for (int k = -radius; k <= radius; k++) {
+                        final int sourceRow = grid.clamp(y + k) * size;
+                        final float weight = weights[k + radius];
+                        for (int x = 0; x < size; x++) {
+                            vertical[row + x] += weight * horizontal[sourceRow + x];
+                        }
+                    }
+                }
+            });
+            grid.swap();
+        }
+    }
+    
+}
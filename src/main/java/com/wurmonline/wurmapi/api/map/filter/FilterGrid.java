@@ -0,0 +1,59 @@
+package com.wurmonline.wurmapi.api.map.filter;
+
+import com.wurmonline.wurmapi.internal.RowBands;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Double buffered height grid filters are running on.<br>
+ * Every pass reads {@link #heights} and writes {@link #target()}, then buffers are swapped - so filters never read their own output.
+ * Bands only write their own rows, but can freely read rows of neighbouring bands (halo rows) from the source buffer.
+ */
+final class FilterGrid {
+    
+    private static final int BAND_HEIGHT = 32;
+    
+    final int size;
+    private final ForkJoinPool pool;
+    private final float[] original;
+    float[] heights;
+    private float[] target;
+    
+    FilterGrid(float[] heights, int size, ForkJoinPool pool) {
+        this.size = size;
+        this.pool = pool;
+        this.original = heights;
+        this.heights = heights;
+    }
+    
+    float[] target() {
+        if (target == null) {
+            target = new float[heights.length];
+        }
+        return target;
+    }
+    
+    void swap() {
+        final float[] swap = heights;
+        heights = target();
+        target = swap;
+    }
+    
+    void forEachBand(RowBands.BandTask task) {
+        RowBands.forEach(size, BAND_HEIGHT, pool, task);
+    }
+    
+    /**
+     * Copies result back to array filter was started with, if it ended up in the second buffer.
+     */
+    void finish() {
+        if (heights != original) {
+            System.arraycopy(heights, 0, original, 0, original.length);
+        }
+    }
+    
+    int clamp(int coordinate) {
+        return coordinate < 0 ? 0 : (coordinate >= size ? size - 1 : coordinate);
+    }
+    
+}
@@ -0,0 +1,141 @@
+package com.wurmonline.wurmapi.api.map.filter;
+
+/**
+ * Grid based hydraulic erosion. Water and sediment are double buffered the same way as heights,
+ * and water flow is computed in "gather" form, so every sweep only writes its own tiles.
+ */
+final class HydraulicErosionFilter extends TerrainFilter {
+    
+    private static final int[] DX = {-1, 1, 0, 0};
+    private static final int[] DY = {0, 0, -1, 1};
+    
+    private final float rain;
+    private final float solubility;
+    private final float evaporation;
+    private final float capacity;
+    
+    HydraulicErosionFilter(float rain, float solubility, float evaporation, float capacity) {
+        this.rain = rain;
+        this.solubility = solubility;
+        this.evaporation = evaporation;
+        this.capacity = capacity;
+    }
+    
+    @Override
+    void run(FilterGrid grid, int passes) {
+        final int size = grid.size;
+        float[] water = new float[size * size];
+        float[] waterTarget = new float[size * size];
+        float[] sediment = new float[size * size];
+        float[] sedimentTarget = new float[size * size];
+        final float[] outflow = new float[size * size];
+        
+        for (int pass = 0; pass < passes; pass++) {
+            final float[] heights = grid.heights;
+            final float[] heightsTarget = grid.target();
+            final float[] w = water;
+            final float[] s = sediment;
+            final float[] wt = waterTarget;
+            final float[] st = sedimentTarget;
+            
+            // rain dissolves material and every tile computes how much water it sends per unit of level difference
+            grid.forEachBand((fromY, toY) -> {
+                for (int index = fromY * size; index < toY * size; index++) {
+                    w[index] += rain;
+                    final float dissolved = solubility * rain;
+                    heights[index] -= dissolved;
+                    s[index] += dissolved;
+                }
+            });
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    for (int x = 0; x < size; x++) {
+                        final int index = x + y * size;
+                        final float level = heights[index] + w[index];
+                        float total = 0;
+                        float levelSum = level;
+                        int lower = 0;
+                        for (int n = 0; n < 4; n++) {
+                            final int nx = x + DX[n];
+                            final int ny = y + DY[n];
+                            if (nx < 0 || ny < 0 || nx >= size || ny >= size) {
+                                continue;
+                            }
+                            final int neighbour = nx + ny * size;
+                            final float difference = level - heights[neighbour] - w[neighbour];
+                            if (difference > 0) {
+                                total += difference;
+                                levelSum += level - difference;
+                                lower++;
+                            }
+                        }
+                        if (total > 0) {
+                            final float moved = Math.min(w[index], level - levelSum / (lower + 1));
+                            outflow[index] = moved / total;
+                        }
+                        else {
+                            outflow[index] = 0;
+                        }
+                    }
+                }
+            });
+            
+            // water and sediment flow in from higher neighbours, then water evaporates and drops sediment over capacity
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    for (int x = 0; x < size; x++) {
+                        final int index = x + y * size;
+                        final float level = heights[index] + w[index];
+                        float newWater = w[index];
+                        float newSediment = s[index];
+                        for (int n = 0; n < 4; n++) {
+                            final int nx = x + DX[n];
+                            final int ny = y + DY[n];
+                            if (nx < 0 || ny < 0 || nx >= size || ny >= size) {
+                                continue;
+                            }
+                            final int neighbour = nx + ny * size;
+                            final float difference = heights[neighbour] + w[neighbour] - level;
+                            if (difference > 0 && outflow[neighbour] > 0) {
+                                final float flow = outflow[neighbour] * difference;
+                                newWater += flow;
+                                newSediment += s[neighbour] * flow / w[neighbour];
+                            }
+                            else if (difference < 0 && outflow[index] > 0) {
+                                final float flow = outflow[index] * -difference;
+                                newWater -= flow;
+                                newSediment -= s[index] * flow / w[index];
+                            }
+                        }
+                        
+                        newWater *= 1 - evaporation;
+                        final float maxSediment = capacity * newWater;
+                        float height = heights[index];
+                        if (newSediment > maxSediment) {
+                            height += newSediment - maxSediment;
+                            newSediment = maxSediment;
+                        }
+                        heightsTarget[index] = height;
+                        wt[index] = newWater;
+                        st[index] = newSediment;
+                    }
+                }
+            });
+            
+            grid.swap();
+            water = wt;
+            waterTarget = w;
+            sediment = st;
+            sedimentTarget = s;
+        }
+        
+        final float[] heights = grid.heights;
+        final float[] s = sediment;
+        grid.forEachBand((fromY, toY) -> {
+            for (int index = fromY * size; index < toY * size; index++) {
+                heights[index] += s[index];
+            }
+        });
+    }
+    
+}
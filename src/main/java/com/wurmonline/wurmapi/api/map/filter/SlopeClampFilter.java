@@ -0,0 +1,34 @@
+package com.wurmonline.wurmapi.api.map.filter;
+
+final class SlopeClampFilter extends TerrainFilter {
+    
+    private final float maxSlope;
+    
+    SlopeClampFilter(float maxSlope) {
+        this.maxSlope = maxSlope;
+    }
+    
+    @Override
+    void run(FilterGrid grid, int passes) {
+        final int size = grid.size;
+        for (int pass = 0; pass < passes; pass++) {
+            final float[] source = grid.heights;
+            final float[] target = grid.target();
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    final int row = y * size;
+                    final int rowAbove = grid.clamp(y - 1) * size;
+                    final int rowBelow = grid.clamp(y + 1) * size;
+                    for (int x = 0; x < size; x++) {
+                        final float lowest = Math.min(
+                                Math.min(source[row + grid.clamp(x - 1)], source[row + grid.clamp(x + 1)]),
+                                Math.min(source[rowAbove + x], source[rowBelow + x]));
+                        target[row + x] = Math.min(source[row + x], lowest + maxSlope);
+                    }
+                }
+            });
+            grid.swap();
+        }
+    }
+    
+}
@@ -0,0 +1,114 @@
+package com.wurmonline.wurmapi.api.map.filter;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Filter which can be run over height grid, for example surface or rock layer of a map.<br>
+ * Filters are double buffered (they never read their own output) and process the grid in bands of rows in parallel,
+ * so result doesn't depend on number of threads.<br><br>
+ * 
+ * Heights are stored row after row: height of tile (x, y) is at index {@code x + y * size}.
+ * 
+ * @see com.wurmonline.wurmapi.api.MapData#applyFilter(com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer, TerrainFilter, int)
+ */
+public abstract class TerrainFilter {
+    
+    TerrainFilter() {
+    }
+    
+    /**
+     * @param radius radius of smoothing window in tiles. Must be higher than 0.
+     * @return filter replacing every height with average of (2 * radius + 1)^2 tiles around it.
+     */
+    public static TerrainFilter boxSmooth(int radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("Radius must be higher than 0: " + radius);
+        }
+        return ConvolutionFilter.box(radius);
+    }
+    
+    /**
+     * @param sigma standard deviation of gaussian in tiles. Must be higher than 0.
+     * @return filter blurring heights with gaussian kernel.
+     */
+    public static TerrainFilter gaussianSmooth(float sigma) {
+        if (!(sigma > 0)) {
+            throw new IllegalArgumentException("Sigma must be higher than 0: " + sigma);
+        }
+        return ConvolutionFilter.gaussian(sigma);
+    }
+    
+    /**
+     * Thermal erosion moves material down from slopes steeper than talus, until they stabilize. Material is preserved.
+     * 
+     * @param talus highest stable height difference between neighbouring tiles.
+     * @param rate part of excess material moved in every pass, between 0 and 0.5.
+     * @return thermal erosion filter.
+     */
+    public static TerrainFilter thermalErosion(float talus, float rate) {
+        if (talus < 0) {
+            throw new IllegalArgumentException("Talus must not be negative: " + talus);
+        }
+        else if (!(rate > 0 && rate <= 0.5f)) {
+            throw new IllegalArgumentException("Rate must be between 0 and 0.5: " + rate);
+        }
+        return new ThermalErosionFilter(talus, rate);
+    }
+    
+    /**
+     * Hydraulic erosion simulates rain dissolving material, water carrying it downhill and depositing it when evaporating.<br>
+     * All passes share the same water and sediment state; sediment still carried after the last pass is deposited in place.
+     * 
+     * @param rain amount of water added to every tile in every pass.
+     * @param solubility amount of material dissolved by one unit of water.
+     * @param evaporation part of water evaporating in every pass, between 0 and 1.
+     * @param capacity amount of sediment one unit of water can carry.
+     * @return hydraulic erosion filter.
+     */
+    public static TerrainFilter hydraulicErosion(float rain, float solubility, float evaporation, float capacity) {
+        if (rain <= 0 || solubility < 0 || capacity < 0) {
+            throw new IllegalArgumentException("Rain must be positive, solubility and capacity must not be negative");
+        }
+        else if (!(evaporation > 0 && evaporation < 1)) {
+            throw new IllegalArgumentException("Evaporation must be between 0 and 1: " + evaporation);
+        }
+        return new HydraulicErosionFilter(rain, solubility, evaporation, capacity);
+    }
+    
+    /**
+     * Lowers every tile which is more than maxSlope above its lowest neighbour. Repeated passes spread the limit across whole slopes.
+     * 
+     * @param maxSlope highest allowed height difference between neighbouring tiles.
+     * @return slope clamping filter.
+     */
+    public static TerrainFilter slopeClamp(float maxSlope) {
+        if (maxSlope < 0) {
+            throw new IllegalArgumentException("Max slope must not be negative: " + maxSlope);
+        }
+        return new SlopeClampFilter(maxSlope);
+    }
+    
+    /**
+     * Runs filter over height grid. Result is stored in the same array.
+     * 
+     * @param heights heights, row after row.
+     * @param size width and height of grid.
+     * @param passes number of passes, must be at least 1.
+     * @param pool pool to run filter on, or null to run it in calling thread.
+     */
+    public final void apply(float[] heights, int size, int passes, ForkJoinPool pool) {
+        if (heights.length < size * size) {
+            throw new IllegalArgumentException("Height array is smaller than " + size + "x" + size);
+        }
+        else if (passes < 1) {
+            throw new IllegalArgumentException("Number of passes must be at least 1: " + passes);
+        }
+        
+        final FilterGrid grid = new FilterGrid(heights, size, pool);
+        run(grid, passes);
+        grid.finish();
+    }
+    
+    abstract void run(FilterGrid grid, int passes);
+    
+}
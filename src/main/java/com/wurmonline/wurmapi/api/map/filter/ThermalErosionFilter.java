@@ -0,0 +1,80 @@
+package com.wurmonline.wurmapi.api.map.filter;
+
+/**
+ * Thermal erosion in "gather" form: first sweep computes how much every tile sheds per unit of height difference,
+ * second sweep collects material from higher neighbours. Both sweeps only write their own tiles, so bands can run in parallel.
+ */
+final class ThermalErosionFilter extends TerrainFilter {
+    
+    private static final int[] DX = {-1, 1, 0, 0};
+    private static final int[] DY = {0, 0, -1, 1};
+    
+    private final float talus;
+    private final float rate;
+    
+    ThermalErosionFilter(float talus, float rate) {
+        this.talus = talus;
+        this.rate = rate;
+    }
+    
+    @Override
+    void run(FilterGrid grid, int passes) {
+        final int size = grid.size;
+        final float[] shed = new float[size * size];
+        for (int pass = 0; pass < passes; pass++) {
+            final float[] source = grid.heights;
+            final float[] target = grid.target();
+            
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    for (int x = 0; x < size; x++) {
+                        final int index = x + y * size;
+                        float total = 0;
+                        float highest = 0;
+                        for (int n = 0; n < 4; n++) {
+                            final int nx = x + DX[n];
+                            final int ny = y + DY[n];
+                            if (nx < 0 || ny < 0 || nx >= size || ny >= size) {
+                                continue;
+                            }
+                            final float difference = source[index] - source[nx + ny * size];
+                            if (difference > talus) {
+                                total += difference;
+                                highest = Math.max(highest, difference);
+                            }
+                        }
+                        shed[index] = total > 0 ? rate * (highest - talus) / total : 0;
+                    }
+                }
+            });
+            
+            grid.forEachBand((fromY, toY) -> {
+                for (int y = fromY; y < toY; y++) {
+                    for (int x = 0; x < size; x++) {
+                        final int index = x + y * size;
+                        final float height = source[index];
+                        float result = height;
+                        for (int n = 0; n < 4; n++) {
+                            final int nx = x + DX[n];
+                            final int ny = y + DY[n];
+                            if (nx < 0 || ny < 0 || nx >= size || ny >= size) {
+                                continue;
+                            }
+                            final int neighbour = nx + ny * size;
+                            final float difference = source[neighbour] - height;
+                            if (difference > talus) {
+                                result += shed[neighbour] * difference;
+                            }
+                            else if (-difference > talus) {
+                                result += shed[index] * difference;
+                            }
+                        }
+                        target[index] = result;
+                    }
+                }
+            });
+            grid.swap();
+        }
+    }
+    
+}
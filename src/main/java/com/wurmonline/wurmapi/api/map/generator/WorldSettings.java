@@ -0,0 +1,174 @@
+package com.wurmonline.wurmapi.api.map.generator;
+
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.wurmapi.api.map.veins.OreVein;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes world generated by {@link com.wurmonline.wurmapi.api.MapData#generateWorld(long, WorldSettings, java.util.concurrent.ForkJoinPool)}.<br>
+ * Settings are immutable - methods changing options return modified copy.
+ */
+public final class WorldSettings {
+    
+    private static final List<OreVein> DEFAULT_VEINS = Collections.unmodifiableList(Arrays.asList(
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_IRON, 0.0003f, 40, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_COPPER, 0.00015f, 30, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_TIN, 0.00015f, 30, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_ZINC, 0.0001f, 30, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_LEAD, 0.0001f, 30, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_SILVER, 0.00005f, 20, (short) 1000, (short) 5000),
+            new OreVein(Tile.TILE_CAVE_WALL_ORE_GOLD, 0.00003f, 15, (short) 1000, (short) 5000),
+            new OreVein(Tile.TILE_CAVE_WALL_SLATE, 0.0002f, 60, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_MARBLE, 0.0001f, 40, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_SANDSTONE, 0.0001f, 40, (short) 1000, (short) 10000),
+            new OreVein(Tile.TILE_CAVE_WALL_ROCKSALT, 0.00005f, 20, (short) 1000, (short) 5000)));
+    
+    private final int featureSize;
+    private final int octaves;
+    private final short maxHeight;
+    private final short oceanDepth;
+    private final short dirtDepth;
+    private final short rockSlope;
+    private final float treeDensity;
+    private final float bushDensity;
+    private final float flowerDensity;
+    private final List<OreVein> veins;
+    
+    private WorldSettings(int featureSize, int octaves, short maxHeight, short oceanDepth, short dirtDepth, short rockSlope,
+                          float treeDensity, float bushDensity, float flowerDensity, List<OreVein> veins) {
+        this.featureSize = featureSize;
+        this.octaves = octaves;
+        this.maxHeight = maxHeight;
+        this.oceanDepth = oceanDepth;
+        this.dirtDepth = dirtDepth;
+        this.rockSlope = rockSlope;
+        this.treeDensity = treeDensity;
+        this.bushDensity = bushDensity;
+        this.flowerDensity = flowerDensity;
+        this.veins = veins;
+    }
+    
+    /**
+     * @return settings giving islands with mountains up to height 3000, surrounded by ocean, with common ores and minerals in caves.
+     */
+    public static WorldSettings defaults() {
+        return new WorldSettings(512, 8, (short) 3000, (short) 500, (short) 30, (short) 60, 0.3f, 0.03f, 0.05f, DEFAULT_VEINS);
+    }
+    
+    /**
+     * @param featureSize size of the biggest landforms in tiles, must be a power of two between 16 and 32768.
+     * @param octaves number of noise layers added to landforms, each with half size of previous one. Must be between 1 and 16.
+     * @return copy of these settings with different landform scale.
+     */
+    public WorldSettings withLandforms(int featureSize, int octaves) {
+        if (featureSize < 16 || featureSize > 32768 || Integer.bitCount(featureSize) != 1) {
+            throw new IllegalArgumentException("Invalid feature size: " + featureSize + ", must be a power of two between 16 and 32768");
+        }
+        else if (octaves < 1 || octaves > 16) {
+            throw new IllegalArgumentException("Invalid number of octaves: " + octaves + ", must be between 1 and 16");
+        }
+        return new WorldSettings(featureSize, octaves, maxHeight, oceanDepth, dirtDepth, rockSlope, treeDensity, bushDensity, flowerDensity, veins);
+    }
+    
+    /**
+     * @param maxHeight height of the highest mountains, must be higher than 0.
+     * @param oceanDepth depth of the deepest ocean, must be higher than 0.
+     * @return copy of these settings with different height range.
+     */
+    public WorldSettings withHeights(short maxHeight, short oceanDepth) {
+        if (maxHeight <= 0 || oceanDepth <= 0) {
+            throw new IllegalArgumentException("Invalid heights: " + maxHeight + ", " + oceanDepth + ", both must be higher than 0");
+        }
+        return new WorldSettings(featureSize, octaves, maxHeight, oceanDepth, dirtDepth, rockSlope, treeDensity, bushDensity, flowerDensity, veins);
+    }
+    
+    /**
+     * @param dirtDepth average height of dirt above rock on flat land, must not be negative.
+     * @param rockSlope height difference between neighbouring tiles from which rock is exposed, must be higher than 0.
+     * @return copy of these settings with different dirt layer.
+     */
+    public WorldSettings withDirt(short dirtDepth, short rockSlope) {
+        if (dirtDepth < 0) {
+            throw new IllegalArgumentException("Dirt depth is negative: " + dirtDepth);
+        }
+        else if (rockSlope <= 0) {
+            throw new IllegalArgumentException("Rock slope must be higher than 0: " + rockSlope);
+        }
+        return new WorldSettings(featureSize, octaves, maxHeight, oceanDepth, dirtDepth, rockSlope, treeDensity, bushDensity, flowerDensity, veins);
+    }
+    
+    /**
+     * @param treeDensity average part of grass tiles covered by trees, between 0 and 1.
+     * @param bushDensity average part of grass tiles covered by bushes, between 0 and 1.
+     * @param flowerDensity part of remaining grass tiles with flowers, between 0 and 1.
+     * @return copy of these settings with different foliage.
+     */
+    public WorldSettings withFoliage(float treeDensity, float bushDensity, float flowerDensity) {
+        if (!(treeDensity >= 0 && bushDensity >= 0 && treeDensity + bushDensity <= 1)) {
+            throw new IllegalArgumentException("Invalid tree and bush density: " + treeDensity + ", " + bushDensity);
+        }
+        else if (!(flowerDensity >= 0 && flowerDensity <= 1)) {
+            throw new IllegalArgumentException("Invalid flower density: " + flowerDensity + ", must be between 0 and 1");
+        }
+        return new WorldSettings(featureSize, octaves, maxHeight, oceanDepth, dirtDepth, rockSlope, treeDensity, bushDensity, flowerDensity, veins);
+    }
+    
+    /**
+     * @param veins kinds of veins to generate in caves, in order of priority. Caves are left without veins if none are given.
+     * @return copy of these settings with different veins.
+     */
+    public WorldSettings withVeins(OreVein... veins) {
+        if (veins == null || veins.length > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid veins");
+        }
+        return new WorldSettings(featureSize, octaves, maxHeight, oceanDepth, dirtDepth, rockSlope, treeDensity, bushDensity, flowerDensity,
+                                 Collections.unmodifiableList(Arrays.asList(veins.clone())));
+    }
+    
+    public int getFeatureSize() {
+        return featureSize;
+    }
+    
+    public int getOctaves() {
+        return octaves;
+    }
+    
+    public short getMaxHeight() {
+        return maxHeight;
+    }
+    
+    public short getOceanDepth() {
+        return oceanDepth;
+    }
+    
+    public short getDirtDepth() {
+        return dirtDepth;
+    }
+    
+    public short getRockSlope() {
+        return rockSlope;
+    }
+    
+    public float getTreeDensity() {
+        return treeDensity;
+    }
+    
+    public float getBushDensity() {
+        return bushDensity;
+    }
+    
+    public float getFlowerDensity() {
+        return flowerDensity;
+    }
+    
+    /**
+     * @return unmodifiable list of vein kinds.
+     */
+    public List<OreVein> getVeins() {
+        return veins;
+    }
+    
+}
@@ -0,0 +1,39 @@
+package com.wurmonline.wurmapi.api.map.heightmap;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Supported heightmap file formats.<br>
+ * All formats store one unsigned 16-bit sample per tile, where sample value is equal to tile height + 32768 (so height 0 is stored as 32768).
+ */
+public enum HeightmapFormat {
+    
+    /**
+     * Grayscale PNG file, 16 bits per pixel. 8-bit grayscale files are accepted on import as well.
+     */
+    PNG,
+    
+    /**
+     * Headerless raw file with 16-bit little-endian samples, row after row (usually with .r16 or .raw extension).
+     */
+    RAW_16;
+    
+    /**
+     * @param file heightmap file
+     * @return format matching file extension
+     * @throws IllegalArgumentException if extension is unknown
+     */
+    public static HeightmapFormat forFile(File file) {
+        final String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".png")) {
+            return PNG;
+        }
+        else if (name.endsWith(".r16") || name.endsWith(".raw")) {
+            return RAW_16;
+        }
+        
+        throw new IllegalArgumentException("Unknown heightmap file extension: " + file.getName());
+    }
+    
+}
@@ -0,0 +1,18 @@
+package com.wurmonline.wurmapi.api.map.heightmap;
+
+/**
+ * Height layers of map which can be imported from and exported to heightmap files.
+ */
+public enum HeightmapLayer {
+    
+    /**
+     * Surface layer - the ground players are walking on.
+     */
+    SURFACE,
+    
+    /**
+     * Rock layer - the solid rock below dirt.
+     */
+    ROCK
+    
+}
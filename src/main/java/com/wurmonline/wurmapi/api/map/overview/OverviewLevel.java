@@ -0,0 +1,84 @@
+package com.wurmonline.wurmapi.api.map.overview;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+
+/**
+ * Downscaled version of surface layer: every block of 2^level x 2^level tiles is reduced to its most common tile type
+ * and average height.<br>
+ * Levels are immutable snapshots - changes made to map after level was created are visible only in levels requested afterwards.
+ */
+public final class OverviewLevel {
+    
+    private final int level;
+    private final int size;
+    private final byte[] types;
+    private final short[] heights;
+    
+    /**
+     * @param level power of two of block size.
+     * @param size width and height of level, in blocks.
+     * @param types most common tile type of every block, row after row.
+     * @param heights average height of every block, row after row.
+     */
+    public OverviewLevel(int level, int size, byte[] types, short[] heights) {
+        this.level = level;
+        this.size = size;
+        this.types = types;
+        this.heights = heights;
+    }
+    
+    /**
+     * @return power of two of block size.
+     */
+    public int getLevel() {
+        return level;
+    }
+    
+    /**
+     * @return width and height of block, in tiles.
+     */
+    public int getBlockSize() {
+        return 1 << level;
+    }
+    
+    /**
+     * @return width and height of level, in blocks.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * @param x x location of block.
+     * @param y y location of block.
+     * @return most common tile type in block (lowest tile id wins ties), or null if it is unknown tile type.
+     */
+    public Tile getTileType(int x, int y) {
+        return Tiles.getTile(types[x + y * size]);
+    }
+    
+    /**
+     * @param x x location of block.
+     * @param y y location of block.
+     * @return average height of block.
+     */
+    public short getHeight(int x, int y) {
+        return heights[x + y * size];
+    }
+    
+    /**
+     * @return most common tile type ids of all blocks, row after row. Returned array is not copied, so it shouldn't be modified.
+     */
+    public byte[] getTypes() {
+        return types;
+    }
+    
+    /**
+     * @return average heights of all blocks, row after row. Returned array is not copied, so it shouldn't be modified.
+     */
+    public short[] getHeights() {
+        return heights;
+    }
+    
+}
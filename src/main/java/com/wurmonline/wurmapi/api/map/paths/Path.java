@@ -0,0 +1,73 @@
+package com.wurmonline.wurmapi.api.map.paths;
+
+/**
+ * Path found by {@link com.wurmonline.wurmapi.api.MapData#findPath(int, int, int, int, PathCost)}: tiles from start to target, every tile neighbouring
+ * previous one (including diagonal neighbours).
+ */
+public final class Path {
+    
+    private final int[] xs;
+    private final int[] ys;
+    private final float cost;
+    private final int visitedTiles;
+    
+    /**
+     * @param xs x locations of path tiles, from start to target.
+     * @param ys y locations of path tiles, from start to target.
+     * @param cost total cost of path.
+     * @param visitedTiles number of tiles examined while searching for path.
+     */
+    public Path(int[] xs, int[] ys, float cost, int visitedTiles) {
+        if (xs.length != ys.length || xs.length == 0) {
+            throw new IllegalArgumentException("Invalid path locations");
+        }
+        this.xs = xs;
+        this.ys = ys;
+        this.cost = cost;
+        this.visitedTiles = visitedTiles;
+    }
+    
+    /**
+     * @return number of tiles of path, including start and target.
+     */
+    public int getLength() {
+        return xs.length;
+    }
+    
+    /**
+     * @param index index of path tile, 0 is start.
+     * @return x location of path tile.
+     */
+    public int getX(int index) {
+        return xs[index];
+    }
+    
+    /**
+     * @param index index of path tile, 0 is start.
+     * @return y location of path tile.
+     */
+    public int getY(int index) {
+        return ys[index];
+    }
+    
+    /**
+     * @return total cost of all steps of path.
+     */
+    public float getCost() {
+        return cost;
+    }
+    
+    /**
+     * @return number of tiles examined while searching for path, useful to tune cost functions.
+     */
+    public int getVisitedTiles() {
+        return visitedTiles;
+    }
+    
+    @Override
+    public String toString() {
+        return "Path [from=(" + xs[0] + ", " + ys[0] + "), to=(" + xs[xs.length - 1] + ", " + ys[ys.length - 1] + "), length=" + xs.length
+                + ", cost=" + cost + ", visitedTiles=" + visitedTiles + "]";
+    }
+    
+}
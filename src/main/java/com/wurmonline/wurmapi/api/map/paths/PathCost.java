@@ -0,0 +1,94 @@
+package com.wurmonline.wurmapi.api.map.paths;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Cost of moving between neighbouring surface tiles, used by {@link com.wurmonline.wurmapi.api.MapData#findPath(int, int, int, int, PathCost)}.<br>
+ * Diagonal steps are multiplied by square root of 2 after calling cost function, so it should return cost of straight step.
+ */
+@FunctionalInterface
+public interface PathCost {
+    
+    /**
+     * @param fromX x location of tile moved from.
+     * @param fromY y location of tile moved from.
+     * @param fromTile raw 32-bit surface data of tile moved from (see {@link com.wurmonline.wurmapi.api.MapData#setSurfaceTile(int, int, com.wurmonline.mesh.Tiles.Tile, short) setSurfaceTile}).
+     * @param toX x location of tile moved to.
+     * @param toY y location of tile moved to.
+     * @param toTile raw 32-bit surface data of tile moved to.
+     * @return cost of step, never lower than {@link #getMinimumCost()}, or {@link Float#POSITIVE_INFINITY} if step is not possible.
+     */
+    float getCost(int fromX, int fromY, int fromTile, int toX, int toY, int toTile);
+    
+    /**
+     * Lowest cost of any straight step, used to estimate remaining cost of path. Paths are only shortest if it is not higher than any real step cost.
+     * 
+     * @return lowest cost of straight step, must be higher than 0.
+     */
+    default float getMinimumCost() {
+        return 1;
+    }
+    
+    /**
+     * @return cost counting only number of steps.
+     */
+    static PathCost distance() {
+        return (fromX, fromY, fromTile, toX, toY, toTile) -> 1;
+    }
+    
+    /**
+     * Cost of road or canal building: every step costs 1, plus slopeWeight for every height unit of slope.
+     * 
+     * @param slopeWeight additional cost of every height unit of slope, must not be negative.
+     * @param maxSlope highest allowed height difference between neighbouring tiles.
+     * @param waterCost additional cost of step onto tile under water (height lower than 0), {@link Float#POSITIVE_INFINITY} to avoid water.
+     * @return terrain cost.
+     */
+    static PathCost terrain(float slopeWeight, short maxSlope, float waterCost) {
+        if (!(slopeWeight >= 0) || !(waterCost >= 0)) {
+            throw new IllegalArgumentException("Slope weight and water cost must not be negative");
+        }
+        return (fromX, fromY, fromTile, toX, toY, toTile) -> {
+            final short toHeight = Tiles.decodeHeight(toTile);
+            final int slope = Math.abs(toHeight - Tiles.decodeHeight(fromTile));
+            if (slope > maxSlope) {
+                return Float.POSITIVE_INFINITY;
+            }
+            return 1 + slope * slopeWeight + (toHeight < 0 ? waterCost : 0);
+        };
+    }
+    
+    /**
+     * Creates cost multiplying another cost by tile type of tile moved to. Multiplier is computed once per tile type, not once per step.
+     * 
+     * @param cost cost to multiply.
+     * @param multiplier multiplier of tile type, must not be lower than 1. {@link Double#POSITIVE_INFINITY} makes tile type impassable.
+     * @return cost depending on tile type.
+     */
+    static PathCost byTileType(PathCost cost, ToDoubleFunction<Tile> multiplier) {
+        final float[] multipliers = new float[256];
+        for (int id = 0; id < multipliers.length; id++) {
+            final Tile tile = Tiles.getTile((byte) id);
+            multipliers[id] = tile != null ? (float) multiplier.applyAsDouble(tile) : 1;
+            if (!(multipliers[id] >= 1)) {
+                throw new IllegalArgumentException("Multiplier of " + tile + " is lower than 1: " + multipliers[id]);
+            }
+        }
+        return new PathCost() {
+            
+            @Override
+            public float getCost(int fromX, int fromY, int fromTile, int toX, int toY, int toTile) {
+                return cost.getCost(fromX, fromY, fromTile, toX, toY, toTile) * multipliers[Tiles.decodeType(toTile) & 0xFF];
+            }
+            
+            @Override
+            public float getMinimumCost() {
+                return cost.getMinimumCost();
+            }
+        };
+    }
+    
+}
@@ -0,0 +1,346 @@
+package com.wurmonline.wurmapi.api.map.tiles;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wurmonline.wurmapi.api.MapData;
+import com.wurmonline.wurmapi.api.map.MapChangeListener;
+import com.wurmonline.wurmapi.api.map.MapChanges;
+import com.wurmonline.wurmapi.api.map.MapLayer;
+import com.wurmonline.wurmapi.api.map.dump.DumpRequest;
+import com.wurmonline.wurmapi.api.map.dump.DumpType;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+import com.wurmonline.wurmapi.internal.RowSpans;
+import com.wurmonline.wurmapi.internal.TileCache;
+import com.wurmonline.wurmapi.internal.TileRenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Serves map dump tiles over HTTP, for map viewers like Leaflet or OpenLayers, at {@code /style/zoom/x/y.png}.<br>
+ * Tiles are rendered from data in memory when first requested, and encoded PNG images are kept in cache of limited size,
+ * dropping least recently used tiles first.<br><br>
+ * 
+ * Default styles are {@code map}, {@code terrain}, {@code flowers}, {@code trees}, {@code cave} and {@code topographic},
+ * more can be added with {@link #addStyle(String, DumpRequest)}, for example with custom colorist.<br>
+ * Relief styles aren't added by default - their first tile computes normals of whole map layer and keeps them in memory,
+ * 4 bytes per tile, so they must be added explicitly, for example
+ * {@code addStyle("relief", DumpRequest.relief(ReliefStyle.HILLSHADE, HeightmapLayer.SURFACE, true))}.<br><br>
+ * 
+ * Server listens to changes made through {@link MapData}, including rows reloaded by {@link MapData#refresh()}, and drops cached tiles
+ * showing changed area before serving next tile. Only changes which aren't made through served map, for example when tiles are
+ * rendered from other data, must be passed to {@link #invalidate(int, int, int, int)}.
+ */
+public final class MapTileServer {
+    
+    /**
+     * Default size of tile cache, in bytes.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 64L << 20;
+    
+    private final MapData mapData;
+    private final int sizeLevel;
+    private final HttpServer server;
+    private final TileCache cache;
+    private final Map<String, DumpRequest> styles = new ConcurrentHashMap<>();
+    // changes of layers shown on any style, collected by listener and applied to cache before serving tile
+    private final RowSpans[] pending = new RowSpans[MapLayer.values().length];
+    private final MapChangeListener listener;
+    private ExecutorService executor;
+    
+    /**
+     * Creates server listening on loopback address only, with default cache size.
+     * 
+     * @param mapData map to serve.
+     * @param port port to listen on, or 0 to choose any free port.
+     */
+    public MapTileServer(MapData mapData, int port) throws IOException {
+        this(mapData, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * @param mapData map to serve.
+     * @param address address to listen on.
+     * @param cacheSize maximum total size of cached tiles, in bytes.
+     */
+    public MapTileServer(MapData mapData, InetSocketAddress address, long cacheSize) throws IOException {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size is negative: " + cacheSize);
+        }
+        this.mapData = mapData;
+        this.sizeLevel = Integer.numberOfTrailingZeros(mapData.getWidth());
+        this.cache = new TileCache(cacheSize);
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/", this::handle);
+        
+        for (MapLayer layer : new MapLayer[] {MapLayer.SURFACE, MapLayer.ROCK, MapLayer.CAVE}) {
+            pending[layer.ordinal()] = new RowSpans(mapData.getWidth());
+        }
+        this.listener = (layer, fromX, fromY, toX, toY) -> {
+            final RowSpans spans = pending[layer.ordinal()];
+            if (spans != null) {
+                spans.add(fromX, fromY, toX, toY);
+            }
+        };
+        mapData.addChangeListener(listener);
+        
+        addStyle("map", DumpRequest.map());
+        addStyle("terrain", DumpRequest.terrain(true));
+        addStyle("flowers", DumpRequest.flowers(true));
+        addStyle("trees", DumpRequest.trees(true));
+        addStyle("cave", DumpRequest.cave(true));
+        addStyle("topographic", DumpRequest.topographic(true, (short) 100));
+    }
+    
+    /**
+     * Adds new style, or replaces existing style and drops its cached tiles.
+     * 
+     * @param name name of style, used as first part of tile path.
+     * @param request dump style. Output size of map dump requests is ignored.
+     * @return this server.
+     */
+    public MapTileServer addStyle(String name, DumpRequest request) {
+        if (name == null || name.isEmpty() || name.contains("/")) {
+            throw new IllegalArgumentException("Invalid style name: " + name);
+        }
+        else if (request == null) {
+            throw new IllegalArgumentException("Request is null");
+        }
+        styles.put(name, request);
+        cache.invalidate(key -> key.getStyle().equals(name));
+        return this;
+    }
+    
+    /**
+     * Starts serving tiles, rendering them on as many threads as there are available processors.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    /**
+     * Stops server, waiting up to given time for requests being served, and stops listening to map changes.
+     * Stopped server can't be started again.
+     * 
+     * @param delay maximum time to wait, in seconds.
+     */
+    public synchronized void stop(int delay) {
+        mapData.removeChangeListener(listener);
+        server.stop(delay);
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * @return address server is listening on.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+    
+    /**
+     * Returns tile encoded as PNG image, rendering it if it isn't cached.
+     * 
+     * @param style name of style.
+     * @param zoom zoom level, from 0 to {@link MapData#getMaxTileZoom()}.
+     * @param tileX column of tile, from 0 to 2^zoom - 1.
+     * @param tileY row of tile, from 0 to 2^zoom - 1.
+     * @return PNG image. Returned array is cached, so it shouldn't be modified.
+     */
+    public byte[] getTile(String style, int zoom, int tileX, int tileY) throws IOException {
+        final DumpRequest request = styles.get(style);
+        if (request == null) {
+            throw new IllegalArgumentException("Unknown style: " + style);
+        }
+        
+        applyChanges();
+        final TileCache.Key key = new TileCache.Key(style, zoom, tileX, tileY);
+        byte[] png = cache.get(key);
+        if (png == null) {
+            // tile invalidated while it is rendered is still returned, but not cached
+            final long generation = cache.getGeneration();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ImageIO.write(mapData.createDumpTile(request, zoom, tileX, tileY), "png", output);
+            png = output.toByteArray();
+            cache.put(key, png, generation);
+        }
+        return png;
+    }
+    
+    /**
+     * Drops cached tiles which can show tiles from given area of any layer.
+     * 
+     * @param fromX first changed column of map (inclusive).
+     * @param fromY first changed row of map (inclusive).
+     * @param toX last changed column of map (exclusive).
+     * @param toY last changed row of map (exclusive).
+     */
+    public void invalidate(int fromX, int fromY, int toX, int toY) {
+        invalidate(fromX, fromY, toX, toY, request -> true);
+    }
+    
+    /**
+     * Drops cached tiles which can show changed parts of rows reloaded from map files. Rock changes only drop cave and rock relief tiles,
+     * and changes of flags and resources layers are ignored, as they aren't shown on any style.<br>
+     * Changes returned by {@link MapData#refresh()} of served map are already applied through change listener, so this is only needed
+     * for changes of another copy of map.
+     * 
+     * @param changes changes returned by {@link MapData#refresh()}.
+     */
+    public void invalidate(MapChanges changes) {
+        final int[][] spans = new int[MapLayer.values().length][];
+        for (MapLayer layer : MapLayer.values()) {
+            spans[layer.ordinal()] = changes.getChangedSpans(layer);
+        }
+        invalidateSpans(spans);
+    }
+    
+    /**
+     * Drops all cached tiles.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+    
+    /**
+     * @return total size of cached tiles, in bytes.
+     */
+    public long getCacheUsage() {
+        return cache.getUsedBytes();
+    }
+    
+    /**
+     * Drops cached tiles showing changes collected by listener since last call.
+     */
+    private void applyChanges() {
+        int[][] spans = null;
+        for (int i = 0; i < pending.length; i++) {
+            final int[] layerSpans = pending[i] != null ? pending[i].take() : null;
+            if (layerSpans != null) {
+                if (spans == null) {
+                    spans = new int[pending.length][];
+                }
+                spans[i] = layerSpans;
+            }
+        }
+        if (spans != null) {
+            invalidateSpans(spans);
+        }
+    }
+    
+    /**
+     * Drops cached tiles showing changed parts of rows, in single pass over cache.
+     * 
+     * @param spans changed spans of rows in format of {@link MapChanges#getChangedSpans(MapLayer)}, indexed by layer, null for unchanged layers.
+     */
+    private void invalidateSpans(int[][] spans) {
+        cache.invalidate(key -> {
+            final DumpRequest request = styles.get(key.getStyle());
+            if (request == null) {
+                return true;
+            }
+            for (MapLayer layer : MapLayer.values()) {
+                final int[] layerSpans = spans[layer.ordinal()];
+                if (layerSpans != null && isShown(layer, request)
+                        && TileRenderer.isAffected(request.getType(), sizeLevel, key.getZoom(), key.getX(), key.getY(), layerSpans)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+    
+    /**
+     * @return true if tiles of style can change when layer changes.
+     */
+    private static boolean isShown(MapLayer layer, DumpRequest request) {
+        switch (layer) {
+            case SURFACE:
+                return true;
+            case ROCK:
+                return request.getType() == DumpType.CAVE || (request.getType() == DumpType.RELIEF && request.getLayer() == HeightmapLayer.ROCK);
+            case CAVE:
+                return request.getType() == DumpType.CAVE;
+            default:
+                return false;
+        }
+    }
+    
+    private void invalidate(int fromX, int fromY, int toX, int toY, Predicate<DumpRequest> affected) {
+        cache.invalidate(key -> {
+            final DumpRequest request = styles.get(key.getStyle());
+            if (request == null) {
+                return true;
+            }
+            else if (!affected.test(request)) {
+                return false;
+            }
+            return TileRenderer.isAffected(request.getType(), sizeLevel, key.getZoom(), key.getX(), key.getY(), fromX, fromY, toX, toY);
+        });
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, null);
+                return;
+            }
+            
+            // path: /style/zoom/x/y.png
+            final String[] parts = exchange.getRequestURI().getPath().split("/");
+            if (parts.length != 5 || !parts[0].isEmpty() || !parts[4].endsWith(".png") || !styles.containsKey(parts[1])) {
+                respond(exchange, 404, null);
+                return;
+            }
+            
+            final byte[] png;
+            try {
+                final int zoom = Integer.parseInt(parts[2]);
+                final int tileX = Integer.parseInt(parts[3]);
+                final int tileY = Integer.parseInt(parts[4].substring(0, parts[4].length() - 4));
+                png = getTile(parts[1], zoom, tileX, tileY);
+            } catch (IllegalArgumentException ex) {
+                respond(exchange, 404, null);
+                return;
+            }
+            respond(exchange, 200, png);
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(MapTileServer.class.getName()).log(Level.WARNING, null, ex);
+            throw ex;
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        // tiles change with map, so browsers must always ask again
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+    
+}
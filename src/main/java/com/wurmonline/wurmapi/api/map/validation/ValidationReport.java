@@ -0,0 +1,81 @@
+package com.wurmonline.wurmapi.api.map.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of world validation: number of map errors of every kind, and locations of some of them.
+ */
+public final class ValidationReport {
+    
+    private final Map<ViolationType, Long> counts;
+    private final List<Violation> violations;
+    private final boolean repaired;
+    
+    /**
+     * @param counts number of errors of each kind. Kinds without errors can be skipped.
+     * @param violations listed errors.
+     * @param repaired true if errors were repaired.
+     */
+    public ValidationReport(Map<ViolationType, Long> counts, List<Violation> violations, boolean repaired) {
+        this.counts = new EnumMap<>(ViolationType.class);
+        for (Map.Entry<ViolationType, Long> entry : counts.entrySet()) {
+            if (entry.getValue() > 0) {
+                this.counts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.violations = Collections.unmodifiableList(new ArrayList<>(violations));
+        this.repaired = repaired;
+    }
+    
+    /**
+     * @return true if no errors were found.
+     */
+    public boolean isValid() {
+        return counts.isEmpty();
+    }
+    
+    /**
+     * @return true if found errors were repaired, false if world was only checked.
+     */
+    public boolean isRepaired() {
+        return repaired;
+    }
+    
+    /**
+     * @param type kind of error.
+     * @return number of found errors of this kind.
+     */
+    public long getCount(ViolationType type) {
+        final Long count = counts.get(type);
+        return count != null ? count : 0;
+    }
+    
+    /**
+     * @return number of found errors of all kinds.
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (long count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+    
+    /**
+     * @return listed errors, ordered by kind and then by location (row after row). Only limited number of errors of every kind
+     * is listed, so this list can be shorter than {@link #getTotalCount()}.
+     */
+    public List<Violation> getViolations() {
+        return violations;
+    }
+    
+    @Override
+    public String toString() {
+        return "ValidationReport [counts=" + counts + ", repaired=" + repaired + "]";
+    }
+    
+}
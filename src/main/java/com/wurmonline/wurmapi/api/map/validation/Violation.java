@@ -0,0 +1,52 @@
+package com.wurmonline.wurmapi.api.map.validation;
+
+import com.wurmonline.wurmapi.api.map.MapLayer;
+
+/**
+ * Single map error found by validation.
+ */
+public final class Violation {
+    
+    private final ViolationType type;
+    private final MapLayer layer;
+    private final int x;
+    private final int y;
+    
+    /**
+     * @param type kind of error.
+     * @param layer layer containing wrong tile.
+     * @param x x location of wrong tile.
+     * @param y y location of wrong tile.
+     */
+    public Violation(ViolationType type, MapLayer layer, int x, int y) {
+        this.type = type;
+        this.layer = layer;
+        this.x = x;
+        this.y = y;
+    }
+    
+    public ViolationType getType() {
+        return type;
+    }
+    
+    /**
+     * @return layer containing wrong tile - {@link MapLayer#RESOURCES} for {@link ViolationType#ZERO_RESOURCES}.
+     */
+    public MapLayer getLayer() {
+        return layer;
+    }
+    
+    public int getX() {
+        return x;
+    }
+    
+    public int getY() {
+        return y;
+    }
+    
+    @Override
+    public String toString() {
+        return "Violation [type=" + type + ", layer=" + layer + ", x=" + x + ", y=" + y + "]";
+    }
+    
+}
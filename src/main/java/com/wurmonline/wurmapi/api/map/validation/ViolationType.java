@@ -0,0 +1,40 @@
+package com.wurmonline.wurmapi.api.map.validation;
+
+/**
+ * Kind of map error found by {@link com.wurmonline.wurmapi.api.MapData#validate(boolean)}, together with the way it is repaired.
+ */
+public enum ViolationType {
+    
+    /**
+     * Surface tile is lower than rock layer in the same location.<br>
+     * Repaired by raising surface tile to rock height.
+     */
+    SURFACE_BELOW_ROCK,
+    
+    /**
+     * Surface tile is fully exposed (rock layer is at least as high as surface in all four corners), but it is not plain rock.
+     * Tiles in the last row and column of map are never checked.<br>
+     * Repaired by changing surface tile to rock without tile data, keeping its height.
+     */
+    EXPOSED_ROCK,
+    
+    /**
+     * Surface or cave tile has type not known to the game.<br>
+     * Repaired by changing surface tile to dirt and cave tile to cave wall, keeping height and clearing tile data.
+     */
+    UNKNOWN_TILE,
+    
+    /**
+     * Surface tile has type which can only be used inside caves, like cave walls or veins.<br>
+     * Repaired by changing surface tile to dirt, keeping height and clearing tile data.
+     */
+    CAVE_TILE_ON_SURFACE,
+    
+    /**
+     * Minable cave wall or vein has no resources left.<br>
+     * Repaired by setting default resource count: {@link com.wurmonline.wurmapi.api.MapData#DEFAULT_ROCK_RESOURCE_COUNT} for plain cave walls and
+     * {@link com.wurmonline.wurmapi.api.MapData#DEFAULT_ORE_RESOURCE_COUNT} for all other walls.
+     */
+    ZERO_RESOURCES
+    
+}
@@ -0,0 +1,73 @@
+package com.wurmonline.wurmapi.api.map.veins;
+
+import com.wurmonline.mesh.Tiles.Tile;
+
+/**
+ * Describes one kind of ore veins generated by {@link com.wurmonline.wurmapi.api.MapData#generateVeins(long, OreVein...)}.<br>
+ * Veins are immutable.
+ */
+public final class OreVein {
+    
+    /**
+     * Maximum vein size, in tiles.
+     */
+    public static final int MAX_CLUSTER_SIZE = 1024;
+    
+    private final Tile tileType;
+    private final float frequency;
+    private final int clusterSize;
+    private final short minResources;
+    private final short maxResources;
+    
+    /**
+     * @param tileType type of vein tiles. Only solid cave types are allowed.
+     * @param frequency average number of veins starting on each tile, for example 0.0002 gives about 200 veins on 1024x1024 map.
+     * @param clusterSize average number of tiles in one vein, from 1 to {@link #MAX_CLUSTER_SIZE}.
+     * @param minResources minimum resource count of vein tile. Must be higher than 0.
+     * @param maxResources maximum resource count of vein tile.
+     */
+    public OreVein(Tile tileType, float frequency, int clusterSize, short minResources, short maxResources) {
+        if (tileType == null) {
+            throw new IllegalArgumentException("Tile type is null");
+        }
+        else if (!tileType.isSolidCave()) {
+            throw new IllegalArgumentException("Tile type is invalid cave type: " + tileType.toString());
+        }
+        else if (!(frequency >= 0 && frequency <= 1)) {
+            throw new IllegalArgumentException("Invalid vein frequency: " + frequency + ", must be between 0 and 1");
+        }
+        else if (clusterSize < 1 || clusterSize > MAX_CLUSTER_SIZE) {
+            throw new IllegalArgumentException("Invalid cluster size: " + clusterSize + ", must be between 1 and " + MAX_CLUSTER_SIZE);
+        }
+        else if (minResources <= 0 || maxResources < minResources) {
+            throw new IllegalArgumentException("Invalid resource range: " + minResources + " - " + maxResources);
+        }
+        
+        this.tileType = tileType;
+        this.frequency = frequency;
+        this.clusterSize = clusterSize;
+        this.minResources = minResources;
+        this.maxResources = maxResources;
+    }
+    
+    public Tile getTileType() {
+        return tileType;
+    }
+    
+    public float getFrequency() {
+        return frequency;
+    }
+    
+    public int getClusterSize() {
+        return clusterSize;
+    }
+    
+    public short getMinResources() {
+        return minResources;
+    }
+    
+    public short getMaxResources() {
+        return maxResources;
+    }
+    
+}
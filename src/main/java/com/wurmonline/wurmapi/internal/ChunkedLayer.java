@@ -0,0 +1,438 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compressed layer storage, made for layers which are mostly uniform (cave and resources).<br><br>
+ *
+ * Layer is split into 64x64 tile chunks, and every chunk is kept in the smallest of three forms:
+ * <ul>
+ *     <li>constant - single value for whole chunk (solid rock, untouched resources),</li>
+ *     <li>palette - up to 256 distinct values, with 1, 2, 4 or 8 bit index of every tile packed into longs,</li>
+ *     <li>dense - one int per tile, the same as {@link com.wurmonline.mesh.MeshIO}.</li>
+ * </ul>
+ * Edits promote chunks to bigger forms when needed. Chunks are compacted back every time they are written to map file.<br>
+ * Map file format is identical to the one used by {@link com.wurmonline.mesh.MeshIO}, and only changed chunk rows are written back.<br><br>
+ *
+ * Chunks in different chunk rows (64 tile rows) can be modified from different threads at the same time.
+ */
+public final class ChunkedLayer implements TileLayer {
+
+    private static final int CHUNK_LEVEL = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_LEVEL;
+    private static final int CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE;
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    private final FileChannel channel;
+    private final int sizeLevel;
+    private final int size;
+    private final int chunksPerRow;
+    private final Chunk[] chunks;
+    private final boolean[] dirtyChunkRows;
+
+    private ChunkedLayer(FileChannel channel, int sizeLevel) {
+        this.channel = channel;
+        this.sizeLevel = sizeLevel;
+        this.size = 1 << sizeLevel;
+        this.chunksPerRow = size >> CHUNK_LEVEL;
+        this.chunks = new Chunk[chunksPerRow * chunksPerRow];
+        this.dirtyChunkRows = new boolean[chunksPerRow];
+    }
+
+    /**
+     * Loads existing map file.
+     */
+    public static ChunkedLayer open(String path) throws IOException {
+        final FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final int sizeLevel = MapFiles.readHeader(channel, path);
+            if (sizeLevel < CHUNK_LEVEL) {
+                throw new IOException("Unsupported map size in " + path + ": 2^" + sizeLevel);
+            }
+
+            final ChunkedLayer layer = new ChunkedLayer(channel, sizeLevel);
+            layer.load();
+            return layer;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Creates new map file, or replaces existing one, with all tiles set to 0.
+     */
+    public static ChunkedLayer create(String path, int sizeLevel) throws IOException {
+        final FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            // file is extended with zeros, so there is no need to write whole layer
+            MapFiles.writeHeader(channel, sizeLevel);
+
+            final ChunkedLayer layer = new ChunkedLayer(channel, sizeLevel);
+            Arrays.setAll(layer.chunks, index -> new Chunk(0));
+            return layer;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void load() throws IOException {
+        RowBands.forEachIO(size, CHUNK_SIZE, true, (fromY, toY) -> {
+            final ByteBuffer buffer = ByteBuffer.allocate((toY - fromY) * size * 4);
+            MapFiles.readFully(channel, buffer, rowPosition(fromY));
+            ((Buffer) buffer).flip();
+
+            final int[] band = new int[(toY - fromY) * size];
+            buffer.asIntBuffer().get(band);
+            encodeChunkRow(fromY >> CHUNK_LEVEL, band, 0, new ChunkEncoder());
+        });
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getSizeLevel() {
+        return sizeLevel;
+    }
+
+    @Override
+    public int getTile(int x, int y) {
+        return chunks[chunkIndex(x, y)].get(tileIndex(x, y));
+    }
+
+    @Override
+    public void setTile(int x, int y, int value) {
+        chunks[chunkIndex(x, y)].set(tileIndex(x, y), value);
+        dirtyChunkRows[y >> CHUNK_LEVEL] = true;
+    }
+
+    @Override
+    public void readRows(int fromY, int toY, int[] target, int offset) {
+        for (int y = fromY; y < toY; y++) {
+            final int chunkRowStart = (y >> CHUNK_LEVEL) * chunksPerRow;
+            final int tileRow = (y & (CHUNK_SIZE - 1)) << CHUNK_LEVEL;
+            final int rowOffset = offset + (y - fromY) * size;
+            for (int cx = 0; cx < chunksPerRow; cx++) {
+                chunks[chunkRowStart + cx].readRow(tileRow, target, rowOffset + (cx << CHUNK_LEVEL));
+            }
+        }
+    }
+
+    @Override
+    public void writeRows(int fromY, int toY, int[] source, int offset) {
+        replaceRows(fromY, toY, source, offset);
+        for (int cy = fromY >> CHUNK_LEVEL; cy <= (toY - 1) >> CHUNK_LEVEL; cy++) {
+            dirtyChunkRows[cy] = true;
+        }
+    }
+
+    @Override
+    public void reloadRows(int fromY, int toY, int[] source, int offset) {
+        replaceRows(fromY, toY, source, offset);
+    }
+
+    private void replaceRows(int fromY, int toY, int[] source, int offset) {
+        final ChunkEncoder encoder = new ChunkEncoder();
+        for (int cy = fromY >> CHUNK_LEVEL; cy <= (toY - 1) >> CHUNK_LEVEL; cy++) {
+            final int firstRow = Math.max(fromY, cy << CHUNK_LEVEL);
+            final int lastRow = Math.min(toY, (cy + 1) << CHUNK_LEVEL);
+            final int rowsOffset = offset + (firstRow - fromY) * size;
+            if (lastRow - firstRow == CHUNK_SIZE) {
+                encodeChunkRow(cy, source, rowsOffset, encoder);
+            }
+            else {
+                for (int y = firstRow; y < lastRow; y++) {
+                    final int rowOffset = rowsOffset + (y - firstRow) * size;
+                    for (int x = 0; x < size; x++) {
+                        chunks[chunkIndex(x, y)].set(tileIndex(x, y), source[rowOffset + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes changed chunk rows to map file - rows which were not changed are already identical to file contents.
+     */
+    @Override
+    public void save() throws IOException {
+        RowBands.forEachIO(size, CHUNK_SIZE, true, (fromY, toY) -> {
+            final int cy = fromY >> CHUNK_LEVEL;
+            if (!dirtyChunkRows[cy]) {
+                return;
+            }
+            dirtyChunkRows[cy] = false;
+
+            final int[] band = new int[(toY - fromY) * size];
+            readRows(fromY, toY, band, 0);
+            encodeChunkRow(cy, band, 0, new ChunkEncoder());
+
+            final ByteBuffer buffer = ByteBuffer.allocate(band.length * 4);
+            buffer.asIntBuffer().put(band);
+            MapFiles.writeFully(channel, buffer, rowPosition(fromY));
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            save();
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        long total = 0;
+        for (Chunk chunk : chunks) {
+            total += chunk.getMemoryUsage();
+        }
+        return total;
+    }
+
+    private void encodeChunkRow(int cy, int[] band, int offset, ChunkEncoder encoder) {
+        for (int cx = 0; cx < chunksPerRow; cx++) {
+            chunks[cy * chunksPerRow + cx] = encoder.encode(band, offset + (cx << CHUNK_LEVEL), size);
+        }
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (x >> CHUNK_LEVEL) + (y >> CHUNK_LEVEL) * chunksPerRow;
+    }
+
+    private static int tileIndex(int x, int y) {
+        return (x & (CHUNK_SIZE - 1)) | ((y & (CHUNK_SIZE - 1)) << CHUNK_LEVEL);
+    }
+
+    private long rowPosition(int y) {
+        return MapFiles.rowPosition(sizeLevel, y);
+    }
+
+    /**
+     * Single 64x64 chunk. Exactly one of three forms is used at a time: dense if dense is not null,
+     * palette if palette is not null, constant otherwise.
+     */
+    private static final class Chunk {
+
+        private int value;
+        private int[] palette;
+        private int paletteSize;
+        private int bits;
+        private long[] indices;
+        private int[] dense;
+
+        Chunk(int value) {
+            this.value = value;
+        }
+
+        Chunk(int[] palette, int paletteSize, int bits, long[] indices) {
+            this.palette = palette;
+            this.paletteSize = paletteSize;
+            this.bits = bits;
+            this.indices = indices;
+        }
+
+        Chunk(int[] dense) {
+            this.dense = dense;
+        }
+
+        int get(int tile) {
+            if (dense != null) {
+                return dense[tile];
+            }
+            else if (palette != null) {
+                return palette[getIndex(tile)];
+            }
+            return value;
+        }
+
+        void set(int tile, int newValue) {
+            if (dense != null) {
+                dense[tile] = newValue;
+                return;
+            }
+            else if (palette == null) {
+                if (newValue == value) {
+                    return;
+                }
+                palette = new int[] {value, 0};
+                paletteSize = 1;
+                bits = 1;
+                indices = new long[CHUNK_AREA / Long.SIZE];
+            }
+
+            int index = findInPalette(newValue);
+            if (index < 0) {
+                if (paletteSize == MAX_PALETTE_SIZE) {
+                    toDense();
+                    dense[tile] = newValue;
+                    return;
+                }
+                else if (paletteSize == 1 << bits) {
+                    widenIndices();
+                }
+                if (paletteSize == palette.length) {
+                    palette = Arrays.copyOf(palette, 1 << bits);
+                }
+                index = paletteSize++;
+                palette[index] = newValue;
+            }
+            setIndex(tile, index);
+        }
+
+        void readRow(int firstTile, int[] target, int offset) {
+            if (dense != null) {
+                System.arraycopy(dense, firstTile, target, offset, CHUNK_SIZE);
+            }
+            else if (palette != null) {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    target[offset + i] = palette[getIndex(firstTile + i)];
+                }
+            }
+            else {
+                Arrays.fill(target, offset, offset + CHUNK_SIZE, value);
+            }
+        }
+
+        long getMemoryUsage() {
+            long total = 40;
+            if (dense != null) {
+                total += 16 + dense.length * 4L;
+            }
+            else if (palette != null) {
+                total += 32 + palette.length * 4L + indices.length * 8L;
+            }
+            return total;
+        }
+
+        private int getIndex(int tile) {
+            final int bit = tile * bits;
+            return (int) (indices[bit >>> 6] >>> (bit & 63)) & ((1 << bits) - 1);
+        }
+
+        private void setIndex(int tile, int index) {
+            final int bit = tile * bits;
+            final long mask = (long) ((1 << bits) - 1) << (bit & 63);
+            indices[bit >>> 6] = (indices[bit >>> 6] & ~mask) | ((long) index << (bit & 63));
+        }
+
+        private int findInPalette(int searched) {
+            for (int i = 0; i < paletteSize; i++) {
+                if (palette[i] == searched) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void widenIndices() {
+            final int[] tiles = new int[CHUNK_AREA];
+            for (int tile = 0; tile < CHUNK_AREA; tile++) {
+                tiles[tile] = getIndex(tile);
+            }
+
+            bits *= 2;
+            indices = new long[CHUNK_AREA * bits / Long.SIZE];
+            for (int tile = 0; tile < CHUNK_AREA; tile++) {
+                setIndex(tile, tiles[tile]);
+            }
+        }
+
+        private void toDense() {
+            final int[] values = new int[CHUNK_AREA];
+            for (int tile = 0; tile < CHUNK_AREA; tile++) {
+                values[tile] = palette[getIndex(tile)];
+            }
+            dense = values;
+            palette = null;
+            indices = null;
+        }
+    }
+
+    /**
+     * Picks the smallest form for a chunk of dense data. Keeps small hash table between calls, so one encoder
+     * should be used for many chunks, always by a single thread.
+     */
+    private static final class ChunkEncoder {
+
+        private static final int TABLE_SIZE = 1024;
+
+        private final int[] keys = new int[TABLE_SIZE];
+        private final int[] slots = new int[TABLE_SIZE];
+        private final int[] stamps = new int[TABLE_SIZE];
+        private final int[] palette = new int[MAX_PALETTE_SIZE];
+        private final int[] tileIndices = new int[CHUNK_AREA];
+        private int stamp;
+
+        /**
+         * @param data dense data.
+         * @param offset index of chunk top left tile in data.
+         * @param stride distance between rows in data.
+         */
+        Chunk encode(int[] data, int offset, int stride) {
+            stamp++;
+            int paletteSize = 0;
+            int previous = data[offset];
+            int previousIndex = -1;
+            for (int y = 0; y < CHUNK_SIZE; y++) {
+                final int rowOffset = offset + y * stride;
+                for (int x = 0; x < CHUNK_SIZE; x++) {
+                    final int tile = data[rowOffset + x];
+                    if (tile != previous || previousIndex < 0) {
+                        int slot = (tile * 0x9E3779B9) >>> 22;
+                        while (stamps[slot] == stamp && keys[slot] != tile) {
+                            slot = (slot + 1) & (TABLE_SIZE - 1);
+                        }
+                        if (stamps[slot] != stamp) {
+                            if (paletteSize == MAX_PALETTE_SIZE) {
+                                return denseChunk(data, offset, stride);
+                            }
+                            stamps[slot] = stamp;
+                            keys[slot] = tile;
+                            slots[slot] = paletteSize;
+                            palette[paletteSize++] = tile;
+                        }
+                        previous = tile;
+                        previousIndex = slots[slot];
+                    }
+                    tileIndices[(y << CHUNK_LEVEL) | x] = previousIndex;
+                }
+            }
+
+            if (paletteSize == 1) {
+                return new Chunk(palette[0]);
+            }
+
+            int bits = 1;
+            while (1 << bits < paletteSize) {
+                bits *= 2;
+            }
+            final Chunk chunk = new Chunk(Arrays.copyOf(palette, 1 << bits), paletteSize, bits, new long[CHUNK_AREA * bits / Long.SIZE]);
+            for (int tile = 0; tile < CHUNK_AREA; tile++) {
+                chunk.setIndex(tile, tileIndices[tile]);
+            }
+            return chunk;
+        }
+
+        private Chunk denseChunk(int[] data, int offset, int stride) {
+            final int[] values = new int[CHUNK_AREA];
+            for (int y = 0; y < CHUNK_SIZE; y++) {
+                System.arraycopy(data, offset + y * stride, values, y << CHUNK_LEVEL, CHUNK_SIZE);
+            }
+            return new Chunk(values);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.wurmapi.api.map.components.ConnectedComponents;
+import com.wurmonline.wurmapi.api.map.components.TilePredicate;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parallel union-find connected component labelling.<br><br>
+ *
+ * Every band of rows is labelled independently, then components touching band borders are merged.
+ * Union always links larger root to smaller one, so root of every component is its first tile in row order -
+ * this makes labels independent of number of bands and threads.
+ */
+public final class ComponentLabeler {
+
+    private static final int NONE = -1;
+
+    private final TileLayer layer;
+    private final int size;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param layer layer to label.
+     * @param pool pool to label bands on, or null to run in calling thread.
+     */
+    public ComponentLabeler(TileLayer layer, ForkJoinPool pool) {
+        this.layer = layer;
+        this.size = layer.getSize();
+        this.pool = pool;
+    }
+
+    public ConnectedComponents label(TilePredicate predicate) {
+        final int[] parent = new int[size * size];
+        final int bandHeight = RowBands.DEFAULT_BAND_HEIGHT;
+
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> labelBand(parent, predicate, fromY, toY));
+
+        for (int y = bandHeight; y < size; y += bandHeight) {
+            final int row = y * size;
+            for (int x = 0; x < size; x++) {
+                if (parent[row + x] != NONE && parent[row - size + x] != NONE) {
+                    union(parent, row + x, row - size + x);
+                }
+            }
+        }
+
+        // point every tile straight to its root; concurrent readers always see some ancestor, so the race is harmless
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            for (int index = fromY * size; index < toY * size; index++) {
+                if (parent[index] != NONE) {
+                    parent[index] = find(parent, index);
+                }
+            }
+        });
+
+        final int bands = RowBands.bandCount(size, bandHeight);
+        final int[] firstLabel = new int[bands + 1];
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            int roots = 0;
+            for (int index = fromY * size; index < toY * size; index++) {
+                if (parent[index] == index) {
+                    roots++;
+                }
+            }
+            firstLabel[fromY / bandHeight + 1] = roots;
+        });
+        for (int band = 0; band < bands; band++) {
+            firstLabel[band + 1] += firstLabel[band];
+        }
+
+        // labels are stored in place: roots as -(label + 1), so they are never mistaken for indexes or NONE
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            int label = firstLabel[fromY / bandHeight] + 1;
+            for (int index = fromY * size; index < toY * size; index++) {
+                if (parent[index] == index) {
+                    parent[index] = -(label++) - 1;
+                }
+            }
+        });
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            for (int index = fromY * size; index < toY * size; index++) {
+                final int root = parent[index];
+                if (root == NONE) {
+                    parent[index] = 0;
+                }
+                else if (root >= 0) {
+                    parent[index] = -parent[root] - 1;
+                }
+            }
+        });
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            for (int index = fromY * size; index < toY * size; index++) {
+                if (parent[index] < 0) {
+                    parent[index] = -parent[index] - 1;
+                }
+            }
+        });
+
+        return new ConnectedComponents(size, parent, firstLabel[bands]);
+    }
+
+    private void labelBand(int[] parent, TilePredicate predicate, int fromY, int toY) {
+        final int[] tiles = new int[size];
+        for (int y = fromY; y < toY; y++) {
+            final int row = y * size;
+            layer.readRows(y, y + 1, tiles, 0);
+            for (int x = 0; x < size; x++) {
+                final int index = row + x;
+                if (!predicate.test(x, y, tiles[x])) {
+                    parent[index] = NONE;
+                    continue;
+                }
+
+                parent[index] = index;
+                if (x > 0 && parent[index - 1] != NONE) {
+                    union(parent, index, index - 1);
+                }
+                if (y > fromY && parent[index - size] != NONE) {
+                    union(parent, index, index - size);
+                }
+            }
+        }
+    }
+
+    private static int find(int[] parent, int index) {
+        while (parent[index] != index) {
+            index = parent[index];
+        }
+        return index;
+    }
+
+    private static int findCompressing(int[] parent, int index) {
+        while (parent[index] != index) {
+            parent[index] = parent[parent[index]];
+            index = parent[index];
+        }
+        return index;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        final int rootA = findCompressing(parent, a);
+        final int rootB = findCompressing(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        }
+        else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.wurmapi.api.MapData;
+import com.wurmonline.wurmapi.api.map.MapLayer;
+
+/**
+ * Tiles of newly created world: flat dirt island surrounded by a 5 tiles wide strip of water,
+ * with solid rock caves below.
+ */
+public final class DefaultTiles {
+
+    private static final int SHORE_WIDTH = 5;
+
+    private static final int LAND_SURFACE = Tiles.encode((short) 100, Tile.TILE_DIRT.getId(), (byte) 0);
+    private static final int WATER_SURFACE = Tiles.encode((short) -100, Tile.TILE_DIRT.getId(), (byte) 0);
+    private static final int LAND_ROCK = Tiles.encode((short) 95, (byte) Tiles.TILE_TYPE_ROCK, (byte) 0);
+    private static final int WATER_ROCK = Tiles.encode((short) -200, (byte) Tiles.TILE_TYPE_ROCK, (byte) 0);
+    private static final int CAVE = Tiles.encode((short) -100, Tile.TILE_CAVE_WALL.getId(), (byte) 0);
+    private static final int RESOURCES = MapData.DEFAULT_ROCK_RESOURCE_COUNT << 16;
+
+    private DefaultTiles() {
+    }
+
+    /**
+     * @param layer map layer.
+     * @param x x location in game world.
+     * @param y y location in game world.
+     * @param size width and height of new world.
+     * @return raw tile data of new world.
+     */
+    public static int get(MapLayer layer, int x, int y, int size) {
+        final int half = size / 2;
+        final boolean land = Math.min(half - Math.abs(x - half), half - Math.abs(y - half)) > SHORE_WIDTH;
+        switch (layer) {
+            case SURFACE:
+                return land ? LAND_SURFACE : WATER_SURFACE;
+            case ROCK:
+                return land ? LAND_ROCK : WATER_ROCK;
+            case CAVE:
+                return CAVE;
+            case RESOURCES:
+                return RESOURCES;
+            default:
+                return 0;
+        }
+    }
+
+}
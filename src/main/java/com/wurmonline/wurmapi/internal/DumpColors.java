@@ -0,0 +1,154 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.wurmapi.api.map.dump.Colorist;
+import com.wurmonline.wurmapi.api.map.dump.DumpRequest;
+import com.wurmonline.wurmapi.api.map.dump.DumpType;
+
+import java.awt.Color;
+
+/**
+ * Color tables and shading shared by all dump renderers. All colors are packed RGB ints.
+ */
+final class DumpColors {
+
+    /**
+     * Height of semi-3d map dump projection.
+     */
+    static final float MAP_HEIGHT = 1000;
+
+    private DumpColors() {
+    }
+
+    static int rgb(int r, int g, int b) {
+        return (r << 16) | (g << 8) | b;
+    }
+
+    static int rgb(Color color) {
+        return rgb(color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    static int water(int rgb) {
+        final int r = (int) (((rgb >> 16) & 0xFF) * 0.2f + 0.4f * 0.4f * 256f);
+        final int g = (int) (((rgb >> 8) & 0xFF) * 0.2f + 0.5f * 0.4f * 256f);
+        final int b = (int) ((rgb & 0xFF) * 0.2f + 1.0f * 0.4f * 256f);
+        return rgb(r, g, b);
+    }
+
+    /**
+     * @return surface colors indexed by tile type.
+     */
+    static int[] surfaceColors(Colorist colorist) {
+        final int[] colors = new int[256];
+        for (int id = 0; id < colors.length; id++) {
+            final Tile tile = Tiles.getTile((byte) id);
+            colors[id] = rgb(tile != null ? colorist.getSurfaceColorFor(tile) : colorist.getSurfaceUnknownColor());
+        }
+        return colors;
+    }
+
+    /**
+     * @return colors of flat dump (terrain, flower, tree or cave), indexed by tile type and tile data: {@code type << 8 | data}.
+     */
+    static int[] flatColors(DumpRequest request) {
+        final boolean isSurface = request.getType() != DumpType.CAVE;
+        final Colorist colorist = request.getColorist();
+        final boolean flowers = request.getType() == DumpType.FLOWER;
+        final boolean trees = request.getType() == DumpType.TREE;
+        final Tile[] allowedTiles = request.getTiles();
+        final int[] colors = new int[1 << 16];
+        for (int id = 0; id < 256; id++) {
+            final Tile tile = Tiles.getTile((byte) id);
+            for (int data = 0; data < 256; data++) {
+                final Color color;
+                if (tile == null) {
+                    color = isSurface ? colorist.getSurfaceUnknownColor() : colorist.getCaveUnknownColor();
+                }
+                else if (isSurface) {
+                    if (tile.isGrass() && flowers) {
+                        color = colorist.getFlowerColorFor(Tiles.encode((short) 0, (byte) id, (byte) data));
+                    }
+                    else if (tile.isTree() && trees) {
+                        color = colorist.getTreeColorFor(tile.getTreeType((byte) data));
+                    }
+                    else {
+                        color = colorist.getSurfaceColorFor(tile);
+                    }
+                }
+                else if (isVisible(tile, allowedTiles)) {
+                    color = colorist.getCaveColorFor(tile);
+                }
+                else {
+                    color = colorist.getCaveColorFor(Tile.TILE_CAVE_WALL);
+                }
+                colors[(id << 8) | data] = rgb(color);
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * @return copy of colors with water tint applied to every color.
+     */
+    static int[] waterColors(int[] colors) {
+        final int[] waterColors = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            waterColors[i] = water(colors[i]);
+        }
+        return waterColors;
+    }
+
+    private static boolean isVisible(Tile tile, Tile[] allowedTiles) {
+        if (allowedTiles.length == 0) {
+            return true;
+        }
+        for (Tile allowed : allowedTiles) {
+            if (allowed == tile) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return projected height of tile on semi-3d map dump, in full size image pixels.
+     */
+    static int mapLift(short surfaceHeight) {
+        return (int) (surfaceHeight * MAP_HEIGHT / 4 / (Short.MAX_VALUE / 3.3f));
+    }
+
+    /**
+     * Shades pixel of semi-3d map dump.
+     *
+     * @param color surface color of tile.
+     * @param surfaceHeight height of tile.
+     * @param nextHeight height of tile diagonally below and to the right.
+     * @param width width of rendered image.
+     * @return shaded pixel.
+     */
+    static int mapPixel(int color, short surfaceHeight, short nextHeight, int width) {
+        final float node = surfaceHeight / (Short.MAX_VALUE / 3.3f);
+        final float node2 = nextHeight / (Short.MAX_VALUE / 3.3f);
+
+        float h = ((node2 - node) * 1500) / 256.0f * width / 128 + node / 2 + 1.0f;
+        h *= 0.4f;
+
+        float r = clamp(h * ((((color >> 16) & 0xFF) / 255.0f) * 2));
+        float g = clamp(h * ((((color >> 8) & 0xFF) / 255.0f) * 2));
+        float b = clamp(h * (((color & 0xFF) / 255.0f) * 2));
+
+        if (node < 0) {
+            r = r * 0.2f + 0.4f * 0.4f;
+            g = g * 0.2f + 0.5f * 0.4f;
+            b = b * 0.2f + 1.0f * 0.4f;
+        }
+
+        return rgb((int) (r * 255), (int) (g * 255), (int) (b * 255));
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : (value > 1 ? 1 : value);
+    }
+
+}
@@ -0,0 +1,353 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.map.dump.Colorist;
+import com.wurmonline.wurmapi.api.map.dump.DumpRequest;
+import com.wurmonline.wurmapi.api.map.dump.DumpType;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+import com.wurmonline.wurmapi.api.map.overview.OverviewLevel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders any number of map dumps in one pass over map layers.<br><br>
+ *
+ * Map is split into strips of columns rendered in parallel, and every strip is swept row after row from the bottom of the map.
+ * Every tile is read from each layer once and handed to all requested outputs. Bottom-up order is required by semi-3d map dump,
+ * which fills pixel columns upwards; flat dumps don't care about order.
+ */
+public final class DumpRenderer {
+
+    private static final int MAX_FLAT_SIZE = 16384;
+
+    private static final int STRIP_WIDTH = 256;
+
+    private final MeshIO rockMesh;
+    private final TileLayer caveLayer;
+    private final NormalCache surfaceNormals;
+    private final NormalCache rockNormals;
+    private final int[] surface;
+    private final int size;
+    private final int level;
+
+    public DumpRenderer(MeshIO surfaceMesh, MeshIO rockMesh, TileLayer caveLayer, NormalCache surfaceNormals, NormalCache rockNormals) {
+        this.rockMesh = rockMesh;
+        this.caveLayer = caveLayer;
+        this.surfaceNormals = surfaceNormals;
+        this.rockNormals = rockNormals;
+        this.surface = surfaceMesh.getData();
+        this.size = surfaceMesh.getSize();
+        this.level = surfaceMesh.getSizeLevel();
+    }
+
+    /**
+     * @param requests dumps to render.
+     * @param pool pool to render on, or null to render in calling thread.
+     * @return rendered images, in the same order as requests.
+     */
+    public List<BufferedImage> render(List<DumpRequest> requests, ForkJoinPool pool) {
+        // flat dumps are limited in size - on bigger maps, all of them show the same randomly chosen window
+        final int flatWidth = Math.min(MAX_FLAT_SIZE, size);
+        final Random random = new Random();
+        final int xo = size > flatWidth ? random.nextInt(size - flatWidth) : 0;
+        final int yo = size > flatWidth ? random.nextInt(size - flatWidth) : 0;
+
+        final List<BufferedImage> images = new ArrayList<>();
+        final Output[] outputs = new Output[requests.size()];
+        boolean needsRock = false;
+        boolean needsCave = false;
+        boolean wholeMap = false;
+        for (int i = 0; i < outputs.length; i++) {
+            final DumpRequest request = requests.get(i);
+            if (request.getType() == DumpType.MAP) {
+                outputs[i] = new MapOutput(request, Math.min(request.getPowerOfTwo(), level));
+                wholeMap = true;
+            }
+            else if (request.getType() == DumpType.TOPOGRAPHIC) {
+                outputs[i] = new TopographicOutput(request, flatWidth, xo, yo);
+            }
+            else if (request.getType() == DumpType.RELIEF) {
+                final boolean isSurface = request.getLayer() == HeightmapLayer.SURFACE;
+                final int[] normals = (isSurface ? surfaceNormals : rockNormals).getNormals(pool);
+                outputs[i] = new ReliefOutput(request, Math.min(request.getPowerOfTwo(), level), normals, isSurface ? surface : rockMesh.getData());
+                wholeMap = true;
+            }
+            else {
+                outputs[i] = new FlatOutput(request, flatWidth, xo, yo);
+                needsRock |= request.getType() == DumpType.CAVE;
+                needsCave |= request.getType() == DumpType.CAVE;
+            }
+            images.add(outputs[i].image);
+        }
+
+        if (outputs.length == 0) {
+            return images;
+        }
+
+        final int fromX = wholeMap ? 0 : xo;
+        final int toX = wholeMap ? size : xo + flatWidth;
+        final int fromY = wholeMap ? 0 : yo;
+        final int toY = wholeMap ? size : yo + flatWidth;
+        final StripAction action = new StripAction(outputs, needsRock, needsCave, fromX, toX, fromY, toY);
+        if (pool != null) {
+            pool.invoke(action);
+        }
+        else {
+            action.compute();
+        }
+        return images;
+    }
+
+    /**
+     * Renders flat preview of overview level, one pixel per block.
+     *
+     * @param level overview level to render.
+     * @param colorist colorist providing surface colors.
+     * @param showWater set true if blocks with negative average height should be shown as water.
+     * @return preview image.
+     */
+    public static BufferedImage renderOverview(OverviewLevel level, Colorist colorist, boolean showWater) {
+        final int[] colors = DumpColors.surfaceColors(colorist);
+        final int width = level.getSize();
+        final BufferedImage image = new BufferedImage(width, width, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final byte[] types = level.getTypes();
+        final short[] heights = level.getHeights();
+        for (int i = 0; i < pixels.length; i++) {
+            final int color = colors[types[i] & 0xFF];
+            pixels[i] = heights[i] < 0 && showWater ? DumpColors.water(color) : color;
+        }
+        return image;
+    }
+
+    @SuppressWarnings("serial")
+    private final class StripAction extends RecursiveAction {
+
+        private final Output[] outputs;
+        private final boolean needsRock;
+        private final boolean needsCave;
+        private final int fromX;
+        private final int toX;
+        private final int fromY;
+        private final int toY;
+
+        StripAction(Output[] outputs, boolean needsRock, boolean needsCave, int fromX, int toX, int fromY, int toY) {
+            this.outputs = outputs;
+            this.needsRock = needsRock;
+            this.needsCave = needsCave;
+            this.fromX = fromX;
+            this.toX = toX;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected void compute() {
+            if (toX - fromX > STRIP_WIDTH) {
+                final int middle = fromX + ((toX - fromX) / STRIP_WIDTH / 2) * STRIP_WIDTH;
+                invokeAll(new StripAction(outputs, needsRock, needsCave, fromX, middle, fromY, toY),
+                          new StripAction(outputs, needsRock, needsCave, middle, toX, fromY, toY));
+                return;
+            }
+
+            final int[] rock = rockMesh.getData();
+            for (int y = toY - 1; y >= fromY; y--) {
+                final int row = y << level;
+                for (int x = fromX; x < toX; x++) {
+                    final int index = row | x;
+                    final int surfaceTile = surface[index];
+                    final int rockTile = needsRock ? rock[index] : 0;
+                    final int caveTile = needsCave ? caveLayer.getTile(x, y) : 0;
+                    for (Output output : outputs) {
+                        output.tile(x, y, surfaceTile, rockTile, caveTile);
+                    }
+                }
+            }
+        }
+    }
+
+    private abstract static class Output {
+
+        final BufferedImage image;
+        final int[] pixels;
+        final int width;
+
+        Output(int width) {
+            this.width = width;
+            this.image = new BufferedImage(width, width, BufferedImage.TYPE_INT_RGB);
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        abstract void tile(int x, int y, int surfaceTile, int rockTile, int caveTile);
+    }
+
+    /**
+     * Flat terrain, flower, tree and cave dumps. Colors are looked up by tile type (and tile data for flowers and trees).
+     */
+    private static final class FlatOutput extends Output {
+
+        private final int xo;
+        private final int yo;
+        private final boolean isSurface;
+        private final boolean showWater;
+        private final int[] colors;
+        private final int[] waterColors;
+
+        FlatOutput(DumpRequest request, int width, int xo, int yo) {
+            super(width);
+            this.xo = xo;
+            this.yo = yo;
+            this.isSurface = request.getType() != DumpType.CAVE;
+            this.showWater = request.isShowWater();
+
+            this.colors = DumpColors.flatColors(request);
+            this.waterColors = DumpColors.waterColors(colors);
+        }
+
+        @Override
+        void tile(int x, int y, int surfaceTile, int rockTile, int caveTile) {
+            final int px = x - xo;
+            final int py = y - yo;
+            if (px < 0 || py < 0 || px >= width || py >= width) {
+                return;
+            }
+
+            final short height = Tiles.decodeHeight(isSurface ? surfaceTile : rockTile);
+            final int key = ((isSurface ? surfaceTile : caveTile) >>> 16);
+            pixels[px + py * width] = height < 0 && showWater ? waterColors[key] : colors[key];
+        }
+    }
+
+    /**
+     * Flat surface dump with black contour lines.
+     */
+    private final class TopographicOutput extends Output {
+
+        private final int xo;
+        private final int yo;
+        private final boolean showWater;
+        private final int interval;
+        private final int[] colors;
+
+        TopographicOutput(DumpRequest request, int width, int xo, int yo) {
+            super(width);
+            this.xo = xo;
+            this.yo = yo;
+            this.showWater = request.isShowWater();
+            this.interval = Math.abs(request.getInterval());
+            this.colors = DumpColors.surfaceColors(request.getColorist());
+        }
+
+        @Override
+        void tile(int x, int y, int surfaceTile, int rockTile, int caveTile) {
+            final int px = x - xo;
+            final int py = y - yo;
+            if (px < 0 || py < 0 || px >= width || py >= width) {
+                return;
+            }
+
+            final short height = Tiles.decodeHeight(surfaceTile);
+            final boolean isContour = isContour(height, px == 0 ? height : heightAt(x - 1, y))
+                    || isContour(height, py == 0 ? height : heightAt(x, y - 1))
+                    || isContour(height, px == width - 1 ? height : heightAt(x + 1, y))
+                    || isContour(height, py == width - 1 ? height : heightAt(x, y + 1));
+
+            final int color;
+            if (isContour) {
+                color = 0;
+            }
+            else if (height < 0 && showWater) {
+                color = DumpColors.water(colors[Tiles.decodeType(surfaceTile) & 0xFF]);
+            }
+            else {
+                color = colors[Tiles.decodeType(surfaceTile) & 0xFF];
+            }
+            pixels[px + py * width] = color;
+        }
+
+        private short heightAt(int x, int y) {
+            return Tiles.decodeHeight(surface[x | (y << level)]);
+        }
+
+        /**
+         * @return true if there is multiple of interval between lower tile and its higher neighbour.
+         */
+        private boolean isContour(short h0, short h1) {
+            return h0 < h1 && Math.floorDiv(h1, interval) * interval >= h0;
+        }
+    }
+
+    /**
+     * Shaded relief dump. Downscaled dump shows average color of every block of tiles, instead of single tile per block.
+     */
+    private final class ReliefOutput extends Output {
+
+        private final int downscalePower;
+        private final ReliefShader shader;
+        private final int[] normals;
+        private final int[] tiles;
+
+        ReliefOutput(DumpRequest request, int scale, int[] normals, int[] tiles) {
+            super(size >> (level - scale));
+            this.downscalePower = 1 << (level - scale);
+            this.shader = new ReliefShader(request);
+            this.normals = normals;
+            this.tiles = tiles;
+        }
+
+        @Override
+        void tile(int x, int y, int surfaceTile, int rockTile, int caveTile) {
+            if ((x & (downscalePower - 1)) != 0 || (y & (downscalePower - 1)) != 0) {
+                return;
+            }
+            pixels[x / downscalePower + (y / downscalePower) * width] = shader.shadeBlock(normals, tiles, level, x, y, 1, downscalePower);
+        }
+    }
+
+    /**
+     * Classical semi-3d map dump. Every tile fills column of pixels upwards, up to its projected height.
+     */
+    private final class MapOutput extends Output {
+
+        private final int downscalePower;
+        private final int[] colors;
+        private final int[] alt;
+
+        MapOutput(DumpRequest request, int scale) {
+            super(size >> (level - scale));
+            this.downscalePower = 1 << (level - scale);
+            this.colors = DumpColors.surfaceColors(request.getColorist());
+            this.alt = new int[width];
+            Arrays.fill(alt, width - 1);
+        }
+
+        @Override
+        void tile(int x, int y, int surfaceTile, int rockTile, int caveTile) {
+            if ((x & (downscalePower - 1)) != 0 || ((size - 1 - y) & (downscalePower - 1)) != 0) {
+                return;
+            }
+
+            final short surfaceHeight = Tiles.decodeHeight(surfaceTile);
+            final boolean lastNode = x + downscalePower >= size || y + downscalePower >= size;
+            final short nextHeight = lastNode ? surfaceHeight : Tiles.decodeHeight(surface[(x + downscalePower) | ((y + downscalePower) << level)]);
+            final int pixel = DumpColors.mapPixel(colors[Tiles.decodeType(surfaceTile) & 0xFF], surfaceHeight, nextHeight, width);
+            final int column = x / downscalePower;
+            final int altTarget = y / downscalePower - DumpColors.mapLift(surfaceHeight) / downscalePower;
+            int current = alt[column];
+            while (current > altTarget && current >= 0) {
+                pixels[column + current * width] = pixel;
+                current--;
+            }
+            alt[column] = current;
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.wurmapi.api.map.MapLayer;
+import com.wurmonline.wurmapi.api.map.edits.EditOp;
+import com.wurmonline.wurmapi.api.map.edits.TileEditLog;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies tile edit logs grouped by layer and row instead of in arrival order.<br><br>
+ *
+ * Edits are counting-sorted into one bucket per layer row, keeping arrival order inside every bucket, so applying them
+ * gives the same result as applying them one by one. Buckets are applied in parallel bands of rows, touching every row once,
+ * and edits overwritten by later {@link EditOp#SET} of the same tile are skipped. Only rows with edits are marked as changed.
+ */
+public final class EditApplier {
+
+    /**
+     * Receives changed rows after all edits are applied, from calling thread.
+     */
+    public interface ChangeListener {
+
+        /**
+         * @param layer changed layer.
+         * @param y changed row.
+         * @param fromX first changed tile in row (inclusive).
+         * @param toX last changed tile in row (exclusive).
+         */
+        void rowChanged(MapLayer layer, int y, int fromX, int toX);
+    }
+
+    private static final MapLayer[] LAYERS = MapLayer.values();
+
+    private static final byte SET = (byte) EditOp.SET.ordinal();
+    private static final byte SET_HEIGHT = (byte) EditOp.SET_HEIGHT.ordinal();
+    private static final byte SET_TYPE = (byte) EditOp.SET_TYPE.ordinal();
+    private static final byte SET_BITS = (byte) EditOp.SET_BITS.ordinal();
+
+    private final TileLayer[] layers;
+    private final int size;
+    private final int sizeLevel;
+
+    /**
+     * @param layers layers indexed by {@link MapLayer#ordinal()}.
+     */
+    public EditApplier(TileLayer[] layers) {
+        this.layers = layers;
+        this.size = layers[0].getSize();
+        this.sizeLevel = layers[0].getSizeLevel();
+    }
+
+    /**
+     * @param log edits to apply.
+     * @param pool pool to apply edits on, or null to apply them in calling thread.
+     * @param listener listener notified about every changed row, can be null.
+     * @return number of applied edits, not counting skipped ones.
+     */
+    public int apply(TileEditLog log, ForkJoinPool pool, ChangeListener listener) {
+        final int count = log.size();
+        final int[] buckets = new int[count];
+        final int[] bucketStarts = new int[LAYERS.length * size + 1];
+        for (int i = 0; i < count; i++) {
+            final int x = log.getX(i);
+            final int y = log.getY(i);
+            if (x >= size || y >= size) {
+                throw new IllegalArgumentException("Edit " + i + " is outside of map: (" + x + ", " + y + ")");
+            }
+            buckets[i] = log.getLayer(i).ordinal() * size + y;
+            bucketStarts[buckets[i] + 1]++;
+        }
+        for (int bucket = 0; bucket < LAYERS.length * size; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+
+        // stable counting sort - edits of every bucket stay in arrival order, and are copied next to each other
+        final Edits edits = new Edits(count);
+        final int[] next = Arrays.copyOf(bucketStarts, bucketStarts.length - 1);
+        for (int i = 0; i < count; i++) {
+            final int k = next[buckets[i]]++;
+            edits.xs[k] = (char) log.getX(i);
+            edits.ops[k] = (byte) log.getOp(i).ordinal();
+            edits.values[k] = log.getValue(i);
+        }
+
+        final int[] fromXs = new int[LAYERS.length * size];
+        final int[] toXs = new int[LAYERS.length * size];
+        final AtomicInteger applied = new AtomicInteger();
+        RowBands.forEach(size, RowBands.DEFAULT_BAND_HEIGHT, pool, (fromY, toY) -> {
+            final int[] lastSet = new int[size];
+            Arrays.fill(lastSet, -1);
+            int bandApplied = 0;
+            for (int layer = 0; layer < LAYERS.length; layer++) {
+                for (int y = fromY; y < toY; y++) {
+                    final int bucket = layer * size + y;
+                    final int start = bucketStarts[bucket];
+                    final int end = bucketStarts[bucket + 1];
+                    if (start == end) {
+                        continue;
+                    }
+
+                    for (int k = start; k < end; k++) {
+                        if (edits.ops[k] == SET) {
+                            lastSet[edits.xs[k]] = k;
+                        }
+                    }
+                    bandApplied += applyRow(edits, start, end, layers[layer], y, lastSet);
+                    int fromX = size;
+                    int toX = 0;
+                    for (int k = start; k < end; k++) {
+                        final int x = edits.xs[k];
+                        lastSet[x] = -1;
+                        fromX = Math.min(fromX, x);
+                        toX = Math.max(toX, x + 1);
+                    }
+                    fromXs[bucket] = fromX;
+                    toXs[bucket] = toX;
+                }
+            }
+            applied.addAndGet(bandApplied);
+        });
+
+        if (listener != null) {
+            for (int bucket = 0; bucket < LAYERS.length * size; bucket++) {
+                if (bucketStarts[bucket] != bucketStarts[bucket + 1]) {
+                    listener.rowChanged(LAYERS[bucket / size], bucket % size, fromXs[bucket], toXs[bucket]);
+                }
+            }
+        }
+        return applied.get();
+    }
+
+    /**
+     * @return number of applied edits.
+     */
+    private int applyRow(Edits edits, int start, int end, TileLayer layer, int y, int[] lastSet) {
+        int applied = 0;
+        if (layer instanceof MeshLayer) {
+            final MeshIO mesh = ((MeshLayer) layer).getMesh();
+            final int[] data = mesh.getData();
+            final int row = y << sizeLevel;
+            for (int k = start; k < end; k++) {
+                final int x = edits.xs[k];
+                if (k < lastSet[x]) {
+                    continue;
+                }
+                data[row | x] = apply(edits.ops[k], data[row | x], edits.values[k]);
+                applied++;
+            }
+            Meshes.markRowsDirty(mesh, y, y + 1);
+        }
+        else {
+            for (int k = start; k < end; k++) {
+                final int x = edits.xs[k];
+                if (k < lastSet[x]) {
+                    continue;
+                }
+                layer.setTile(x, y, apply(edits.ops[k], layer.getTile(x, y), edits.values[k]));
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private static int apply(byte op, int tile, int value) {
+        if (op == SET) {
+            return value;
+        }
+        else if (op == SET_HEIGHT) {
+            return (tile & 0xFFFF0000) | (value & 0xFFFF);
+        }
+        else if (op == SET_TYPE) {
+            return (value << 16) | (tile & 0xFFFF);
+        }
+        else if (op == SET_BITS) {
+            return tile | value;
+        }
+        return tile & ~value;
+    }
+
+    /**
+     * Sorted edits, without layer and row - they are known from bucket.
+     */
+    private static final class Edits {
+
+        final char[] xs;
+        final byte[] ops;
+        final int[] values;
+
+        Edits(int count) {
+            xs = new char[count];
+            ops = new byte[count];
+            values = new int[count];
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.wurmapi.api.map.components.TilePredicate;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulk operations on single bits of flags layer.<br><br>
+ *
+ * Tile sets are {@link BitSet BitSets} indexed by x + y * size, so every long word covers 64 tiles of one row.
+ * All operations work word by word in bands of rows - words without any tile set are skipped at once.
+ */
+public final class FlagBits {
+
+    private final MeshIO flagsMesh;
+    private final int size;
+    private final int wordsPerRow;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param flagsMesh flags layer.
+     * @param pool pool to run operations on, or null to run them in calling thread.
+     */
+    public FlagBits(MeshIO flagsMesh, ForkJoinPool pool) {
+        this.flagsMesh = flagsMesh;
+        this.size = flagsMesh.getSize();
+        this.wordsPerRow = size / Long.SIZE;
+        this.pool = pool;
+    }
+
+    /**
+     * @return all tiles with flag set.
+     */
+    public BitSet getTiles(int flag) {
+        final int[] data = flagsMesh.getData();
+        final long[] words = new long[wordsPerRow * size];
+        RowBands.forEach(size, RowBands.DEFAULT_BAND_HEIGHT, pool, (fromY, toY) -> {
+            for (int word = fromY * wordsPerRow; word < toY * wordsPerRow; word++) {
+                final int first = word * Long.SIZE;
+                long bits = 0;
+                for (int bit = 0; bit < Long.SIZE; bit++) {
+                    bits |= (long) ((data[first + bit] >>> flag) & 1) << bit;
+                }
+                words[word] = bits;
+            }
+        });
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * @return tiles of layer inside rectangle which match predicate.
+     */
+    public BitSet selectTiles(TileLayer layer, TilePredicate predicate, int fromX, int fromY, int toX, int toY) {
+        final long[] words = new long[wordsPerRow * size];
+        RowBands.forEach(toY - fromY, RowBands.DEFAULT_BAND_HEIGHT, pool, (from, to) -> {
+            final int[] tiles = new int[size];
+            for (int y = fromY + from; y < fromY + to; y++) {
+                layer.readRows(y, y + 1, tiles, 0);
+                final int row = y * size;
+                for (int x = fromX; x < toX; x++) {
+                    if (predicate.test(x, y, tiles[x])) {
+                        words[(row + x) >>> 6] |= 1L << x;
+                    }
+                }
+            }
+        });
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Sets or clears flag on all given tiles. Other tiles are not changed.
+     */
+    public void setFlag(int flag, BitSet tiles, boolean value) {
+        final int[] data = flagsMesh.getData();
+        final long[] words = tiles.toLongArray();
+        final int mask = 1 << flag;
+        RowBands.forEach(size, RowBands.DEFAULT_BAND_HEIGHT, pool, (fromY, toY) -> {
+            final int lastWord = Math.min(words.length, toY * wordsPerRow);
+            int firstChangedRow = -1;
+            int lastChangedRow = -1;
+            for (int word = fromY * wordsPerRow; word < lastWord; word++) {
+                long bits = words[word];
+                if (bits == 0) {
+                    continue;
+                }
+
+                final int first = word * Long.SIZE;
+                while (bits != 0) {
+                    final int index = first + Long.numberOfTrailingZeros(bits);
+                    data[index] = value ? data[index] | mask : data[index] & ~mask;
+                    bits &= bits - 1;
+                }
+                if (firstChangedRow < 0) {
+                    firstChangedRow = word / wordsPerRow;
+                }
+                lastChangedRow = word / wordsPerRow;
+            }
+            if (firstChangedRow >= 0) {
+                Meshes.markRowsDirty(flagsMesh, firstChangedRow, lastChangedRow + 1);
+            }
+        });
+    }
+
+    /**
+     * Sets or clears flag on all tiles inside rectangle.
+     */
+    public void setFlag(int flag, int fromX, int fromY, int toX, int toY, boolean value) {
+        final int[] data = flagsMesh.getData();
+        final int mask = 1 << flag;
+        RowBands.forEach(toY - fromY, RowBands.DEFAULT_BAND_HEIGHT, pool, (from, to) -> {
+            for (int y = fromY + from; y < fromY + to; y++) {
+                final int row = y * size;
+                if (value) {
+                    for (int index = row + fromX; index < row + toX; index++) {
+                        data[index] |= mask;
+                    }
+                }
+                else {
+                    for (int index = row + fromX; index < row + toX; index++) {
+                        data[index] &= ~mask;
+                    }
+                }
+            }
+            Meshes.markRowsDirty(flagsMesh, fromY + from, fromY + to);
+        });
+    }
+
+    /**
+     * @return number of tiles inside rectangle with flag set.
+     */
+    public long countFlag(int flag, int fromX, int fromY, int toX, int toY) {
+        final int[] data = flagsMesh.getData();
+        final LongAdder total = new LongAdder();
+        RowBands.forEach(toY - fromY, RowBands.DEFAULT_BAND_HEIGHT, pool, (from, to) -> {
+            long count = 0;
+            for (int y = fromY + from; y < fromY + to; y++) {
+                final int row = y * size;
+                for (int index = row + fromX; index < row + toX; index++) {
+                    count += (data[index] >>> flag) & 1;
+                }
+            }
+            total.add(count);
+        });
+        return total.sum();
+    }
+
+}
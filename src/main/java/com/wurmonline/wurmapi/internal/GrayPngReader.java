@@ -0,0 +1,260 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streaming reader of non-interlaced grayscale PNG files (8 or 16 bits per pixel).<br>
+ * Only two image rows are kept in memory at any time, so even very big heightmaps can be read with bounded memory.
+ */
+public final class GrayPngReader implements Closeable {
+
+    static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    static final int CHUNK_IHDR = 0x49484452;
+    static final int CHUNK_IDAT = 0x49444154;
+    static final int CHUNK_IEND = 0x49454E44;
+
+    private final DataInputStream in;
+    private final InputStream pixels;
+    private final int width;
+    private final int height;
+    private final int bytesPerSample;
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private int rowsRead;
+
+    public GrayPngReader(File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            final byte[] signature = new byte[SIGNATURE.length];
+            in.readFully(signature);
+            for (int i = 0; i < signature.length; i++) {
+                if (signature[i] != SIGNATURE[i]) {
+                    throw new IOException("Not a PNG file: " + file);
+                }
+            }
+
+            final int length = in.readInt();
+            if (in.readInt() != CHUNK_IHDR || length != 13) {
+                throw new IOException("PNG file does not start with IHDR chunk: " + file);
+            }
+            this.width = in.readInt();
+            this.height = in.readInt();
+            final int bitDepth = in.readUnsignedByte();
+            final int colorType = in.readUnsignedByte();
+            in.readUnsignedByte(); // compression method, only deflate exists
+            in.readUnsignedByte(); // filter method, only adaptive filtering exists
+            final int interlace = in.readUnsignedByte();
+            in.readInt(); // CRC
+
+            if (colorType != 0 || (bitDepth != 8 && bitDepth != 16)) {
+                throw new IOException("Only 8 and 16-bit grayscale PNG files are supported, got color type " + colorType + " with bit depth " + bitDepth);
+            }
+            else if (interlace != 0) {
+                throw new IOException("Interlaced PNG files are not supported");
+            }
+
+            this.bytesPerSample = bitDepth / 8;
+            this.previousRow = new byte[width * bytesPerSample];
+            this.currentRow = new byte[width * bytesPerSample];
+            this.pixels = new InflaterInputStream(new IdatInputStream(in), new Inflater(), 1 << 16);
+        } catch (IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads next rows of image as unsigned 16-bit samples (8-bit samples are scaled to 16-bit range).
+     *
+     * @param target array to store samples in, row after row.
+     * @param offset first index of target array to write.
+     * @param rows number of rows to read.
+     */
+    public void readRows(int[] target, int offset, int rows) throws IOException {
+        if (rowsRead + rows > height) {
+            throw new IOException("Attempt to read past the last row of PNG file");
+        }
+
+        for (int row = 0; row < rows; row++) {
+            readRow();
+            final int base = offset + row * width;
+            if (bytesPerSample == 2) {
+                for (int x = 0; x < width; x++) {
+                    target[base + x] = ((currentRow[x * 2] & 0xFF) << 8) | (currentRow[x * 2 + 1] & 0xFF);
+                }
+            }
+            else {
+                for (int x = 0; x < width; x++) {
+                    target[base + x] = (currentRow[x] & 0xFF) * 257;
+                }
+            }
+        }
+    }
+
+    private void readRow() throws IOException {
+        final byte[] swap = previousRow;
+        previousRow = currentRow;
+        currentRow = swap;
+
+        final int filter = pixels.read();
+        if (filter < 0) {
+            throw new EOFException("PNG image data ended unexpectedly at row " + rowsRead);
+        }
+        readFully(currentRow);
+        unfilter(filter, currentRow, rowsRead == 0 ? null : previousRow, bytesPerSample);
+        rowsRead++;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            final int count = pixels.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                throw new EOFException("PNG image data ended unexpectedly at row " + rowsRead);
+            }
+            read += count;
+        }
+    }
+
+    private static void unfilter(int filter, byte[] row, byte[] previous, int bpp) throws IOException {
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = bpp; i < row.length; i++) {
+                    row[i] += row[i - bpp];
+                }
+                break;
+            case 2:
+                if (previous != null) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] += previous[i];
+                    }
+                }
+                break;
+            case 3:
+                for (int i = 0; i < row.length; i++) {
+                    final int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    final int up = previous != null ? previous[i] & 0xFF : 0;
+                    row[i] += (left + up) >>> 1;
+                }
+                break;
+            case 4:
+                for (int i = 0; i < row.length; i++) {
+                    final int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    final int up = previous != null ? previous[i] & 0xFF : 0;
+                    final int upLeft = i >= bpp && previous != null ? previous[i - bpp] & 0xFF : 0;
+                    row[i] += paeth(left, up, upLeft);
+                }
+                break;
+            default:
+                throw new IOException("Unknown PNG row filter: " + filter);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        else if (pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Presents content of all consecutive IDAT chunks as one continuous stream, skipping any other chunks.
+     */
+    private static final class IdatInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private int remaining;
+        private boolean finished;
+
+        IdatInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (remaining == 0 && !finished) {
+                final int length = in.readInt();
+                final int type = in.readInt();
+                if (type == CHUNK_IDAT) {
+                    remaining = length;
+                }
+                else if (type == CHUNK_IEND) {
+                    finished = true;
+                }
+                else {
+                    skip(length);
+                }
+                if (remaining == 0) {
+                    in.readInt(); // CRC of empty or skipped chunk
+                }
+            }
+            return !finished;
+        }
+
+        private void skip(int length) throws IOException {
+            int left = length;
+            while (left > 0) {
+                final int skipped = in.skipBytes(left);
+                if (skipped <= 0) {
+                    throw new EOFException("PNG chunk ended unexpectedly");
+                }
+                left -= skipped;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            final int count = in.read(buffer, offset, Math.min(length, remaining));
+            if (count < 0) {
+                throw new EOFException("PNG chunk ended unexpectedly");
+            }
+            remaining -= count;
+            if (remaining == 0) {
+                in.readInt(); // CRC
+            }
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming writer of non-interlaced 16-bit grayscale PNG files.<br>
+ * Rows are written as soon as they are supplied, so memory use does not depend on image size.
+ */
+public final class GrayPngWriter implements Closeable {
+
+    private static final int IDAT_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final ChunkOutputStream idat;
+    private final DeflaterOutputStream pixels;
+    private final Deflater deflater;
+    private final int width;
+    private final int height;
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private final byte[] filteredRow;
+    private int rowsWritten;
+
+    public GrayPngWriter(File file, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IDAT_SIZE));
+        this.previousRow = new byte[width * 2];
+        this.currentRow = new byte[width * 2];
+        this.filteredRow = new byte[width * 2 + 1];
+
+        out.write(GrayPngReader.SIGNATURE);
+        final byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 16; // bit depth
+        header[9] = 0; // grayscale
+        writeChunk(out, GrayPngReader.CHUNK_IHDR, header, header.length);
+
+        this.idat = new ChunkOutputStream(out);
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.pixels = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+    }
+
+    /**
+     * Writes next rows of image.
+     *
+     * @param samples unsigned 16-bit samples, row after row.
+     * @param offset index of first sample to write.
+     * @param rows number of rows to write.
+     */
+    public void writeRows(int[] samples, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Attempt to write more rows than PNG image height");
+        }
+
+        for (int row = 0; row < rows; row++) {
+            final int base = offset + row * width;
+            for (int x = 0; x < width; x++) {
+                final int sample = samples[base + x];
+                currentRow[x * 2] = (byte) (sample >>> 8);
+                currentRow[x * 2 + 1] = (byte) sample;
+            }
+
+            // "up" filter works best for smooth terrain and is cheap to compute
+            filteredRow[0] = 2;
+            for (int i = 0; i < currentRow.length; i++) {
+                filteredRow[i + 1] = (byte) (currentRow[i] - previousRow[i]);
+            }
+            pixels.write(filteredRow);
+
+            final byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+            rowsWritten++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("PNG image is incomplete: " + rowsWritten + " of " + height + " rows were written");
+            }
+            pixels.finish();
+            idat.flushChunk();
+            writeChunk(out, GrayPngReader.CHUNK_IEND, new byte[0], 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static void writeChunk(DataOutputStream out, int type, byte[] data, int length) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] typeBytes = new byte[4];
+        writeInt(typeBytes, 0, type);
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Collects compressed image data and emits it as a sequence of IDAT chunks.
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int length;
+
+        ChunkOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer[length++] = (byte) b;
+            if (length == buffer.length) {
+                flushChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int count) throws IOException {
+            while (count > 0) {
+                final int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(data, offset, buffer, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+                if (length == buffer.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (length > 0) {
+                writeChunk(out, GrayPngReader.CHUNK_IDAT, buffer, length);
+                length = 0;
+            }
+        }
+    }
+
+}
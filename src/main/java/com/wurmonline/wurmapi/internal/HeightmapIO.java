@@ -0,0 +1,194 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapFormat;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Streams surface and rock heights between meshes and heightmap files, one band of rows at a time.
+ */
+public final class HeightmapIO {
+
+    private static final int SAMPLE_OFFSET = 32768;
+
+    private static final int APPLY_BAND_HEIGHT = 8;
+
+    private final MeshIO surfaceMesh;
+    private final MeshIO rockMesh;
+    private final int size;
+
+    public HeightmapIO(MeshIO surfaceMesh, MeshIO rockMesh) {
+        this.surfaceMesh = surfaceMesh;
+        this.rockMesh = rockMesh;
+        this.size = surfaceMesh.getSize();
+    }
+
+    public void importHeightmap(File file, HeightmapFormat format, HeightmapLayer layer, boolean parallel) throws IOException {
+        if (format == HeightmapFormat.PNG) {
+            importPng(file, layer, parallel);
+        }
+        else {
+            importRaw(file, layer, parallel);
+        }
+    }
+
+    public void exportHeightmap(File file, HeightmapFormat format, HeightmapLayer layer, boolean parallel) throws IOException {
+        if (format == HeightmapFormat.PNG) {
+            exportPng(file, layer, parallel);
+        }
+        else {
+            exportRaw(file, layer, parallel);
+        }
+    }
+
+    private void importPng(File file, HeightmapLayer layer, boolean parallel) throws IOException {
+        try (GrayPngReader reader = new GrayPngReader(file)) {
+            checkSize(reader.getWidth(), reader.getHeight());
+
+            final int bandHeight = RowBands.DEFAULT_BAND_HEIGHT;
+            int[] decoded = new int[bandHeight * size];
+            int[] applied = new int[bandHeight * size];
+            CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+
+            // inflating is strictly sequential, but applying decoded band can overlap with decoding the next one
+            for (int fromY = 0; fromY < size; fromY += bandHeight) {
+                final int toY = Math.min(size, fromY + bandHeight);
+                reader.readRows(decoded, 0, toY - fromY);
+                pending.join();
+
+                final int[] samples = decoded;
+                decoded = applied;
+                applied = samples;
+                final int bandFrom = fromY;
+                if (parallel) {
+                    pending = CompletableFuture.runAsync(() -> applyRows(samples, layer, bandFrom, toY, true));
+                }
+                else {
+                    applyRows(samples, layer, bandFrom, toY, false);
+                }
+            }
+            pending.join();
+        }
+    }
+
+    private void importRaw(File file, HeightmapLayer layer, boolean parallel) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != (long) size * size * 2) {
+                throw new IOException("Raw heightmap size " + channel.size() + " bytes does not match map size " + size + "x" + size);
+            }
+
+            RowBands.forEachIO(size, RowBands.DEFAULT_BAND_HEIGHT, parallel, (fromY, toY) -> {
+                final ByteBuffer buffer = ByteBuffer.allocate((toY - fromY) * size * 2).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, buffer, (long) fromY * size * 2);
+                ((Buffer) buffer).flip();
+
+                final ShortBuffer shorts = buffer.asShortBuffer();
+                final int[] samples = new int[(toY - fromY) * size];
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = shorts.get(i) & 0xFFFF;
+                }
+                applyRows(samples, layer, fromY, toY, false);
+            });
+        }
+    }
+
+    private void exportPng(File file, HeightmapLayer layer, boolean parallel) throws IOException {
+        try (GrayPngWriter writer = new GrayPngWriter(file, size, size)) {
+            final int bandHeight = RowBands.DEFAULT_BAND_HEIGHT;
+            final int[] samples = new int[bandHeight * size];
+            for (int fromY = 0; fromY < size; fromY += bandHeight) {
+                final int toY = Math.min(size, fromY + bandHeight);
+                final int bandFrom = fromY;
+                RowBands.forEach(toY - fromY, APPLY_BAND_HEIGHT, parallel,
+                        (from, to) -> collectRows(samples, layer, bandFrom + from, bandFrom + to, bandFrom));
+                writer.writeRows(samples, 0, toY - fromY);
+            }
+        }
+    }
+
+    private void exportRaw(File file, HeightmapLayer layer, boolean parallel) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            RowBands.forEachIO(size, RowBands.DEFAULT_BAND_HEIGHT, parallel, (fromY, toY) -> {
+                final int[] samples = new int[(toY - fromY) * size];
+                collectRows(samples, layer, fromY, toY, fromY);
+
+                final ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+                for (int sample : samples) {
+                    buffer.putShort((short) sample);
+                }
+                ((Buffer) buffer).flip();
+
+                long position = (long) fromY * size * 2;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes band of samples to layer, see {@link Meshes#setLayerHeight(int[], int[], int, HeightmapLayer, short)}.
+     */
+    private void applyRows(int[] samples, HeightmapLayer layer, int fromY, int toY, boolean parallel) {
+        final int[] surface = surfaceMesh.getData();
+        final int[] rock = rockMesh.getData();
+        final int level = surfaceMesh.getSizeLevel();
+
+        RowBands.forEach(toY - fromY, APPLY_BAND_HEIGHT, parallel, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                final int sampleBase = row * size;
+                final int meshBase = (fromY + row) << level;
+                for (int x = 0; x < size; x++) {
+                    final int index = meshBase + x;
+                    Meshes.setLayerHeight(surface, rock, index, layer, (short) (samples[sampleBase + x] - SAMPLE_OFFSET));
+                }
+            }
+        });
+
+        Meshes.markRowsDirty(surfaceMesh, fromY, toY);
+        if (layer == HeightmapLayer.ROCK) {
+            Meshes.markRowsDirty(rockMesh, fromY, toY);
+        }
+    }
+
+    private void collectRows(int[] samples, HeightmapLayer layer, int fromY, int toY, int sampleFirstRow) {
+        final int[] data = layer == HeightmapLayer.SURFACE ? surfaceMesh.getData() : rockMesh.getData();
+        final int level = surfaceMesh.getSizeLevel();
+        for (int y = fromY; y < toY; y++) {
+            final int sampleBase = (y - sampleFirstRow) * size;
+            final int meshBase = y << level;
+            for (int x = 0; x < size; x++) {
+                samples[sampleBase + x] = Tiles.decodeHeight(data[meshBase + x]) + SAMPLE_OFFSET;
+            }
+        }
+    }
+
+    private void checkSize(int width, int height) throws IOException {
+        if (width != size || height != size) {
+            throw new IOException("Heightmap size " + width + "x" + height + " does not match map size " + size + "x" + size);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Raw heightmap ended unexpectedly");
+            }
+            position += read;
+        }
+    }
+
+}
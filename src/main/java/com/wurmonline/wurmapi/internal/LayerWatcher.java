@@ -0,0 +1,132 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reloads rows of layer changed in its map file by other process (usually running server).<br><br>
+ *
+ * Watcher remembers modification time of map file and checksum of every row read from it.
+ * Map file is only read if its modification time changed, and only rows with different checksum are compared with
+ * layer contents and reloaded. Reloaded rows are not marked as changed, so they are never written back to file.
+ */
+public final class LayerWatcher {
+
+    /**
+     * Receives reloaded rows.
+     */
+    public interface ReloadListener {
+
+        /**
+         * @param y reloaded row.
+         * @param fromX first changed tile in row (inclusive).
+         * @param toX last changed tile in row (exclusive).
+         */
+        void rowReloaded(int y, int fromX, int toX);
+    }
+
+    private final File file;
+    private final TileLayer layer;
+    private final int size;
+    private long lastModified;
+    private long lastLength;
+    private int[] checksums;
+
+    public LayerWatcher(File file, TileLayer layer) {
+        this.file = file;
+        this.layer = layer;
+        this.size = layer.getSize();
+    }
+
+    /**
+     * Reloads rows changed since the last refresh. On first refresh, rows in file are compared with current layer contents,
+     * so any unsaved changes in rows different in file are lost.
+     *
+     * @param listener listener notified about every reloaded row, from multiple threads. Can be null.
+     * @return changed part of every row: first changed column (inclusive) of row y at index {@code 2 * y} and last changed column (exclusive)
+     * at index {@code 2 * y + 1}. Rows which were not reloaded have empty span.
+     */
+    public synchronized int[] refresh(ReloadListener listener) throws IOException {
+        final int[] spans = new int[2 * size];
+        final long modified = file.lastModified();
+        final long length = file.length();
+        if (checksums != null && modified == lastModified && length == lastLength) {
+            return spans;
+        }
+
+        final boolean first = checksums == null;
+        final int[] newChecksums = first ? new int[size] : checksums;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final int sizeLevel = MapFiles.readHeader(channel, file.getPath());
+            if (sizeLevel != layer.getSizeLevel()) {
+                throw new IOException("Size of " + file.getPath() + " changed from 2^" + layer.getSizeLevel() + " to 2^" + sizeLevel);
+            }
+
+            RowBands.forEachIO(size, RowBands.DEFAULT_BAND_HEIGHT, true, (fromY, toY) -> {
+                final int rowBytes = size * 4;
+                // mapped file is read straight from page cache, without copying whole band to heap
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, MapFiles.rowPosition(sizeLevel, fromY), (long) (toY - fromY) * rowBytes);
+
+                final CRC32 crc = new CRC32();
+                final int[] fileRow = new int[size];
+                final int[] layerRow = new int[size];
+                for (int y = fromY; y < toY; y++) {
+                    final int rowStart = (y - fromY) * rowBytes;
+                    final ByteBuffer row = buffer.duplicate();
+                    ((Buffer) row).limit(rowStart + rowBytes).position(rowStart);
+                    crc.reset();
+                    crc.update(row.duplicate());
+                    final int checksum = (int) crc.getValue();
+                    final int previous = first ? layerChecksum(y, layerRow, crc) : newChecksums[y];
+                    newChecksums[y] = checksum;
+                    if (checksum == previous) {
+                        continue;
+                    }
+
+                    row.asIntBuffer().get(fileRow);
+                    layer.readRows(y, y + 1, layerRow, 0);
+                    int fromX = 0;
+                    while (fromX < size && fileRow[fromX] == layerRow[fromX]) {
+                        fromX++;
+                    }
+                    if (fromX == size) {
+                        // only checksum changed, for example after saving the same data
+                        continue;
+                    }
+                    int toX = size;
+                    while (fileRow[toX - 1] == layerRow[toX - 1]) {
+                        toX--;
+                    }
+
+                    layer.reloadRows(y, y + 1, fileRow, 0);
+                    spans[2 * y] = fromX;
+                    spans[2 * y + 1] = toX;
+                    if (listener != null) {
+                        listener.rowReloaded(y, fromX, toX);
+                    }
+                }
+            });
+        }
+
+        // remembered only after successful read, so failed refresh is repeated next time
+        checksums = newChecksums;
+        lastModified = modified;
+        lastLength = length;
+        return spans;
+    }
+
+    private int layerChecksum(int y, int[] layerRow, CRC32 crc) {
+        layer.readRows(y, y + 1, layerRow, 0);
+        final ByteBuffer bytes = ByteBuffer.allocate(size * 4);
+        bytes.asIntBuffer().put(layerRow);
+        crc.reset();
+        crc.update(bytes.array(), 0, bytes.capacity());
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Low level access to map files, in format used by {@link com.wurmonline.mesh.MeshIO}:
+ * 1024 byte header (magic number, version and power of two of map size) followed by big-endian tiles, row after row.
+ */
+public final class MapFiles {
+
+    public static final int HEADER_SIZE = 1024;
+
+    private static final long MAGIC_NUMBER = 5136955264682433437L;
+
+    private MapFiles() {
+    }
+
+    /**
+     * Reads and validates header of map file.
+     *
+     * @param name name of file used in error messages.
+     * @return power of two of map size.
+     */
+    public static int readHeader(FileChannel channel, String name) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        ((Buffer) header).flip();
+        if (header.getLong() != MAGIC_NUMBER) {
+            throw new IOException(name + " is not a valid map file");
+        }
+        header.get(); // version
+        final int sizeLevel = header.get();
+        if (sizeLevel < 0 || sizeLevel > 15) {
+            throw new IOException("Unsupported map size in " + name + ": 2^" + sizeLevel);
+        }
+        return sizeLevel;
+    }
+
+    /**
+     * Writes header of map file and extends file to full map size. New tiles are filled with zeros.
+     */
+    public static void writeHeader(FileChannel channel, int sizeLevel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC_NUMBER);
+        header.put((byte) 0); // version
+        header.put((byte) sizeLevel);
+        ((Buffer) header).clear();
+        writeFully(channel, header, 0);
+        if (channel.size() < rowPosition(sizeLevel, 1 << sizeLevel)) {
+            writeFully(channel, ByteBuffer.allocate(1), rowPosition(sizeLevel, 1 << sizeLevel) - 1);
+        }
+    }
+
+    /**
+     * @return position of first tile of row in map file.
+     */
+    public static long rowPosition(int sizeLevel, int y) {
+        return HEADER_SIZE + ((long) y << sizeLevel) * 4;
+    }
+
+    public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Map file ended unexpectedly");
+            }
+            position += read;
+        }
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+}
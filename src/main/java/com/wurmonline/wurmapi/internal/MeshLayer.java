@@ -0,0 +1,73 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+
+import java.io.IOException;
+
+/**
+ * Dense layer storage - plain {@link MeshIO} with one int per tile.
+ */
+public final class MeshLayer implements TileLayer {
+
+    private final MeshIO mesh;
+
+    public MeshLayer(MeshIO mesh) {
+        this.mesh = mesh;
+    }
+
+    public MeshIO getMesh() {
+        return mesh;
+    }
+
+    @Override
+    public int getSize() {
+        return mesh.getSize();
+    }
+
+    @Override
+    public int getSizeLevel() {
+        return mesh.getSizeLevel();
+    }
+
+    @Override
+    public int getTile(int x, int y) {
+        return mesh.getTile(x, y);
+    }
+
+    @Override
+    public void setTile(int x, int y, int value) {
+        mesh.setTile(x, y, value);
+    }
+
+    @Override
+    public void readRows(int fromY, int toY, int[] target, int offset) {
+        System.arraycopy(mesh.getData(), fromY << mesh.getSizeLevel(), target, offset, (toY - fromY) << mesh.getSizeLevel());
+    }
+
+    @Override
+    public void writeRows(int fromY, int toY, int[] source, int offset) {
+        System.arraycopy(source, offset, mesh.getData(), fromY << mesh.getSizeLevel(), (toY - fromY) << mesh.getSizeLevel());
+        Meshes.markRowsDirty(mesh, fromY, toY);
+    }
+
+    @Override
+    public void reloadRows(int fromY, int toY, int[] source, int offset) {
+        System.arraycopy(source, offset, mesh.getData(), fromY << mesh.getSizeLevel(), (toY - fromY) << mesh.getSizeLevel());
+    }
+
+    @Override
+    public void save() throws IOException {
+        mesh.saveAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mesh.close();
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return (long) mesh.getData().length * 4;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+
+/**
+ * Low level helpers for working directly on packed {@link MeshIO} data.<br>
+ * Tile (x, y) is stored at index {@code x | (y << sizeLevel)}, so every map row is one contiguous slice of the array.
+ */
+public final class Meshes {
+
+    private Meshes() {
+    }
+
+    public static int rowOffset(MeshIO mesh, int y) {
+        return y << mesh.getSizeLevel();
+    }
+
+    /**
+     * Bulk writes to {@link MeshIO#getData()} bypass dirty row tracking of the mesh.
+     * This method marks given rows as dirty, so they will be written by {@link MeshIO#saveAllDirtyRows()} on close.
+     *
+     * @param mesh mesh that was modified.
+     * @param fromY first modified row (inclusive).
+     * @param toY last modified row (exclusive).
+     */
+    public static void markRowsDirty(MeshIO mesh, int fromY, int toY) {
+        for (int y = fromY; y < toY; y++) {
+            mesh.setTile(0, y, mesh.getTile(0, y));
+        }
+    }
+
+    /**
+     * @param tile packed tile data.
+     * @param height new height.
+     * @return packed tile data with the same type and tile data, but different height.
+     */
+    public static int withHeight(int tile, short height) {
+        return (tile & 0xFFFF0000) | (height & 0xFFFF);
+    }
+
+    /**
+     * Sets height of single tile in surface or rock layer data. Surface is never left below rock, the same way as {@link com.wurmonline.wurmapi.api.MapData#saveChanges()} does it:
+     * new surface heights lower than rock are raised to rock height, and surface lower than new rock height is raised to it.
+     *
+     * @param surface surface layer data.
+     * @param rock rock layer data.
+     * @param index tile index.
+     * @param layer layer to change.
+     * @param height new height.
+     */
+    public static void setLayerHeight(int[] surface, int[] rock, int index, HeightmapLayer layer, short height) {
+        if (layer == HeightmapLayer.SURFACE) {
+            final short rockHeight = Tiles.decodeHeight(rock[index]);
+            surface[index] = withHeight(surface[index], height > rockHeight ? height : rockHeight);
+        }
+        else {
+            rock[index] = Tiles.encode(height, (byte) Tiles.TILE_TYPE_ROCK, (byte) 0);
+            if (Tiles.decodeHeight(surface[index]) < height) {
+                surface[index] = withHeight(surface[index], height);
+            }
+        }
+    }
+
+}
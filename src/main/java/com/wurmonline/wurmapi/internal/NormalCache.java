@@ -0,0 +1,154 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Computes and caches terrain normal of every tile of surface or rock layer, used by shaded relief dumps.<br><br>
+ *
+ * Normal of tile is computed from heights of its four corners - the tile itself and its right, bottom and bottom right neighbours.
+ * Normals are computed in 64x64 tile blocks, and changes only mark blocks as dirty, so next request recomputes only blocks which changed.<br>
+ * Every normal is packed into single int: x and y components as signed 16-bit fractions, z is always positive and derived from them.<br>
+ * Until normals are requested, changes return without taking the lock, so setting single tiles stays cheap.
+ */
+public final class NormalCache {
+
+    /**
+     * Width of tile in height units - tile is 4 metres wide, and height is stored in tenths of metre.
+     */
+    public static final float TILE_WIDTH = 40;
+
+    private static final int BLOCK_LEVEL = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_LEVEL;
+
+    private static final float SCALE = Short.MAX_VALUE;
+
+    private final MeshIO mesh;
+    private final int size;
+    private final int sizeLevel;
+    private final int blocksPerRow;
+    private int[] normals;
+    private BitSet dirtyBlocks;
+    private volatile boolean cached;
+
+    public NormalCache(MeshIO mesh) {
+        this.mesh = mesh;
+        this.size = mesh.getSize();
+        this.sizeLevel = mesh.getSizeLevel();
+        this.blocksPerRow = Math.max(1, size >> BLOCK_LEVEL);
+    }
+
+    /**
+     * @param pool pool to compute dirty blocks on, or null to compute them in calling thread.
+     * @return up to date packed normals, indexed the same way as layer data. Returned array is reused, so it shouldn't be modified.
+     */
+    public synchronized int[] getNormals(ForkJoinPool pool) {
+        // set before normals are computed, so changes made while they are computed are not skipped
+        cached = true;
+        if (normals == null) {
+            normals = new int[size * size];
+            dirtyBlocks = new BitSet(blocksPerRow * blocksPerRow);
+            dirtyBlocks.set(0, blocksPerRow * blocksPerRow);
+        }
+        if (!dirtyBlocks.isEmpty()) {
+            final BitSet dirty = dirtyBlocks;
+            RowBands.forEach(blocksPerRow, 1, pool, (fromBlockY, toBlockY) -> {
+                for (int blockY = fromBlockY; blockY < toBlockY; blockY++) {
+                    for (int blockX = 0; blockX < blocksPerRow; blockX++) {
+                        if (dirty.get(blockX + blockY * blocksPerRow)) {
+                            computeBlock(blockX, blockY);
+                        }
+                    }
+                }
+            });
+            dirtyBlocks.clear();
+        }
+        return normals;
+    }
+
+    /**
+     * Marks height of single tile as changed. Normals of tile and its left, top and top left neighbours depend on it.
+     */
+    public void invalidate(int x, int y) {
+        invalidate(x, y, x + 1, y + 1);
+    }
+
+    /**
+     * Marks heights of all tiles in rectangle as changed.
+     *
+     * @param fromX first column (inclusive).
+     * @param fromY first row (inclusive).
+     * @param toX last column (exclusive).
+     * @param toY last row (exclusive).
+     */
+    public void invalidate(int fromX, int fromY, int toX, int toY) {
+        if (!cached || toX <= fromX || toY <= fromY) {
+            return;
+        }
+        final int fromBlockX = Math.max(0, fromX - 1) >> BLOCK_LEVEL;
+        final int fromBlockY = Math.max(0, fromY - 1) >> BLOCK_LEVEL;
+        final int toBlockX = Math.min(size - 1, toX - 1) >> BLOCK_LEVEL;
+        final int toBlockY = Math.min(size - 1, toY - 1) >> BLOCK_LEVEL;
+        synchronized (this) {
+            if (dirtyBlocks == null) {
+                return;
+            }
+            for (int blockY = fromBlockY; blockY <= toBlockY; blockY++) {
+                dirtyBlocks.set(fromBlockX + blockY * blocksPerRow, toBlockX + 1 + blockY * blocksPerRow);
+            }
+        }
+    }
+
+    /**
+     * Marks all tiles as changed.
+     */
+    public synchronized void invalidateAll() {
+        if (dirtyBlocks != null) {
+            dirtyBlocks.set(0, blocksPerRow * blocksPerRow);
+        }
+    }
+
+    public static float normalX(int normal) {
+        return (normal >> 16) / SCALE;
+    }
+
+    public static float normalY(int normal) {
+        return ((short) normal) / SCALE;
+    }
+
+    public static float normalZ(int normal) {
+        final float x = normalX(normal);
+        final float y = normalY(normal);
+        return (float) Math.sqrt(Math.max(0, 1 - x * x - y * y));
+    }
+
+    private void computeBlock(int blockX, int blockY) {
+        final int[] data = mesh.getData();
+        final int fromX = blockX << BLOCK_LEVEL;
+        final int fromY = blockY << BLOCK_LEVEL;
+        final int toX = Math.min(size, fromX + BLOCK_SIZE);
+        final int toY = Math.min(size, fromY + BLOCK_SIZE);
+        for (int y = fromY; y < toY; y++) {
+            final int row = y << sizeLevel;
+            // the last row and column have no further corners, so they repeat heights of their own tiles
+            final int nextRow = Math.min(y + 1, size - 1) << sizeLevel;
+            for (int x = fromX; x < toX; x++) {
+                final int nextX = Math.min(x + 1, size - 1);
+                final int h00 = Tiles.decodeHeight(data[row | x]);
+                final int h10 = Tiles.decodeHeight(data[row | nextX]);
+                final int h01 = Tiles.decodeHeight(data[nextRow | x]);
+                final int h11 = Tiles.decodeHeight(data[nextRow | nextX]);
+                final float dx = ((h10 - h00) + (h11 - h01)) * 0.5f;
+                final float dy = ((h01 - h00) + (h11 - h10)) * 0.5f;
+                final float length = (float) Math.sqrt(dx * dx + dy * dy + TILE_WIDTH * TILE_WIDTH);
+                final int nx = Math.round(-dx / length * SCALE);
+                final int ny = Math.round(-dy / length * SCALE);
+                normals[row | x] = (nx << 16) | (ny & 0xFFFF);
+            }
+        }
+    }
+
+}
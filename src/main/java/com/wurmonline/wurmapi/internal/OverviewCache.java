@@ -0,0 +1,195 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.map.overview.OverviewLevel;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Builds and caches overview levels of surface layer.<br><br>
+ *
+ * Every cached level keeps set of dirty regions (squares of at least 64x64 tiles, always made of whole blocks).
+ * Changes to surface only mark regions as dirty, and next request of a level recomputes blocks inside dirty regions only.
+ * Blocks are computed from contiguous row segments, block row after block row, so memory is read almost sequentially.<br>
+ * Until the first level is requested, changes return without taking the lock, so setting single tiles stays cheap.
+ */
+public final class OverviewCache {
+
+    private static final int MIN_REGION_LEVEL = 6;
+
+    private final MeshIO surfaceMesh;
+    private final int sizeLevel;
+    private final OverviewLevel[] levels;
+    private final BitSet[] dirtyRegions;
+    private volatile boolean cached;
+
+    public OverviewCache(MeshIO surfaceMesh) {
+        this.surfaceMesh = surfaceMesh;
+        this.sizeLevel = surfaceMesh.getSizeLevel();
+        this.levels = new OverviewLevel[sizeLevel + 1];
+        this.dirtyRegions = new BitSet[sizeLevel + 1];
+    }
+
+    /**
+     * @param level power of two of block size, from 0 to map power of two.
+     * @param pool pool to compute blocks on, or null to compute them in calling thread.
+     * @return up to date overview level.
+     */
+    public synchronized OverviewLevel getLevel(int level, ForkJoinPool pool) {
+        if (level < 0 || level > sizeLevel) {
+            throw new IllegalArgumentException("Invalid overview level: " + level + ", must be between 0 and " + sizeLevel);
+        }
+
+        // set before level is computed, so changes made while it is computed are not skipped
+        cached = true;
+        OverviewLevel current = levels[level];
+        if (current == null) {
+            current = computeLevel(level, pool);
+            dirtyRegions[level] = new BitSet();
+        }
+        else if (!dirtyRegions[level].isEmpty()) {
+            current = refreshLevel(current, dirtyRegions[level], pool);
+            dirtyRegions[level].clear();
+        }
+        levels[level] = current;
+        return current;
+    }
+
+    /**
+     * Marks single tile as changed.
+     */
+    public void invalidate(int x, int y) {
+        if (!cached) {
+            return;
+        }
+        synchronized (this) {
+            for (int level = 0; level <= sizeLevel; level++) {
+                if (dirtyRegions[level] != null) {
+                    final int regionLevel = regionLevel(level);
+                    dirtyRegions[level].set((x >> regionLevel) + (y >> regionLevel) * (surfaceMesh.getSize() >> regionLevel));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks all tiles in rectangle as changed.
+     *
+     * @param fromX first column (inclusive).
+     * @param fromY first row (inclusive).
+     * @param toX last column (exclusive).
+     * @param toY last row (exclusive).
+     */
+    public void invalidate(int fromX, int fromY, int toX, int toY) {
+        if (!cached || toX <= fromX || toY <= fromY) {
+            return;
+        }
+        synchronized (this) {
+            for (int level = 0; level <= sizeLevel; level++) {
+                if (dirtyRegions[level] != null) {
+                    final int regionLevel = regionLevel(level);
+                    final int regionsPerRow = surfaceMesh.getSize() >> regionLevel;
+                    for (int ry = fromY >> regionLevel; ry <= (toY - 1) >> regionLevel; ry++) {
+                        dirtyRegions[level].set((fromX >> regionLevel) + ry * regionsPerRow, ((toX - 1) >> regionLevel) + ry * regionsPerRow + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        invalidate(0, 0, surfaceMesh.getSize(), surfaceMesh.getSize());
+    }
+
+    private int regionLevel(int level) {
+        return Math.min(sizeLevel, Math.max(MIN_REGION_LEVEL, level));
+    }
+
+    private OverviewLevel computeLevel(int level, ForkJoinPool pool) {
+        final int size = surfaceMesh.getSize() >> level;
+        final byte[] types = new byte[size * size];
+        final short[] heights = new short[size * size];
+        final int bandHeight = Math.max(1, RowBands.DEFAULT_BAND_HEIGHT >> level);
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            final int[] counts = new int[256];
+            for (int by = fromY; by < toY; by++) {
+                for (int bx = 0; bx < size; bx++) {
+                    computeBlock(level, bx, by, types, heights, counts);
+                }
+            }
+        });
+        return new OverviewLevel(level, size, types, heights);
+    }
+
+    private OverviewLevel refreshLevel(OverviewLevel current, BitSet dirty, ForkJoinPool pool) {
+        final int level = current.getLevel();
+        final int size = current.getSize();
+        final byte[] types = current.getTypes().clone();
+        final short[] heights = current.getHeights().clone();
+        final int blocksPerRegion = 1 << (regionLevel(level) - level);
+        final int regionsPerRow = size / blocksPerRegion;
+
+        RowBands.forEach(regionsPerRow, 1, pool, (fromY, toY) -> {
+            final int[] counts = new int[256];
+            for (int region = dirty.nextSetBit(fromY * regionsPerRow); region >= 0 && region < toY * regionsPerRow; region = dirty.nextSetBit(region + 1)) {
+                final int firstX = (region % regionsPerRow) * blocksPerRegion;
+                final int firstY = (region / regionsPerRow) * blocksPerRegion;
+                for (int by = firstY; by < firstY + blocksPerRegion; by++) {
+                    for (int bx = firstX; bx < firstX + blocksPerRegion; bx++) {
+                        computeBlock(level, bx, by, types, heights, counts);
+                    }
+                }
+            }
+        });
+        return new OverviewLevel(level, size, types, heights);
+    }
+
+    /**
+     * Computes most common type (lowest id wins ties, like {@link MeshIO#calcDistantTerrain()}) and average height of one block.
+     *
+     * @param counts zeroed histogram, left zeroed after return.
+     */
+    private void computeBlock(int level, int bx, int by, byte[] types, short[] heights, int[] counts) {
+        final int[] data = surfaceMesh.getData();
+        final int blockSize = 1 << level;
+        final int firstX = bx << level;
+        final int firstY = by << level;
+
+        int best = 0;
+        int bestCount = 0;
+        long heightSum = 0;
+        for (int y = firstY; y < firstY + blockSize; y++) {
+            final int row = y << sizeLevel;
+            for (int x = firstX; x < firstX + blockSize; x++) {
+                final int tile = data[row | x];
+                final int type = Tiles.decodeType(tile) & 0xFF;
+                final int count = ++counts[type];
+                if (count > bestCount || (count == bestCount && type < best)) {
+                    best = type;
+                    bestCount = count;
+                }
+                heightSum += Tiles.decodeHeight(tile);
+            }
+        }
+
+        if (blockSize * blockSize > counts.length) {
+            Arrays.fill(counts, 0);
+        }
+        else {
+            for (int y = firstY; y < firstY + blockSize; y++) {
+                final int row = y << sizeLevel;
+                for (int x = firstX; x < firstX + blockSize; x++) {
+                    counts[Tiles.decodeType(data[row | x]) & 0xFF] = 0;
+                }
+            }
+        }
+
+        final int index = bx + by * (surfaceMesh.getSize() >> level);
+        types[index] = (byte) best;
+        heights[index] = (short) Math.round((double) heightSum / ((long) blockSize * blockSize));
+    }
+
+}
@@ -0,0 +1,367 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.wurmapi.api.map.paths.Path;
+import com.wurmonline.wurmapi.api.map.paths.PathCost;
+
+import java.util.Arrays;
+
+/**
+ * Finds least cost paths over surface layer with A* search.<br><br>
+ *
+ * Search state is kept in primitive arrays only: open set is a binary heap of node indices and their estimated costs,
+ * and costs, parent directions and closed set (one bit per tile) are stored in pages of 64x64 tiles, allocated only
+ * for parts of map search reaches. Tile data is read straight from surface layer.<br><br>
+ *
+ * Hierarchical search first finds path between 64x64 tile chunks, with step cost sampled along line between chunk centres,
+ * and then searches tiles only inside corridor of chunks around that path. Path found this way doesn't have to be the cheapest,
+ * but search is limited to small part of map. If corridor doesn't contain any path, whole map is searched.
+ */
+public final class PathFinder {
+
+    private static final int CHUNK_LEVEL = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_LEVEL;
+
+    private static final float DIAGONAL = (float) Math.sqrt(2);
+
+    /**
+     * Neighbour offsets, straight steps first.
+     */
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1};
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    /**
+     * Cost added for every impassable tile on line between chunk centres - chunks are still connected, as there can be way around it.
+     */
+    private static final float BLOCKED_PENALTY = 16;
+
+    private interface StepCost {
+
+        /**
+         * @return cost of straight step between neighbouring nodes, {@link Float#POSITIVE_INFINITY} if step is not possible.
+         */
+        float cost(int fromX, int fromY, int toX, int toY);
+    }
+
+    private final int[] surface;
+    private final int size;
+    private final int level;
+
+    public PathFinder(MeshIO surfaceMesh) {
+        this.surface = surfaceMesh.getData();
+        this.size = surfaceMesh.getSize();
+        this.level = surfaceMesh.getSizeLevel();
+    }
+
+    /**
+     * @param fromX x location of start.
+     * @param fromY y location of start.
+     * @param toX x location of target.
+     * @param toY y location of target.
+     * @param cost cost of steps.
+     * @param hierarchical true to search only corridor around path between chunks first.
+     * @return path, or null if target can't be reached.
+     */
+    public Path find(int fromX, int fromY, int toX, int toY, PathCost cost, boolean hierarchical) {
+        final float minimumCost = cost.getMinimumCost();
+        if (!(minimumCost > 0)) {
+            throw new IllegalArgumentException("Minimum step cost must be higher than 0: " + minimumCost);
+        }
+
+        final StepCost tileCost = (x0, y0, x1, y1) -> cost.getCost(x0, y0, surface[x0 | (y0 << level)], x1, y1, surface[x1 | (y1 << level)]);
+        int visited = 0;
+        if (hierarchical && level > CHUNK_LEVEL) {
+            final Search chunks = new Search(level - CHUNK_LEVEL, chunkCost(tileCost), minimumCost * CHUNK_SIZE, null);
+            final Path chunkPath = chunks.find(fromX >> CHUNK_LEVEL, fromY >> CHUNK_LEVEL, toX >> CHUNK_LEVEL, toY >> CHUNK_LEVEL);
+            visited += chunks.visited;
+            if (chunkPath != null) {
+                final Search corridor = new Search(level, tileCost, minimumCost, corridor(chunkPath));
+                final Path path = corridor.find(fromX, fromY, toX, toY);
+                visited += corridor.visited;
+                if (path != null) {
+                    return new Path(pathXs(path), pathYs(path), path.getCost(), visited);
+                }
+            }
+        }
+
+        final Search tiles = new Search(level, tileCost, minimumCost, null);
+        final Path path = tiles.find(fromX, fromY, toX, toY);
+        if (path == null) {
+            return null;
+        }
+        return new Path(pathXs(path), pathYs(path), path.getCost(), visited + tiles.visited);
+    }
+
+    /**
+     * @return cost of moving between neighbouring chunks, as sum of tile steps on the cheapest of few parallel lines between them.
+     */
+    private StepCost chunkCost(StepCost tileCost) {
+        return (x0, y0, x1, y1) -> {
+            final int dx = x1 - x0;
+            final int dy = y1 - y0;
+            float cheapest = Float.POSITIVE_INFINITY;
+            for (int line = -1; line <= 1; line++) {
+                // lines are shifted perpendicular to step direction, staying inside both chunks
+                int x = (x0 << CHUNK_LEVEL) + CHUNK_SIZE / 2 - dy * line * CHUNK_SIZE / 4;
+                int y = (y0 << CHUNK_LEVEL) + CHUNK_SIZE / 2 + dx * line * CHUNK_SIZE / 4;
+                float sum = 0;
+                for (int step = 0; step < CHUNK_SIZE; step++) {
+                    final float cost = tileCost.cost(x, y, x + dx, y + dy);
+                    sum += cost < Float.POSITIVE_INFINITY ? cost : BLOCKED_PENALTY;
+                    x += dx;
+                    y += dy;
+                }
+                cheapest = Math.min(cheapest, sum);
+            }
+            return cheapest;
+        };
+    }
+
+    /**
+     * @return chunks of path and all their neighbours, indexed by chunk x + chunk y * chunks per row.
+     */
+    private boolean[] corridor(Path chunkPath) {
+        final int chunks = size >> CHUNK_LEVEL;
+        final boolean[] corridor = new boolean[chunks * chunks];
+        for (int i = 0; i < chunkPath.getLength(); i++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    final int x = chunkPath.getX(i) + dx;
+                    final int y = chunkPath.getY(i) + dy;
+                    if (x >= 0 && y >= 0 && x < chunks && y < chunks) {
+                        corridor[x + y * chunks] = true;
+                    }
+                }
+            }
+        }
+        return corridor;
+    }
+
+    private static int[] pathXs(Path path) {
+        final int[] xs = new int[path.getLength()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = path.getX(i);
+        }
+        return xs;
+    }
+
+    private static int[] pathYs(Path path) {
+        final int[] ys = new int[path.getLength()];
+        for (int i = 0; i < ys.length; i++) {
+            ys[i] = path.getY(i);
+        }
+        return ys;
+    }
+
+    /**
+     * Single A* search over square grid. Node of location (x, y) has index {@code x | (y << gridLevel)}.
+     */
+    private static final class Search {
+
+        private final int gridLevel;
+        private final int gridSize;
+        private final StepCost stepCost;
+        private final float minimumCost;
+        private final boolean[] corridor;
+
+        private final int pageLevel;
+        private final int pageMask;
+        private final int pagesPerRow;
+        private final float[][] costs;
+        private final byte[][] parents;
+        private final long[][] closed;
+
+        private int[] heapNodes = new int[1024];
+        private float[] heapKeys = new float[1024];
+        private int heapSize;
+        private int visited;
+
+        /**
+         * @param corridor allowed chunks of tile grid, or null to allow whole grid.
+         */
+        Search(int gridLevel, StepCost stepCost, float minimumCost, boolean[] corridor) {
+            this.gridLevel = gridLevel;
+            this.gridSize = 1 << gridLevel;
+            this.stepCost = stepCost;
+            this.minimumCost = minimumCost;
+            this.corridor = corridor;
+            this.pageLevel = Math.min(gridLevel, CHUNK_LEVEL);
+            this.pageMask = (1 << pageLevel) - 1;
+            this.pagesPerRow = gridSize >> pageLevel;
+            this.costs = new float[pagesPerRow * pagesPerRow][];
+            this.parents = new byte[pagesPerRow * pagesPerRow][];
+            this.closed = new long[pagesPerRow * pagesPerRow][];
+        }
+
+        Path find(int fromX, int fromY, int toX, int toY) {
+            final int target = toX | (toY << gridLevel);
+            final int start = fromX | (fromY << gridLevel);
+            setCost(fromX, fromY, 0);
+            push(start, estimate(fromX, fromY, toX, toY));
+
+            while (heapSize > 0) {
+                final int node = pop();
+                final int x = node & (gridSize - 1);
+                final int y = node >>> gridLevel;
+                if (isClosed(x, y)) {
+                    // stale heap entry, node was reached cheaper before
+                    continue;
+                }
+                setClosed(x, y);
+                visited++;
+                if (node == target) {
+                    return path(fromX, fromY, toX, toY);
+                }
+
+                final float cost = getCost(x, y);
+                for (int direction = 0; direction < DX.length; direction++) {
+                    final int nextX = x + DX[direction];
+                    final int nextY = y + DY[direction];
+                    if (nextX < 0 || nextY < 0 || nextX >= gridSize || nextY >= gridSize || isClosed(nextX, nextY)) {
+                        continue;
+                    }
+                    else if (corridor != null && !corridor[(nextX >> CHUNK_LEVEL) + (nextY >> CHUNK_LEVEL) * (gridSize >> CHUNK_LEVEL)]) {
+                        continue;
+                    }
+
+                    final float step = stepCost.cost(x, y, nextX, nextY);
+                    if (!(step < Float.POSITIVE_INFINITY)) {
+                        continue;
+                    }
+                    final float nextCost = cost + (direction < 4 ? step : step * DIAGONAL);
+                    if (nextCost < getCost(nextX, nextY)) {
+                        setCost(nextX, nextY, nextCost);
+                        setParent(nextX, nextY, direction);
+                        push(nextX | (nextY << gridLevel), nextCost + estimate(nextX, nextY, toX, toY));
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Octile distance multiplied by minimum step cost - never higher than real remaining cost.
+         */
+        private float estimate(int x, int y, int toX, int toY) {
+            final int dx = Math.abs(toX - x);
+            final int dy = Math.abs(toY - y);
+            final int diagonal = Math.min(dx, dy);
+            return ((dx + dy - 2 * diagonal) + diagonal * DIAGONAL) * minimumCost;
+        }
+
+        private Path path(int fromX, int fromY, int toX, int toY) {
+            int length = 1;
+            for (int x = toX, y = toY; x != fromX || y != fromY; length++) {
+                final int direction = getParent(x, y);
+                x -= DX[direction];
+                y -= DY[direction];
+            }
+
+            final int[] xs = new int[length];
+            final int[] ys = new int[length];
+            int x = toX;
+            int y = toY;
+            for (int i = length - 1; i >= 0; i--) {
+                xs[i] = x;
+                ys[i] = y;
+                if (i > 0) {
+                    final int direction = getParent(x, y);
+                    x -= DX[direction];
+                    y -= DY[direction];
+                }
+            }
+            return new Path(xs, ys, getCost(toX, toY), visited);
+        }
+
+        private int page(int x, int y) {
+            return (x >> pageLevel) + (y >> pageLevel) * pagesPerRow;
+        }
+
+        private int offset(int x, int y) {
+            return (x & pageMask) | ((y & pageMask) << pageLevel);
+        }
+
+        private float getCost(int x, int y) {
+            final float[] page = costs[page(x, y)];
+            return page != null ? page[offset(x, y)] : Float.POSITIVE_INFINITY;
+        }
+
+        private void setCost(int x, int y, float cost) {
+            final int index = page(x, y);
+            if (costs[index] == null) {
+                costs[index] = new float[1 << (2 * pageLevel)];
+                Arrays.fill(costs[index], Float.POSITIVE_INFINITY);
+                parents[index] = new byte[1 << (2 * pageLevel)];
+            }
+            costs[index][offset(x, y)] = cost;
+        }
+
+        private int getParent(int x, int y) {
+            return parents[page(x, y)][offset(x, y)];
+        }
+
+        private void setParent(int x, int y, int direction) {
+            parents[page(x, y)][offset(x, y)] = (byte) direction;
+        }
+
+        private boolean isClosed(int x, int y) {
+            final long[] page = closed[page(x, y)];
+            final int offset = offset(x, y);
+            return page != null && (page[offset >>> 6] & (1L << offset)) != 0;
+        }
+
+        private void setClosed(int x, int y) {
+            final int index = page(x, y);
+            if (closed[index] == null) {
+                closed[index] = new long[Math.max(1, (1 << (2 * pageLevel)) >>> 6)];
+            }
+            final int offset = offset(x, y);
+            closed[index][offset >>> 6] |= 1L << offset;
+        }
+
+        private void push(int node, float key) {
+            if (heapSize == heapNodes.length) {
+                heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            }
+            int index = heapSize++;
+            while (index > 0) {
+                final int parent = (index - 1) >>> 1;
+                if (heapKeys[parent] <= key) {
+                    break;
+                }
+                heapNodes[index] = heapNodes[parent];
+                heapKeys[index] = heapKeys[parent];
+                index = parent;
+            }
+            heapNodes[index] = node;
+            heapKeys[index] = key;
+        }
+
+        private int pop() {
+            final int result = heapNodes[0];
+            final int node = heapNodes[--heapSize];
+            final float key = heapKeys[heapSize];
+            int index = 0;
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                    child++;
+                }
+                if (key <= heapKeys[child]) {
+                    break;
+                }
+                heapNodes[index] = heapNodes[child];
+                heapKeys[index] = heapKeys[child];
+                index = child;
+            }
+            heapNodes[index] = node;
+            heapKeys[index] = key;
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.map.dump.DumpRequest;
+import com.wurmonline.wurmapi.api.map.dump.ReliefStyle;
+
+import java.awt.Color;
+
+/**
+ * Turns packed tile normals from {@link NormalCache} into pixels of shaded relief dump.
+ */
+final class ReliefShader {
+
+    private static final float LIGHT_AZIMUTH = (float) Math.toRadians(315);
+    private static final float LIGHT_ALTITUDE = (float) Math.toRadians(45);
+
+    /**
+     * Slope shown as black on slope relief, and with full saturation on aspect relief.
+     */
+    private static final float STEEP_SLOPE = (float) Math.toRadians(60);
+
+    /**
+     * Slopes less steep than this are shown as flat on aspect relief.
+     */
+    private static final float FLAT_SLOPE = (float) Math.toRadians(1);
+
+    // direction towards light, with north at the top of map (lower y)
+    private static final float LIGHT_X = (float) (Math.cos(LIGHT_ALTITUDE) * Math.sin(LIGHT_AZIMUTH));
+    private static final float LIGHT_Y = (float) (-Math.cos(LIGHT_ALTITUDE) * Math.cos(LIGHT_AZIMUTH));
+    private static final float LIGHT_Z = (float) Math.sin(LIGHT_ALTITUDE);
+
+    private final ReliefStyle style;
+    private final boolean blendColors;
+    private final boolean showWater;
+    private final int[] colors;
+    private final int[] waterColors;
+
+    ReliefShader(DumpRequest request) {
+        this.style = request.getReliefStyle();
+        this.blendColors = request.isBlendColors();
+        this.showWater = request.isShowWater();
+        this.colors = DumpColors.surfaceColors(request.getColorist());
+        this.waterColors = DumpColors.waterColors(colors);
+    }
+
+    /**
+     * @param normal packed normal of tile.
+     * @param tile raw data of tile in layer relief is computed from.
+     * @return shaded pixel.
+     */
+    int shade(int normal, int tile) {
+        final float nx = NormalCache.normalX(normal);
+        final float ny = NormalCache.normalY(normal);
+        final float nz = NormalCache.normalZ(normal);
+        final int color = (showWater && Tiles.decodeHeight(tile) < 0 ? waterColors : colors)[Tiles.decodeType(tile) & 0xFF];
+        switch (style) {
+            case HILLSHADE: {
+                final float light = Math.max(0, nx * LIGHT_X + ny * LIGHT_Y + nz * LIGHT_Z);
+                // flat terrain keeps its color, slopes facing light get up to 40% brighter
+                return blendColors ? scale(color, light / LIGHT_Z) : gray(light);
+            }
+            case SLOPE: {
+                final float steepness = Math.min(1, (float) Math.acos(nz) / STEEP_SLOPE);
+                return blendColors ? scale(color, 1 - steepness) : gray(1 - steepness);
+            }
+            default: {
+                final float slope = (float) Math.acos(nz);
+                final int hue;
+                if (slope < FLAT_SLOPE) {
+                    hue = 0x808080;
+                }
+                else {
+                    // downhill direction, clockwise from north
+                    final float angle = (float) Math.atan2(nx, -ny);
+                    final float saturation = Math.min(1, slope / STEEP_SLOPE);
+                    hue = Color.HSBtoRGB(angle / (float) (2 * Math.PI), saturation, 1) & 0xFFFFFF;
+                }
+                return blendColors ? mix(color, hue) : hue;
+            }
+        }
+    }
+
+    /**
+     * Shades square block of tiles for downscaled relief.
+     *
+     * @param normals packed normals of layer.
+     * @param tiles raw data of layer.
+     * @param sizeLevel power of two of map size.
+     * @param fromX first column of block.
+     * @param fromY first row of block.
+     * @param step distance between shaded tiles.
+     * @param samples number of shaded tiles in every row and column of block.
+     * @return average color of shaded tiles.
+     */
+    int shadeBlock(int[] normals, int[] tiles, int sizeLevel, int fromX, int fromY, int step, int samples) {
+        if (samples == 1) {
+            final int index = fromX | (fromY << sizeLevel);
+            return shade(normals[index], tiles[index]);
+        }
+
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        for (int sy = 0; sy < samples; sy++) {
+            final int row = (fromY + sy * step) << sizeLevel;
+            for (int sx = 0; sx < samples; sx++) {
+                final int index = row | (fromX + sx * step);
+                final int color = shade(normals[index], tiles[index]);
+                r += (color >> 16) & 0xFF;
+                g += (color >> 8) & 0xFF;
+                b += color & 0xFF;
+            }
+        }
+        final int count = samples * samples;
+        return DumpColors.rgb((int) (r / count), (int) (g / count), (int) (b / count));
+    }
+
+    private static int gray(float brightness) {
+        final int value = (int) (brightness * 255);
+        return DumpColors.rgb(value, value, value);
+    }
+
+    private static int scale(int color, float factor) {
+        final int r = Math.min(255, (int) (((color >> 16) & 0xFF) * factor));
+        final int g = Math.min(255, (int) (((color >> 8) & 0xFF) * factor));
+        final int b = Math.min(255, (int) ((color & 0xFF) * factor));
+        return DumpColors.rgb(r, g, b);
+    }
+
+    private static int mix(int color, int other) {
+        return (color >> 1 & 0x7F7F7F) + (other >> 1 & 0x7F7F7F);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits map rows into horizontal bands and processes them, optionally in parallel on a {@link ForkJoinPool}.<br>
+ * Bands never overlap, so tasks may freely write to rows inside their own band.
+ */
+public final class RowBands {
+
+    /**
+     * Band height used when caller has no better idea - 64 rows of a 2^14 map is 4 MB of packed ints.
+     */
+    public static final int DEFAULT_BAND_HEIGHT = 64;
+
+    public interface BandTask {
+
+        /**
+         * @param fromY first row of band (inclusive).
+         * @param toY last row of band (exclusive).
+         */
+        void process(int fromY, int toY);
+    }
+
+    public interface IOBandTask {
+
+        /**
+         * @param fromY first row of band (inclusive).
+         * @param toY last row of band (exclusive).
+         */
+        void process(int fromY, int toY) throws IOException;
+    }
+
+    private RowBands() {
+    }
+
+    public static int bandCount(int height, int bandHeight) {
+        return (height + bandHeight - 1) / bandHeight;
+    }
+
+    public static void forEach(int height, int bandHeight, boolean parallel, BandTask task) {
+        forEach(height, bandHeight, parallel ? ForkJoinPool.commonPool() : null, task);
+    }
+
+    /**
+     * @param height number of rows to process.
+     * @param bandHeight rows per band.
+     * @param pool pool to run bands on, or null to run them sequentially in calling thread.
+     * @param task task executed once per band.
+     */
+    public static void forEach(int height, int bandHeight, ForkJoinPool pool, BandTask task) {
+        if (bandHeight <= 0) {
+            throw new IllegalArgumentException("Band height must be higher than 0: " + bandHeight);
+        }
+
+        final int bands = bandCount(height, bandHeight);
+        if (pool == null || bands <= 1) {
+            for (int band = 0; band < bands; band++) {
+                task.process(band * bandHeight, Math.min(height, (band + 1) * bandHeight));
+            }
+        }
+        else {
+            pool.invoke(new BandAction(task, height, bandHeight, 0, bands));
+        }
+    }
+
+    public static void forEachIO(int height, int bandHeight, boolean parallel, IOBandTask task) throws IOException {
+        try {
+            forEach(height, bandHeight, parallel, (fromY, toY) -> {
+                try {
+                    task.process(fromY, toY);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class BandAction extends RecursiveAction {
+
+        private final BandTask task;
+        private final int height;
+        private final int bandHeight;
+        private final int fromBand;
+        private final int toBand;
+
+        BandAction(BandTask task, int height, int bandHeight, int fromBand, int toBand) {
+            this.task = task;
+            this.height = height;
+            this.bandHeight = bandHeight;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBand - fromBand == 1) {
+                task.process(fromBand * bandHeight, Math.min(height, toBand * bandHeight));
+                return;
+            }
+
+            final int middle = (fromBand + toBand) >>> 1;
+            invokeAll(new BandAction(task, height, bandHeight, fromBand, middle),
+                      new BandAction(task, height, bandHeight, middle, toBand));
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Changed part of every map row, collected from many threads without locking and taken all at once.<br>
+ * Span of every row is packed into single long, so it is always widened and taken atomically. Span only grows until it is taken,
+ * so it can cover unchanged tiles between changed ones.
+ */
+public final class RowSpans {
+
+    private final int size;
+    private final long empty;
+    private final AtomicLongArray spans;
+    private volatile boolean changed;
+
+    /**
+     * @param size number of rows and columns of map.
+     */
+    public RowSpans(int size) {
+        this.size = size;
+        this.empty = pack(size, 0);
+        this.spans = new AtomicLongArray(size);
+        for (int y = 0; y < size; y++) {
+            spans.set(y, empty);
+        }
+    }
+
+    /**
+     * Marks all tiles in rectangle as changed.
+     *
+     * @param fromX first column (inclusive).
+     * @param fromY first row (inclusive).
+     * @param toX last column (exclusive).
+     * @param toY last row (exclusive).
+     */
+    public void add(int fromX, int fromY, int toX, int toY) {
+        if (toX <= fromX) {
+            return;
+        }
+        for (int y = Math.max(0, fromY); y < Math.min(size, toY); y++) {
+            long span = spans.get(y);
+            while (fromX < spanFrom(span) || toX > spanTo(span)) {
+                final long widened = pack(Math.min(fromX, spanFrom(span)), Math.max(toX, spanTo(span)));
+                if (spans.compareAndSet(y, span, widened)) {
+                    break;
+                }
+                span = spans.get(y);
+            }
+        }
+        // flag is written after spans, and cleared before spans are taken, so no change is ever left behind
+        if (!changed) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Takes all changes collected so far, and starts collecting again.
+     *
+     * @return changed part of every row: first changed column (inclusive) of row y at index {@code 2 * y} and last changed column (exclusive)
+     * at index {@code 2 * y + 1}, or null if nothing changed.
+     */
+    public int[] take() {
+        if (!changed) {
+            return null;
+        }
+        changed = false;
+
+        final int[] result = new int[2 * size];
+        boolean any = false;
+        for (int y = 0; y < size; y++) {
+            final long span = spans.getAndSet(y, empty);
+            if (span != empty) {
+                result[2 * y] = spanFrom(span);
+                result[2 * y + 1] = spanTo(span);
+                any = true;
+            }
+        }
+        return any ? result : null;
+    }
+
+    private static long pack(int fromX, int toX) {
+        return ((long) fromX << 32) | toX;
+    }
+
+    private static int spanFrom(long span) {
+        return (int) (span >>> 32);
+    }
+
+    private static int spanTo(long span) {
+        return (int) span;
+    }
+
+}
@@ -0,0 +1,350 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.wurmapi.api.map.MapLayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Saves changed rows of all layers atomically, through write-ahead journal in world directory.<br><br>
+ *
+ * Every changed row is first appended to journal file, which is completed by trailer with number of rows and checksum
+ * of whole journal and synced to disk once. Only then rows are written to map files, map files are synced and journal is deleted.
+ * If process stops while journal is written, journal is incomplete and it is discarded on next open, leaving all map files untouched.
+ * If it stops while map files are written, complete journal is replayed on next open.<br><br>
+ *
+ * Changed rows are marked by {@link #markChanged(MapLayer, int, int)} wherever map data is written, so save doesn't have to read
+ * whole map to find them.<br><br>
+ *
+ * World directory is synced after journal is created and after it is deleted, so after power loss journal can't be missing
+ * while map files are partly written, and deleted journal can't come back.
+ */
+public final class SaveJournal {
+
+    public static final String FILE_NAME = "map_journal.wal";
+
+    private static final long MAGIC_NUMBER = 0x57554A524E4C3031L;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 16;
+
+    private static final Logger logger = Logger.getLogger(SaveJournal.class.getName());
+
+    private final String root;
+    private final TileLayer[] layers;
+    private final int size;
+    private final int sizeLevel;
+    // 1 for rows changed since the last save, indexed by layer ordinal and row
+    private final AtomicIntegerArray[] changedRows;
+    private volatile boolean used;
+
+    /**
+     * @param root world directory, ending with separator.
+     * @param layers layers indexed by {@link MapLayer#ordinal()}.
+     */
+    public SaveJournal(String root, TileLayer[] layers) {
+        this.root = root;
+        this.layers = layers;
+        this.size = layers[0].getSize();
+        this.sizeLevel = layers[0].getSizeLevel();
+        this.changedRows = new AtomicIntegerArray[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            changedRows[i] = new AtomicIntegerArray(size);
+        }
+    }
+
+    /**
+     * @return true if journal was already used to save, so all further changes should be saved through it.
+     */
+    public boolean isUsed() {
+        return used;
+    }
+
+    /**
+     * Marks rows of layer as changed, so they are written by next save. Must be called after tiles are written.
+     *
+     * @param fromY first changed row (inclusive).
+     * @param toY last changed row (exclusive).
+     */
+    public void markChanged(MapLayer layer, int fromY, int toY) {
+        final AtomicIntegerArray rows = changedRows[layer.ordinal()];
+        for (int y = Math.max(0, fromY); y < Math.min(size, toY); y++) {
+            // rows are usually marked already, and reading doesn't contend between threads
+            if (rows.get(y) == 0) {
+                rows.set(y, 1);
+            }
+        }
+    }
+
+    /**
+     * Marks all rows of all layers as changed, for example when map files don't contain map data yet.
+     */
+    public void markAllChanged() {
+        for (MapLayer layer : MapLayer.values()) {
+            markChanged(layer, 0, size);
+        }
+    }
+
+    /**
+     * Takes rows changed since the last call, for saving them in other way. Rows must be given back by
+     * {@link #restoreChanges(BitSet[])} if they aren't saved.
+     *
+     * @return changed rows, indexed by layer ordinal.
+     */
+    public BitSet[] takeChanges() {
+        final BitSet[] rows = new BitSet[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            rows[i] = new BitSet(size);
+            for (int y = 0; y < size; y++) {
+                if (changedRows[i].get(y) != 0 && changedRows[i].getAndSet(y, 0) != 0) {
+                    rows[i].set(y);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Marks rows taken by {@link #takeChanges()} as changed again, after they failed to save.
+     */
+    public void restoreChanges(BitSet[] rows) {
+        for (int i = 0; i < layers.length; i++) {
+            for (int y = rows[i].nextSetBit(0); y >= 0; y = rows[i].nextSetBit(y + 1)) {
+                changedRows[i].set(y, 1);
+            }
+        }
+    }
+
+    /**
+     * Writes all rows changed since the last save to journal and then to map files.
+     *
+     * @return number of written rows, counting rows of every layer.
+     */
+    public int save() throws IOException {
+        used = true;
+        // rows changed while they are saved are marked again, so they are written by next save
+        final BitSet[] rows = takeChanges();
+        int changed = 0;
+        for (BitSet layerRows : rows) {
+            changed += layerRows.cardinality();
+        }
+        if (changed == 0) {
+            return 0;
+        }
+
+        try {
+            writeJournal(rows, changed);
+            syncDirectory(root);
+            apply(rows);
+            Files.delete(journalFile(root).toPath());
+            syncDirectory(root);
+        } catch (IOException | RuntimeException ex) {
+            restoreChanges(rows);
+            throw ex;
+        }
+        return changed;
+    }
+
+    /**
+     * Completes save interrupted by crash: replays complete journal into map files, or discards incomplete one.
+     * Must be called before map files are opened.
+     *
+     * @param root world directory, ending with separator.
+     * @return number of replayed rows, 0 if there was no journal or it was discarded.
+     */
+    public static int recover(String root) throws IOException {
+        final File file = journalFile(root);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        final int rows;
+        try (FileChannel journal = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            rows = replay(root, journal);
+        }
+        if (rows < 0) {
+            logger.log(Level.WARNING, "Discarding incomplete save journal {0}, map files were not changed", file);
+        }
+        else {
+            logger.log(Level.INFO, "Replayed {0} rows from save journal {1}", new Object[] {rows, file});
+        }
+        Files.delete(file.toPath());
+        syncDirectory(root);
+        return Math.max(rows, 0);
+    }
+
+    /**
+     * Deletes journal left in directory, for example before creating new world in it.
+     */
+    public static void discard(String root) throws IOException {
+        if (Files.deleteIfExists(journalFile(root).toPath())) {
+            syncDirectory(root);
+        }
+    }
+
+    /**
+     * Makes creation or deletion of journal durable - syncing journal file itself doesn't sync its directory entry.
+     */
+    private static void syncDirectory(String root) {
+        try (FileChannel directory = FileChannel.open(Paths.get(root), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ex) {
+            // some platforms, like Windows, can't open directories as files
+            logger.log(Level.FINE, "Can't sync world directory " + root, ex);
+        }
+    }
+
+    private static File journalFile(String root) {
+        return new File(root + FILE_NAME);
+    }
+
+    private void writeJournal(BitSet[] rows, int changed) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (FileChannel journal = FileChannel.open(journalFile(root).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC_NUMBER).putInt(sizeLevel);
+            write(journal, header, crc);
+
+            final int[] row = new int[size];
+            final ByteBuffer record = ByteBuffer.allocate(5 + size * 4);
+            for (int i = 0; i < layers.length; i++) {
+                for (int y = rows[i].nextSetBit(0); y >= 0; y = rows[i].nextSetBit(y + 1)) {
+                    layers[i].readRows(y, y + 1, row, 0);
+                    ((Buffer) record).clear();
+                    record.put((byte) i).putInt(y);
+                    record.asIntBuffer().put(row);
+                    ((Buffer) record).position(record.capacity());
+                    write(journal, record, crc);
+                }
+            }
+
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            trailer.putLong(MAGIC_NUMBER).putInt(changed).putInt((int) crc.getValue());
+            ((Buffer) trailer).flip();
+            MapFiles.writeFully(journal, trailer, journal.position());
+            // the only sync of journal - rows are written to map files only after whole journal is on disk
+            journal.force(false);
+        }
+    }
+
+    private static void write(FileChannel journal, ByteBuffer buffer, CRC32 crc) throws IOException {
+        ((Buffer) buffer).flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+    }
+
+    private void apply(BitSet[] rows) throws IOException {
+        final int[] row = new int[size];
+        final ByteBuffer buffer = ByteBuffer.allocate(size * 4);
+        for (MapLayer layer : MapLayer.values()) {
+            final int i = layer.ordinal();
+            if (rows[i].isEmpty()) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(new File(root + layer.getFileName()).toPath(), StandardOpenOption.WRITE)) {
+                for (int y = rows[i].nextSetBit(0); y >= 0; y = rows[i].nextSetBit(y + 1)) {
+                    layers[i].readRows(y, y + 1, row, 0);
+                    ((Buffer) buffer).clear();
+                    buffer.asIntBuffer().put(row);
+                    MapFiles.writeFully(channel, buffer, MapFiles.rowPosition(sizeLevel, y));
+                }
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * @return number of replayed rows, or -1 if journal is incomplete or damaged.
+     */
+    private static int replay(String root, FileChannel journal) throws IOException {
+        final long length = journal.size();
+        if (length < HEADER_SIZE + TRAILER_SIZE) {
+            return -1;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        MapFiles.readFully(journal, header, 0);
+        ((Buffer) header).flip();
+        if (header.getLong() != MAGIC_NUMBER) {
+            return -1;
+        }
+        final int sizeLevel = header.getInt();
+        if (sizeLevel < 0 || sizeLevel > 15) {
+            return -1;
+        }
+        final int rowBytes = 4 << sizeLevel;
+        final long records = (length - HEADER_SIZE - TRAILER_SIZE) / (5 + rowBytes);
+        if (HEADER_SIZE + TRAILER_SIZE + records * (5 + rowBytes) != length) {
+            return -1;
+        }
+
+        final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        MapFiles.readFully(journal, trailer, length - TRAILER_SIZE);
+        ((Buffer) trailer).flip();
+        if (trailer.getLong() != MAGIC_NUMBER || trailer.getInt() != records) {
+            return -1;
+        }
+        final int checksum = trailer.getInt();
+
+        // whole journal is checked before first row is written, so damaged journal never reaches map files
+        final CRC32 crc = new CRC32();
+        crc.update(header.array());
+        final ByteBuffer record = ByteBuffer.allocate(5 + rowBytes);
+        for (long i = 0; i < records; i++) {
+            ((Buffer) record).clear();
+            MapFiles.readFully(journal, record, HEADER_SIZE + i * (5 + rowBytes));
+            crc.update(record.array());
+            final int layer = record.get(0);
+            final int y = record.getInt(1);
+            if (layer < 0 || layer >= MapLayer.values().length || y < 0 || y >= 1 << sizeLevel) {
+                return -1;
+            }
+        }
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+
+        final FileChannel[] channels = new FileChannel[MapLayer.values().length];
+        try {
+            for (long i = 0; i < records; i++) {
+                ((Buffer) record).clear();
+                MapFiles.readFully(journal, record, HEADER_SIZE + i * (5 + rowBytes));
+                final int layer = record.get(0);
+                if (channels[layer] == null) {
+                    final String name = root + MapLayer.values()[layer].getFileName();
+                    channels[layer] = FileChannel.open(new File(name).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    if (MapFiles.readHeader(channels[layer], name) != sizeLevel) {
+                        throw new IOException("Size of " + name + " doesn't match save journal");
+                    }
+                }
+                ((Buffer) record).position(5);
+                MapFiles.writeFully(channels[layer], record, MapFiles.rowPosition(sizeLevel, record.getInt(1)));
+            }
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.force(false);
+                }
+            }
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+        return (int) records;
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Least recently used cache of encoded map tiles, limited by total size of cached tiles in bytes.<br>
+ * All methods are synchronized, tiles are rendered outside of cache. Every invalidation starts new generation of cache,
+ * and tiles rendered in older generation are not cached, as they can show data which changed while they were rendered.
+ */
+public final class TileCache {
+
+    /**
+     * Identifies single tile of single style.
+     */
+    public static final class Key {
+
+        private final String style;
+        private final int zoom;
+        private final int x;
+        private final int y;
+
+        public Key(String style, int zoom, int x, int y) {
+            this.style = style;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+
+        public String getStyle() {
+            return style;
+        }
+
+        public int getZoom() {
+            return zoom;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return zoom == other.zoom && x == other.x && y == other.y && style.equals(other.style);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(style, zoom, x, y);
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+    private long generation;
+
+    /**
+     * @param maxBytes maximum total size of cached tiles.
+     */
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return cached tile, or null if tile is not cached.
+     */
+    public synchronized byte[] get(Key key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * @return current generation, to be read before tile is rendered and passed to {@link #put(Key, byte[], long)}.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches tile, removing least recently used tiles if cache is full. Tiles bigger than whole cache are not cached.
+     *
+     * @param generation generation of cache read before tile was rendered. Tile is not cached if cache was invalidated since then.
+     */
+    public synchronized void put(Key key, byte[] tile, long generation) {
+        if (tile.length > maxBytes || generation != this.generation) {
+            return;
+        }
+
+        final byte[] previous = tiles.put(key, tile);
+        usedBytes += tile.length - (previous != null ? previous.length : 0);
+        final Iterator<byte[]> iterator = tiles.values().iterator();
+        while (usedBytes > maxBytes) {
+            usedBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all cached tiles matching predicate.
+     *
+     * @return number of removed tiles.
+     */
+    public synchronized int invalidate(Predicate<Key> predicate) {
+        generation++;
+        int removed = 0;
+        final Iterator<Map.Entry<Key, byte[]>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, byte[]> entry = iterator.next();
+            if (predicate.test(entry.getKey())) {
+                usedBytes -= entry.getValue().length;
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        tiles.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+}
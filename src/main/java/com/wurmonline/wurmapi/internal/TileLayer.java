@@ -0,0 +1,70 @@
+package com.wurmonline.wurmapi.internal;
+
+import java.io.IOException;
+
+/**
+ * Storage of one map layer - raw 32-bit data of every tile, backed by a map file.
+ */
+public interface TileLayer {
+
+    /**
+     * @return width and height of layer.
+     */
+    int getSize();
+
+    /**
+     * @return power of two of layer size.
+     */
+    int getSizeLevel();
+
+    int getTile(int x, int y);
+
+    void setTile(int x, int y, int value);
+
+    /**
+     * Copies rows of layer into dense array, row after row.
+     *
+     * @param fromY first row (inclusive).
+     * @param toY last row (exclusive).
+     * @param target array to copy rows into.
+     * @param offset first index of target array to write.
+     */
+    void readRows(int fromY, int toY, int[] target, int offset);
+
+    /**
+     * Replaces rows of layer with data from dense array, row after row.
+     *
+     * @param fromY first row (inclusive).
+     * @param toY last row (exclusive).
+     * @param source array to copy rows from.
+     * @param offset first index of source array to read.
+     */
+    void writeRows(int fromY, int toY, int[] source, int offset);
+
+    /**
+     * Replaces rows of layer with data read from its map file. Unlike {@link #writeRows(int, int, int[], int)},
+     * rows are not marked as changed, so they won't be written back to file.
+     *
+     * @param fromY first row (inclusive).
+     * @param toY last row (exclusive).
+     * @param source array to copy rows from.
+     * @param offset first index of source array to read.
+     */
+    void reloadRows(int fromY, int toY, int[] source, int offset);
+
+    /**
+     * Writes all changes of layer to its map file.
+     */
+    void save() throws IOException;
+
+    /**
+     * Writes changed rows to map file and releases the file.
+     */
+    void close() throws IOException;
+
+    /**
+     * @return approximate number of bytes used to keep layer data in memory.
+     */
+    long getMemoryUsage();
+
+}
@@ -0,0 +1,314 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.map.dump.DumpRequest;
+import com.wurmonline.wurmapi.api.map.dump.DumpType;
+import com.wurmonline.wurmapi.api.map.heightmap.HeightmapLayer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders square map tiles of any dump style, reading only the part of map shown on tile.<br><br>
+ *
+ * At zoom 0 one tile shows the whole map, and every next zoom level splits tiles into four.
+ * When tile shows more map tiles than it has pixels, one map tile is sampled per pixel; when it shows less,
+ * map tiles are drawn as squares of pixels. Semi-3d map style also reads map tiles below and above shown area,
+ * as they can be projected high enough (or underwater tiles low enough) to be visible on tile. Relief style averages
+ * up to 4x4 map tiles per pixel instead of sampling one.
+ */
+public final class TileRenderer {
+
+    public static final int TILE_SIZE = 256;
+
+    private static final int TILE_LEVEL = 8;
+
+    /**
+     * Maximum power of two of pixels per map tile.
+     */
+    private static final int MAX_MAGNIFICATION_LEVEL = 4;
+
+    /**
+     * Maximum number of map tiles averaged in every row and column of relief pixel.
+     */
+    private static final int MAX_RELIEF_SAMPLES = 4;
+
+    /**
+     * Highest possible projection of tile on semi-3d map dump, in map tiles.
+     */
+    private static final int MAX_LIFT = DumpColors.mapLift(Short.MAX_VALUE) + 1;
+
+    /**
+     * Lowest possible projection of underwater tile on semi-3d map dump, in map tiles.
+     */
+    private static final int MAX_DROP = -DumpColors.mapLift(Short.MIN_VALUE) + 1;
+
+    private final MeshIO surfaceMesh;
+    private final MeshIO rockMesh;
+    private final TileLayer caveLayer;
+    private final NormalCache surfaceNormals;
+    private final NormalCache rockNormals;
+    private final int size;
+    private final int level;
+    private final Map<DumpRequest, int[][]> colorTables = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public TileRenderer(MeshIO surfaceMesh, MeshIO rockMesh, TileLayer caveLayer, NormalCache surfaceNormals, NormalCache rockNormals) {
+        this.surfaceMesh = surfaceMesh;
+        this.rockMesh = rockMesh;
+        this.caveLayer = caveLayer;
+        this.surfaceNormals = surfaceNormals;
+        this.rockNormals = rockNormals;
+        this.size = surfaceMesh.getSize();
+        this.level = surfaceMesh.getSizeLevel();
+    }
+
+    /**
+     * @return highest zoom level with tiles available.
+     */
+    public int getMaxZoom() {
+        return getMaxZoom(level);
+    }
+
+    public static int getMaxZoom(int sizeLevel) {
+        return Math.max(0, sizeLevel - TILE_LEVEL) + MAX_MAGNIFICATION_LEVEL;
+    }
+
+    /**
+     * Checks if change of map area can change tile.
+     *
+     * @param type dump style of tile.
+     * @param sizeLevel power of two of map size.
+     * @param zoom zoom level of tile.
+     * @param tileX column of tile.
+     * @param tileY row of tile.
+     * @param fromX first changed column of map (inclusive).
+     * @param fromY first changed row of map (inclusive).
+     * @param toX last changed column of map (exclusive).
+     * @param toY last changed row of map (exclusive).
+     * @return true if tile should be rendered again.
+     */
+    public static boolean isAffected(DumpType type, int sizeLevel, int zoom, int tileX, int tileY, int fromX, int fromY, int toX, int toY) {
+        final int[] area = getReadArea(type, sizeLevel, zoom, tileX, tileY);
+        return fromX < area[2] && toX > area[0] && fromY < area[3] && toY > area[1];
+    }
+
+    /**
+     * Checks if change of parts of map rows can change tile.
+     *
+     * @param type dump style of tile.
+     * @param sizeLevel power of two of map size.
+     * @param zoom zoom level of tile.
+     * @param tileX column of tile.
+     * @param tileY row of tile.
+     * @param spans changed part of every map row: first changed column (inclusive) of row y at index {@code 2 * y}
+     * and last changed column (exclusive) at index {@code 2 * y + 1}.
+     * @return true if tile should be rendered again.
+     */
+    public static boolean isAffected(DumpType type, int sizeLevel, int zoom, int tileX, int tileY, int[] spans) {
+        final int[] area = getReadArea(type, sizeLevel, zoom, tileX, tileY);
+        final int toY = Math.min(1 << sizeLevel, area[3]);
+        for (int y = Math.max(0, area[1]); y < toY; y++) {
+            final int fromX = spans[2 * y];
+            final int toX = spans[2 * y + 1];
+            if (fromX < toX && fromX < area[2] && toX > area[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return area of map read when tile is rendered: left, top, right and bottom edge (exclusive), can reach outside of map.
+     */
+    private static int[] getReadArea(DumpType type, int sizeLevel, int zoom, int tileX, int tileY) {
+        final int span = Math.max(1, (1 << sizeLevel) >> zoom);
+        final int step = Math.max(1, span / TILE_SIZE);
+        // tiles read their right and bottom neighbours, and semi-3d tiles read tiles far below and above them too
+        final int left = tileX * span - step;
+        final int top = tileY * span - step - (type == DumpType.MAP ? MAX_DROP : 0);
+        final int right = (tileX + 1) * span + step;
+        final int bottom = (tileY + 1) * span + step + (type == DumpType.MAP ? MAX_LIFT : 0);
+        return new int[] {left, top, right, bottom};
+    }
+
+    /**
+     * @param request dump style of tile. Colors of every request are cached as long as request is used.
+     * @param zoom zoom level, from 0 to {@link #getMaxZoom()}.
+     * @param tileX column of tile, from 0 to 2^zoom - 1.
+     * @param tileY row of tile, from 0 to 2^zoom - 1.
+     * @return rendered tile.
+     */
+    public BufferedImage render(DumpRequest request, int zoom, int tileX, int tileY) {
+        if (zoom < 0 || zoom > getMaxZoom()) {
+            throw new IllegalArgumentException("Invalid zoom: " + zoom + ", must be between 0 and " + getMaxZoom());
+        }
+        else if (tileX < 0 || tileY < 0 || tileX >= 1 << zoom || tileY >= 1 << zoom) {
+            throw new IllegalArgumentException("Invalid tile (" + tileX + ", " + tileY + ") at zoom " + zoom);
+        }
+
+        final int span = Math.max(1, size >> zoom);
+        final int step = Math.max(1, span / TILE_SIZE);
+        final int samples = span / step;
+        final int fromX = tileX * span;
+        final int fromY = tileY * span;
+
+        final int[] colors = new int[samples * samples];
+        if (request.getType() == DumpType.MAP) {
+            renderMap(request, colors, fromX, fromY, step, samples);
+        }
+        else if (request.getType() == DumpType.TOPOGRAPHIC) {
+            renderTopographic(request, colors, fromX, fromY, step, samples);
+        }
+        else if (request.getType() == DumpType.RELIEF) {
+            renderRelief(request, colors, fromX, fromY, step, samples);
+        }
+        else {
+            renderFlat(request, colors, fromX, fromY, step, samples);
+        }
+
+        final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final int scale = TILE_SIZE / samples;
+        for (int py = 0; py < TILE_SIZE; py++) {
+            final int sampleRow = (py / scale) * samples;
+            for (int px = 0; px < TILE_SIZE; px++) {
+                pixels[px + py * TILE_SIZE] = colors[sampleRow + px / scale];
+            }
+        }
+        return image;
+    }
+
+    private int[][] colorTables(DumpRequest request) {
+        return colorTables.computeIfAbsent(request, key -> {
+            if (key.getType() == DumpType.MAP || key.getType() == DumpType.TOPOGRAPHIC) {
+                final int[] colors = DumpColors.surfaceColors(key.getColorist());
+                return new int[][] {colors, DumpColors.waterColors(colors)};
+            }
+            final int[] colors = DumpColors.flatColors(key);
+            return new int[][] {colors, DumpColors.waterColors(colors)};
+        });
+    }
+
+    private void renderFlat(DumpRequest request, int[] target, int fromX, int fromY, int step, int samples) {
+        final int[][] tables = colorTables(request);
+        final int[] colors = request.isShowWater() ? tables[1] : tables[0];
+        final int[] surface = surfaceMesh.getData();
+        final int[] rock = rockMesh.getData();
+        final boolean isSurface = request.getType() != DumpType.CAVE;
+        for (int sy = 0; sy < samples; sy++) {
+            final int y = fromY + sy * step;
+            for (int sx = 0; sx < samples; sx++) {
+                final int x = fromX + sx * step;
+                final int index = x | (y << level);
+                final int tile = isSurface ? surface[index] : caveLayer.getTile(x, y);
+                final short height = Tiles.decodeHeight(isSurface ? surface[index] : rock[index]);
+                target[sx + sy * samples] = (height < 0 ? colors : tables[0])[tile >>> 16];
+            }
+        }
+    }
+
+    private void renderTopographic(DumpRequest request, int[] target, int fromX, int fromY, int step, int samples) {
+        final int[][] tables = colorTables(request);
+        final int[] colors = request.isShowWater() ? tables[1] : tables[0];
+        final int interval = Math.abs(request.getInterval());
+        for (int sy = 0; sy < samples; sy++) {
+            final int y = fromY + sy * step;
+            for (int sx = 0; sx < samples; sx++) {
+                final int x = fromX + sx * step;
+                final int tile = surfaceMesh.getData()[x | (y << level)];
+                final short height = Tiles.decodeHeight(tile);
+                final boolean isContour = isContour(height, heightAt(x - step, y, height), interval)
+                        || isContour(height, heightAt(x, y - step, height), interval)
+                        || isContour(height, heightAt(x + step, y, height), interval)
+                        || isContour(height, heightAt(x, y + step, height), interval);
+
+                final int type = Tiles.decodeType(tile) & 0xFF;
+                target[sx + sy * samples] = isContour ? 0 : (height < 0 ? colors : tables[0])[type];
+            }
+        }
+    }
+
+    private void renderRelief(DumpRequest request, int[] target, int fromX, int fromY, int step, int samples) {
+        final ReliefShader shader = new ReliefShader(request);
+        final boolean isSurface = request.getLayer() == HeightmapLayer.SURFACE;
+        // only blocks changed since the last tile are recomputed, but the first tile computes normals of whole map
+        final int[] normals = (isSurface ? surfaceNormals : rockNormals).getNormals(ForkJoinPool.commonPool());
+        final int[] tiles = (isSurface ? surfaceMesh : rockMesh).getData();
+        final int blockSamples = Math.min(step, MAX_RELIEF_SAMPLES);
+        final int blockStep = step / blockSamples;
+        for (int sy = 0; sy < samples; sy++) {
+            final int y = fromY + sy * step;
+            for (int sx = 0; sx < samples; sx++) {
+                final int x = fromX + sx * step;
+                target[sx + sy * samples] = shader.shadeBlock(normals, tiles, level, x, y, blockStep, blockSamples);
+            }
+        }
+    }
+
+    private short heightAt(int x, int y, short outside) {
+        if (x < 0 || y < 0 || x >= size || y >= size) {
+            return outside;
+        }
+        return Tiles.decodeHeight(surfaceMesh.getData()[x | (y << level)]);
+    }
+
+    /**
+     * The same test as used by topographic dump.
+     */
+    private static boolean isContour(short h0, short h1, int interval) {
+        return h0 < h1 && Math.floorDiv(h1, interval) * interval >= h0;
+    }
+
+    /**
+     * Renders part of semi-3d map dump with size of map divided by step, sweeping rows upwards from far enough below shown area
+     * to far enough above it.
+     */
+    private void renderMap(DumpRequest request, int[] target, int fromX, int fromY, int step, int samples) {
+        final int[] colors = colorTables(request)[0];
+        final int[] surface = surfaceMesh.getData();
+        final int width = size / step;
+        final int firstRow = fromY / step;
+
+        final int lowestY = Math.min(size - 1, fromY + samples * step - 1 + MAX_LIFT);
+        final int startY = fromY + (lowestY - fromY) / step * step;
+        final int[] alt = new int[samples];
+        Arrays.fill(alt, lowestY == size - 1 ? width - 1 : startY / step);
+
+        final int highestY = Math.max(0, fromY - MAX_DROP);
+        for (int y = startY; y >= highestY; y -= step) {
+            final int row = y << level;
+            for (int sx = 0; sx < samples; sx++) {
+                int current = alt[sx];
+                if (current < firstRow) {
+                    continue;
+                }
+
+                final int x = fromX + sx * step;
+                final int tile = surface[row | x];
+                final short surfaceHeight = Tiles.decodeHeight(tile);
+                final boolean lastNode = x + step >= size || y + step >= size;
+                final short nextHeight = lastNode ? surfaceHeight : Tiles.decodeHeight(surface[(x + step) | ((y + step) << level)]);
+                final int altTarget = y / step - DumpColors.mapLift(surfaceHeight) / step;
+                if (current <= altTarget) {
+                    continue;
+                }
+
+                final int pixel = DumpColors.mapPixel(colors[Tiles.decodeType(tile) & 0xFF], surfaceHeight, nextHeight, width);
+                while (current > altTarget && current >= firstRow) {
+                    if (current < firstRow + samples) {
+                        target[sx + (current - firstRow) * samples] = pixel;
+                    }
+                    current--;
+                }
+                alt[sx] = current;
+            }
+        }
+    }
+
+}
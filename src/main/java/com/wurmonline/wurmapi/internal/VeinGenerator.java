@@ -0,0 +1,166 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.wurmapi.api.map.veins.OreVein;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates ore veins in cave and resources layers.<br><br>
+ *
+ * Generation runs in two passes over fixed 64 row bands:
+ * <ol>
+ *     <li>every band draws veins starting inside it from its own random stream, seeded with map seed and band index,
+ *     and records vein tiles (which can reach into neighbouring bands),</li>
+ *     <li>every band applies recorded tiles falling inside it, taking source bands in ascending order.</li>
+ * </ol>
+ * Bands never depend on threads running them, so the same seed always gives the same caves.
+ * Veins only replace plain cave walls - tunnels and veins placed before are left untouched.
+ */
+public final class VeinGenerator {
+
+    private static final int BAND_HEIGHT = RowBands.DEFAULT_BAND_HEIGHT;
+
+    /**
+     * The same height as used by {@link com.wurmonline.wurmapi.api.MapData#setCaveTile(int, int, Tile, short)}.
+     */
+    private static final short VEIN_HEIGHT = -100;
+
+    private final TileLayer caveLayer;
+    private final TileLayer resourcesLayer;
+    private final int size;
+
+    public VeinGenerator(TileLayer caveLayer, TileLayer resourcesLayer) {
+        this.caveLayer = caveLayer;
+        this.resourcesLayer = resourcesLayer;
+        this.size = caveLayer.getSize();
+    }
+
+    /**
+     * @param seed seed of generated veins.
+     * @param veins kinds of veins to generate, generated in the same order.
+     * @param pool pool to generate bands on, or null to generate them in calling thread.
+     * @return number of cave wall tiles replaced by veins.
+     */
+    public long generate(long seed, List<OreVein> veins, ForkJoinPool pool) {
+        final int bands = RowBands.bandCount(size, BAND_HEIGHT);
+        final TileList[] generated = new TileList[bands];
+        int maxSteps = 0;
+        for (OreVein vein : veins) {
+            maxSteps = Math.max(maxSteps, maxSteps(vein));
+        }
+        final int reach = (maxSteps + BAND_HEIGHT - 1) / BAND_HEIGHT;
+
+        RowBands.forEach(size, BAND_HEIGHT, pool, (fromY, toY) -> {
+            generated[fromY / BAND_HEIGHT] = generateBand(seed, veins, fromY, toY);
+        });
+
+        final byte caveWall = Tile.TILE_CAVE_WALL.getId();
+        final byte[] veinTypes = new byte[veins.size()];
+        for (int i = 0; i < veinTypes.length; i++) {
+            veinTypes[i] = veins.get(i).getTileType().getId();
+        }
+
+        final LongAdder placed = new LongAdder();
+        RowBands.forEach(size, BAND_HEIGHT, pool, (fromY, toY) -> {
+            final int band = fromY / BAND_HEIGHT;
+            final int fromIndex = fromY * size;
+            final int toIndex = toY * size;
+            int count = 0;
+            for (int source = Math.max(0, band - reach); source <= Math.min(bands - 1, band + reach); source++) {
+                final TileList tiles = generated[source];
+                for (int i = 0; i < tiles.size; i++) {
+                    final long entry = tiles.entries[i];
+                    final int index = (int) (entry >>> 32);
+                    if (index < fromIndex || index >= toIndex) {
+                        continue;
+                    }
+
+                    final int x = index % size;
+                    final int y = index / size;
+                    if (Tiles.decodeType(caveLayer.getTile(x, y)) != caveWall) {
+                        continue;
+                    }
+                    caveLayer.setTile(x, y, Tiles.encode(VEIN_HEIGHT, veinTypes[(int) (entry >>> 16) & 0xFFFF], (byte) 0));
+                    final int resources = resourcesLayer.getTile(x, y);
+                    resourcesLayer.setTile(x, y, ((int) entry << 16) | (resources & 0xFFFF));
+                    count++;
+                }
+            }
+            placed.add(count);
+        });
+        return placed.sum();
+    }
+
+    private TileList generateBand(long seed, List<OreVein> veins, int fromY, int toY) {
+        final SplittableRandom random = new SplittableRandom(bandSeed(seed, fromY / BAND_HEIGHT));
+        final TileList tiles = new TileList();
+        for (int kind = 0; kind < veins.size(); kind++) {
+            final OreVein vein = veins.get(kind);
+            final double expected = vein.getFrequency() * (double) (toY - fromY) * size;
+            final int count = (int) expected + (random.nextDouble() < expected - Math.floor(expected) ? 1 : 0);
+            final int resourceRange = vein.getMaxResources() - vein.getMinResources() + 1;
+
+            for (int i = 0; i < count; i++) {
+                int x = random.nextInt(size);
+                int y = fromY + random.nextInt(toY - fromY);
+                final int steps = vein.getClusterSize() / 2 + random.nextInt(vein.getClusterSize());
+                for (int step = 0; step <= steps; step++) {
+                    final int resources = vein.getMinResources() + random.nextInt(resourceRange);
+                    tiles.add(((long) (x + y * size) << 32) | ((long) kind << 16) | resources);
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            x = Math.min(size - 1, x + 1);
+                            break;
+                        case 1:
+                            x = Math.max(0, x - 1);
+                            break;
+                        case 2:
+                            y = Math.min(size - 1, y + 1);
+                            break;
+                        default:
+                            y = Math.max(0, y - 1);
+                            break;
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static int maxSteps(OreVein vein) {
+        return vein.getClusterSize() / 2 + vein.getClusterSize();
+    }
+
+    /**
+     * Mixes map seed and band index, so streams of neighbouring bands are not related.
+     */
+    private static long bandSeed(long seed, int band) {
+        long z = seed + (band + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Growable list of vein tiles, packed as tile index (high 32 bits), vein kind (16 bits) and resource count (low 16 bits).
+     */
+    private static final class TileList {
+
+        private long[] entries = new long[256];
+        private int size;
+
+        void add(long entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+    }
+
+}
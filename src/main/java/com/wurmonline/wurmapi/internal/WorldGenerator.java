@@ -0,0 +1,394 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.BushData.BushType;
+import com.wurmonline.mesh.FoliageAge;
+import com.wurmonline.mesh.GrassData;
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.mesh.TreeData.TreeType;
+import com.wurmonline.wurmapi.api.map.MapLayer;
+import com.wurmonline.wurmapi.api.map.generator.WorldSettings;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Generates whole world from seed, overwriting all tiles of surface, rock, cave and resources layers.<br><br>
+ *
+ * Generation runs in stages, every stage over all row bands in parallel:
+ * <ol>
+ *     <li>heights - fractal value noise with ridged mountains, lowered into ocean near map edges,</li>
+ *     <li>rock - rock layer below surface, with thinner dirt on steep slopes and high mountains,</li>
+ *     <li>biomes and foliage - tile types from height, slope and moisture, then trees, bushes and grass on grass tiles,</li>
+ *     <li>caves - plain cave walls with ore veins, see {@link VeinGenerator}.</li>
+ * </ol>
+ * Stages only read results of previous stages, and every random value is a hash of seed and tile position,
+ * so the same seed and settings always give the same world, no matter how many threads run it.
+ */
+public final class WorldGenerator {
+
+    private static final int BAND_HEIGHT = RowBands.DEFAULT_BAND_HEIGHT;
+
+    /**
+     * Tiles closer to map edge than this are always under water.
+     */
+    private static final int MIN_COAST_WIDTH = 64;
+
+    private static final short BEACH_HEIGHT = 15;
+
+    private static final TreeType[] FOREST_TREES = {TreeType.OAK, TreeType.BIRCH, TreeType.MAPLE, TreeType.LINDEN,
+                                                   TreeType.CHESTNUT, TreeType.WALNUT, TreeType.CEDAR, TreeType.PINE};
+    private static final TreeType[] FRUIT_TREES = {TreeType.APPLE, TreeType.CHERRY, TreeType.LEMON, TreeType.OLIVE, TreeType.ORANGE};
+    private static final TreeType[] MOUNTAIN_TREES = {TreeType.PINE, TreeType.FIR};
+    private static final FoliageAge[] AGES = {FoliageAge.YOUNG_FOUR, FoliageAge.MATURE_ONE, FoliageAge.MATURE_TWO, FoliageAge.MATURE_THREE,
+                                              FoliageAge.OLD_ONE, FoliageAge.OLD_TWO, FoliageAge.VERY_OLD};
+    private static final GrassData.GrowthTreeStage[] TREE_GRASS = {GrassData.GrowthTreeStage.SHORT, GrassData.GrowthTreeStage.MEDIUM,
+                                                                   GrassData.GrowthTreeStage.TALL};
+    private static final GrassData.FlowerType[] FLOWERS = {GrassData.FlowerType.FLOWER_1, GrassData.FlowerType.FLOWER_2, GrassData.FlowerType.FLOWER_3,
+                                                           GrassData.FlowerType.FLOWER_4, GrassData.FlowerType.FLOWER_5, GrassData.FlowerType.FLOWER_6,
+                                                           GrassData.FlowerType.FLOWER_7};
+
+    private final MeshIO surfaceMesh;
+    private final MeshIO rockMesh;
+    private final TileLayer caveLayer;
+    private final TileLayer resourcesLayer;
+    private final int size;
+    private final int level;
+
+    public WorldGenerator(MeshIO surfaceMesh, MeshIO rockMesh, TileLayer caveLayer, TileLayer resourcesLayer) {
+        this.surfaceMesh = surfaceMesh;
+        this.rockMesh = rockMesh;
+        this.caveLayer = caveLayer;
+        this.resourcesLayer = resourcesLayer;
+        this.size = surfaceMesh.getSize();
+        this.level = surfaceMesh.getSizeLevel();
+    }
+
+    /**
+     * @param seed seed of generated world.
+     * @param settings generated world settings.
+     * @param pool pool to generate bands on, or null to generate them in calling thread.
+     * @return number of cave wall tiles replaced by veins.
+     */
+    public long generate(long seed, WorldSettings settings, ForkJoinPool pool) {
+        // every stage gets its own seed, so changing one stage never changes the others
+        final SplittableRandom seeds = new SplittableRandom(seed);
+        final long heightSeed = seeds.nextLong();
+        final long mountainSeed = seeds.nextLong();
+        final long dirtSeed = seeds.nextLong();
+        final long moistureSeed = seeds.nextLong();
+        final long patchSeed = seeds.nextLong();
+        final long forestSeed = seeds.nextLong();
+        final long foliageSeed = seeds.nextLong();
+        final long veinSeed = seeds.nextLong();
+
+        final int[] surface = surfaceMesh.getData();
+        final int[] rock = rockMesh.getData();
+
+        RowBands.forEach(size, BAND_HEIGHT, pool, (fromY, toY) -> generateHeights(surface, heightSeed, mountainSeed, settings, fromY, toY));
+        RowBands.forEach(size, BAND_HEIGHT, pool, (fromY, toY) -> generateRock(surface, rock, dirtSeed, settings, fromY, toY));
+        RowBands.forEach(size, BAND_HEIGHT, pool, (fromY, toY) -> {
+            assignBiomes(surface, rock, moistureSeed, patchSeed, settings, fromY, toY);
+            plantFoliage(surface, forestSeed, foliageSeed, settings, fromY, toY);
+        });
+        Meshes.markRowsDirty(surfaceMesh, 0, size);
+        Meshes.markRowsDirty(rockMesh, 0, size);
+
+        RowBands.forEach(size, BAND_HEIGHT, pool, this::resetCaves);
+        return new VeinGenerator(caveLayer, resourcesLayer).generate(veinSeed, settings.getVeins(), pool);
+    }
+
+    private void generateHeights(int[] surface, long heightSeed, long mountainSeed, WorldSettings settings, int fromY, int toY) {
+        final float scale = 1f / settings.getFeatureSize();
+        final int octaves = settings.getOctaves();
+        final float coastWidth = Math.max(MIN_COAST_WIDTH, size / 16);
+        final byte dirt = Tile.TILE_DIRT.getId();
+        for (int y = fromY; y < toY; y++) {
+            final int row = y << level;
+            for (int x = 0; x < size; x++) {
+                float land = fractal(heightSeed, x * scale, y * scale, octaves) * 1.8f + 0.1f;
+                final float edge = Math.min(Math.min(x, y), Math.min(size - 1 - x, size - 1 - y)) / coastWidth;
+                if (edge < 1) {
+                    land -= (1 - edge) * (1 - edge) * 3;
+                }
+                land = Math.max(-1, Math.min(1, land));
+
+                final float height;
+                if (land < 0) {
+                    height = land * settings.getOceanDepth();
+                }
+                else {
+                    // ridged noise gives sharp mountain crests, growing with distance from coast
+                    final float ridge = 1 - Math.abs(fractal(mountainSeed, x * scale * 2, y * scale * 2, Math.max(1, octaves - 1)) * 2);
+                    final float mountains = Math.max(0, ridge) * Math.max(0, ridge) * land;
+                    height = (land * 0.25f + mountains * 0.75f) * settings.getMaxHeight();
+                }
+                surface[row | x] = Tiles.encode((short) Math.round(height), dirt, (byte) 0);
+            }
+        }
+    }
+
+    private void generateRock(int[] surface, int[] rock, long dirtSeed, WorldSettings settings, int fromY, int toY) {
+        final float dirtDepth = settings.getDirtDepth();
+        final float rockSlope = settings.getRockSlope();
+        final float flatSlope = rockSlope / 3;
+        final float rockLine = settings.getMaxHeight() * 0.7f;
+        final float peakLine = settings.getMaxHeight() * 0.85f;
+        final byte rockType = (byte) Tiles.TILE_TYPE_ROCK;
+        for (int y = fromY; y < toY; y++) {
+            final int row = y << level;
+            for (int x = 0; x < size; x++) {
+                final short height = Tiles.decodeHeight(surface[row | x]);
+                final int slope = slope(surface, x, y, height);
+
+                float depth = dirtDepth * (0.7f + 0.6f * unit(hash(dirtSeed, x, y)));
+                depth *= 1 - clamp((slope - flatSlope) / (rockSlope - flatSlope));
+                depth *= 1 - clamp((height - rockLine) / (peakLine - rockLine));
+                final int rockHeight = Math.max(Short.MIN_VALUE, height - (depth < 1 ? 0 : Math.round(depth)));
+                rock[row | x] = Tiles.encode((short) rockHeight, rockType, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @return highest height difference between tile and its edge neighbours.
+     */
+    private int slope(int[] surface, int x, int y, short height) {
+        int slope = 0;
+        if (x > 0) {
+            slope = Math.max(slope, Math.abs(height - Tiles.decodeHeight(surface[(x - 1) | (y << level)])));
+        }
+        if (x < size - 1) {
+            slope = Math.max(slope, Math.abs(height - Tiles.decodeHeight(surface[(x + 1) | (y << level)])));
+        }
+        if (y > 0) {
+            slope = Math.max(slope, Math.abs(height - Tiles.decodeHeight(surface[x | ((y - 1) << level)])));
+        }
+        if (y < size - 1) {
+            slope = Math.max(slope, Math.abs(height - Tiles.decodeHeight(surface[x | ((y + 1) << level)])));
+        }
+        return slope;
+    }
+
+    private void assignBiomes(int[] surface, int[] rock, long moistureSeed, long patchSeed, WorldSettings settings, int fromY, int toY) {
+        final float moistureScale = 2f / settings.getFeatureSize();
+        final float patchScale = 1f / 24;
+        final float tundraLine = settings.getMaxHeight() * 0.55f;
+        for (int y = fromY; y < toY; y++) {
+            final int row = y << level;
+            for (int x = 0; x < size; x++) {
+                final int index = row | x;
+                final short height = Tiles.decodeHeight(surface[index]);
+                final Tile tile;
+                if (isExposedRock(surface, rock, x, y)) {
+                    tile = Tile.TILE_ROCK;
+                }
+                else {
+                    final float moisture = fractal(moistureSeed, x * moistureScale, y * moistureScale, 4);
+                    final float patch = fractal(patchSeed, x * patchScale, y * patchScale, 2);
+                    tile = biome(height, moisture, patch, tundraLine);
+                }
+                surface[index] = Tiles.encode(height, tile.getId(), (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * The same test as used by {@link com.wurmonline.wurmapi.api.MapData#saveChanges()}: all four corners of tile have no dirt above rock.
+     */
+    private boolean isExposedRock(int[] surface, int[] rock, int x, int y) {
+        if (x == size - 1 || y == size - 1) {
+            return false;
+        }
+        for (int dy = 0; dy <= 1; dy++) {
+            for (int dx = 0; dx <= 1; dx++) {
+                final int index = (x + dx) | ((y + dy) << level);
+                if (Tiles.decodeHeight(surface[index]) != Tiles.decodeHeight(rock[index])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Tile biome(short height, float moisture, float patch, float tundraLine) {
+        if (height < 0) {
+            if (height > -30 && moisture > 0.15f) {
+                return Tile.TILE_REED;
+            }
+            else if (height < -30 && height > -150 && patch > 0.3f) {
+                return Tile.TILE_KELP;
+            }
+            else if (patch < -0.6f) {
+                return Tile.TILE_CLAY;
+            }
+            return height > -60 ? Tile.TILE_SAND : Tile.TILE_DIRT;
+        }
+        else if (height < BEACH_HEIGHT) {
+            return patch > 0.55f ? Tile.TILE_CLAY : Tile.TILE_SAND;
+        }
+        else if (height > tundraLine) {
+            return Tile.TILE_TUNDRA;
+        }
+        else if (moisture > 0.3f && height < 200) {
+            return patch > 0.3f ? Tile.TILE_PEAT : Tile.TILE_MARSH;
+        }
+        else if (patch < -0.7f) {
+            return Tile.TILE_TAR;
+        }
+        else if (moisture > 0.2f) {
+            return Tile.TILE_MOSS;
+        }
+        else if (moisture < -0.3f) {
+            return Tile.TILE_STEPPE;
+        }
+        return Tile.TILE_GRASS;
+    }
+
+    /**
+     * Places trees, bushes and grass the same way as {@link com.wurmonline.wurmapi.api.MapData#setTree},
+     * {@link com.wurmonline.wurmapi.api.MapData#setBush} and {@link com.wurmonline.wurmapi.api.MapData#setGrass} do.
+     */
+    private void plantFoliage(int[] surface, long forestSeed, long foliageSeed, WorldSettings settings, int fromY, int toY) {
+        final float forestScale = 4f / settings.getFeatureSize();
+        final float mountainLine = settings.getMaxHeight() * 0.35f;
+        final byte grass = Tile.TILE_GRASS.getId();
+        final byte kelp = Tile.TILE_KELP.getId();
+        final byte reed = Tile.TILE_REED.getId();
+        final GrassData.GrowthStage[] stages = GrassData.GrowthStage.values();
+        final BushType[] bushes = BushType.values();
+        for (int y = fromY; y < toY; y++) {
+            final int row = y << level;
+            for (int x = 0; x < size; x++) {
+                final int index = row | x;
+                final byte type = Tiles.decodeType(surface[index]);
+                final short height = Tiles.decodeHeight(surface[index]);
+                final long random = hash(foliageSeed, x, y);
+                final GrassData.GrowthStage stage = stages[(int) ((random >>> 8) & 0xFF) % stages.length];
+                if (type == kelp || type == reed) {
+                    final GrassData.GrassType grassType = type == kelp ? GrassData.GrassType.KELP : GrassData.GrassType.REED;
+                    surface[index] = Tiles.encode(height, type, GrassData.encodeGrassTileData(stage, grassType, GrassData.FlowerType.NONE));
+                    continue;
+                }
+                else if (type != grass) {
+                    continue;
+                }
+
+                final float forest = clamp(0.5f + 1.5f * fractal(forestSeed, x * forestScale, y * forestScale, 3));
+                final float chance = unit(random >>> 40);
+                final float treeChance = settings.getTreeDensity() * forest * 2;
+                final FoliageAge age = AGES[(int) ((random >>> 16) & 0xFF) % AGES.length];
+                final GrassData.GrowthTreeStage grassStage = TREE_GRASS[(int) ((random >>> 24) & 0xFF) % TREE_GRASS.length];
+                if (chance < treeChance) {
+                    final TreeType tree = treeType(height, mountainLine, (int) (random & 0xFF));
+                    surface[index] = Tiles.encode(height, tree.asNormalTree(), Tiles.encodeTreeData(age, false, false, grassStage));
+                }
+                else if (chance < treeChance + settings.getBushDensity()) {
+                    final BushType bush = bushes[(int) (random & 0xFF) % bushes.length];
+                    surface[index] = Tiles.encode(height, bush.asNormalBush(), Tiles.encodeTreeData(age, false, false, grassStage));
+                }
+                else {
+                    final boolean flower = ((random >>> 32) & 0xFF) < settings.getFlowerDensity() * 256;
+                    final GrassData.FlowerType flowerType = flower ? FLOWERS[(int) (random & 0xFF) % FLOWERS.length] : GrassData.FlowerType.NONE;
+                    surface[index] = Tiles.encode(height, grass, GrassData.encodeGrassTileData(stage, GrassData.GrassType.GRASS, flowerType));
+                }
+            }
+        }
+    }
+
+    private static TreeType treeType(short height, float mountainLine, int random) {
+        if (height > mountainLine) {
+            return MOUNTAIN_TREES[random % MOUNTAIN_TREES.length];
+        }
+        else if (height < BEACH_HEIGHT * 3 && random < 64) {
+            return TreeType.WILLOW;
+        }
+        else if (random < 12) {
+            return FRUIT_TREES[random % FRUIT_TREES.length];
+        }
+        return FOREST_TREES[random % FOREST_TREES.length];
+    }
+
+    private void resetCaves(int fromY, int toY) {
+        final int[] caveRows = new int[(toY - fromY) * size];
+        final int[] resourceRows = new int[caveRows.length];
+        for (int y = fromY; y < toY; y++) {
+            for (int x = 0; x < size; x++) {
+                final int index = x + (y - fromY) * size;
+                caveRows[index] = DefaultTiles.get(MapLayer.CAVE, x, y, size);
+                resourceRows[index] = DefaultTiles.get(MapLayer.RESOURCES, x, y, size);
+            }
+        }
+        caveLayer.writeRows(fromY, toY, caveRows, 0);
+        resourcesLayer.writeRows(fromY, toY, resourceRows, 0);
+    }
+
+    /**
+     * Fractal value noise - sum of octaves of {@link #noise(long, float, float)}, each with double frequency and half amplitude.
+     *
+     * @return noise between -1 and 1.
+     */
+    private static float fractal(long seed, float x, float y, int octaves) {
+        float sum = 0;
+        float amplitude = 1;
+        float total = 0;
+        for (int octave = 0; octave < octaves; octave++) {
+            sum += noise(seed + octave, x, y) * amplitude;
+            total += amplitude;
+            amplitude *= 0.5f;
+            x *= 2;
+            y *= 2;
+        }
+        return sum / total;
+    }
+
+    /**
+     * Value noise - random values at integer coordinates, smoothly interpolated between them.
+     *
+     * @return noise between -1 and 1.
+     */
+    private static float noise(long seed, float x, float y) {
+        final int x0 = x < (int) x ? (int) x - 1 : (int) x;
+        final int y0 = y < (int) y ? (int) y - 1 : (int) y;
+        final float tx = smooth(x - x0);
+        final float ty = smooth(y - y0);
+        final float v00 = signed(hash(seed, x0, y0));
+        final float v10 = signed(hash(seed, x0 + 1, y0));
+        final float v01 = signed(hash(seed, x0, y0 + 1));
+        final float v11 = signed(hash(seed, x0 + 1, y0 + 1));
+        final float top = v00 + (v10 - v00) * tx;
+        final float bottom = v01 + (v11 - v01) * tx;
+        return top + (bottom - top) * ty;
+    }
+
+    private static long hash(long seed, int x, int y) {
+        long z = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL);
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * @return high 24 bits of hash as number between -1 and 1.
+     */
+    private static float signed(long hash) {
+        return (hash >> 40) * (1f / (1 << 23));
+    }
+
+    /**
+     * @return low 24 bits of value as number between 0 and 1.
+     */
+    private static float unit(long value) {
+        return (value & 0xFFFFFF) * (1f / (1 << 24));
+    }
+
+    private static float smooth(float t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : (value > 1 ? 1 : value);
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.wurmapi.api.map.MapLayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies tiles between map files of two worlds without loading them.<br><br>
+ *
+ * Tiles are stored in the same big-endian format in every map file, so row segments are moved as raw bytes:
+ * read from source file straight into row buffer, and written from row buffer straight into target file.
+ * Every layer is processed by its own task with its own buffer, so memory use depends only on {@link #BUFFER_SIZE}.<br>
+ * All map files of source world (and of target world when pasting) are checked before any target file is opened for writing,
+ * so missing or damaged map file never leaves target world partly written.<br>
+ * Save journals are handled the same way as when world is opened - journal left by interrupted save is recovered before map files
+ * are read, and journal of replaced target world is discarded, so it can't be replayed into new map files later.
+ */
+public final class WorldStreamer {
+
+    /**
+     * Size of row buffer of single layer, in bytes.
+     */
+    public static final int BUFFER_SIZE = 1 << 22;
+
+    private final String sourceRoot;
+    private final String targetRoot;
+
+    /**
+     * @param sourceRoot source world directory, ending with file separator.
+     * @param targetRoot target world directory, ending with file separator.
+     */
+    public WorldStreamer(String sourceRoot, String targetRoot) {
+        this.sourceRoot = sourceRoot;
+        this.targetRoot = targetRoot;
+    }
+
+    /**
+     * @return power of two of source world size.
+     */
+    public int getSourceSizeLevel() throws IOException {
+        SaveJournal.recover(sourceRoot);
+        return checkWorld(sourceRoot);
+    }
+
+    /**
+     * Creates new target world, with source world moved by offset. Tiles not covered by source world are the same as in newly created world.
+     *
+     * @param sizeLevel power of two of target world size.
+     * @param offsetX location of source world left edge in target world, can be negative.
+     * @param offsetY location of source world top edge in target world, can be negative.
+     */
+    public void resize(int sizeLevel, int offsetX, int offsetY) throws IOException {
+        SaveJournal.recover(sourceRoot);
+        checkWorld(sourceRoot);
+        final File target = new File(targetRoot);
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Can't create world directory " + target.getPath());
+        }
+        SaveJournal.discard(targetRoot);
+
+        final MapLayer[] layers = MapLayer.values();
+        RowBands.forEachIO(layers.length, 1, true, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                resizeLayer(layers[i], sizeLevel, offsetX, offsetY);
+            }
+        });
+    }
+
+    /**
+     * Copies whole source world into existing target world. Parts of source world outside of target world are skipped.
+     *
+     * @param toX location of source world left edge in target world, can be negative.
+     * @param toY location of source world top edge in target world, can be negative.
+     */
+    public void paste(int toX, int toY) throws IOException {
+        SaveJournal.recover(sourceRoot);
+        SaveJournal.recover(targetRoot);
+        checkWorld(sourceRoot);
+        checkWorld(targetRoot);
+
+        final MapLayer[] layers = MapLayer.values();
+        RowBands.forEachIO(layers.length, 1, true, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                pasteLayer(layers[i], toX, toY);
+            }
+        });
+    }
+
+    private void resizeLayer(MapLayer layer, int sizeLevel, int offsetX, int offsetY) throws IOException {
+        final File sourceFile = new File(sourceRoot + layer.getFileName());
+        try (FileChannel source = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            final int sourceLevel = MapFiles.readHeader(source, sourceFile.getPath());
+            resizeLayer(layer, source, sourceLevel, sizeLevel, offsetX, offsetY);
+        }
+    }
+
+    private void resizeLayer(MapLayer layer, FileChannel source, int sourceLevel, int sizeLevel, int offsetX, int offsetY) throws IOException {
+        try (FileChannel target = FileChannel.open(new File(targetRoot + layer.getFileName()).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final int sourceSize = 1 << sourceLevel;
+            final int size = 1 << sizeLevel;
+            MapFiles.writeHeader(target, sizeLevel);
+
+            // columns of target world covered by source world
+            final int firstX = Math.max(0, offsetX);
+            final int lastX = Math.min(size, sourceSize + offsetX);
+            final int rowBytes = size * 4;
+            final int rowsPerBuffer = Math.max(1, BUFFER_SIZE / rowBytes);
+            final ByteBuffer buffer = ByteBuffer.allocate(rowsPerBuffer * rowBytes);
+
+            for (int fromY = 0; fromY < size; fromY += rowsPerBuffer) {
+                final int toY = Math.min(size, fromY + rowsPerBuffer);
+                for (int y = fromY; y < toY; y++) {
+                    final int rowStart = (y - fromY) * rowBytes;
+                    final int sourceY = y - offsetY;
+                    if (sourceY < 0 || sourceY >= sourceSize || firstX >= lastX) {
+                        fillDefault(buffer, rowStart, layer, 0, size, y, size);
+                        continue;
+                    }
+
+                    fillDefault(buffer, rowStart, layer, 0, firstX, y, size);
+                    final ByteBuffer segment = buffer.duplicate();
+                    ((Buffer) segment).limit(rowStart + lastX * 4).position(rowStart + firstX * 4);
+                    MapFiles.readFully(source, segment, MapFiles.rowPosition(sourceLevel, sourceY) + (long) (firstX - offsetX) * 4);
+                    fillDefault(buffer, rowStart, layer, lastX, size, y, size);
+                }
+
+                ((Buffer) buffer).limit((toY - fromY) * rowBytes).position(0);
+                MapFiles.writeFully(target, buffer, MapFiles.rowPosition(sizeLevel, fromY));
+                ((Buffer) buffer).clear();
+            }
+        }
+    }
+
+    private void pasteLayer(MapLayer layer, int toX, int toY) throws IOException {
+        final File sourceFile = new File(sourceRoot + layer.getFileName());
+        final File targetFile = new File(targetRoot + layer.getFileName());
+        try (FileChannel source = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final int sourceLevel = MapFiles.readHeader(source, sourceFile.getPath());
+            final int sizeLevel = MapFiles.readHeader(target, targetFile.getPath());
+            final int sourceSize = 1 << sourceLevel;
+            final int size = 1 << sizeLevel;
+
+            // part of target world covered by source world
+            final int firstX = Math.max(0, toX);
+            final int lastX = Math.min(size, sourceSize + toX);
+            final int firstY = Math.max(0, toY);
+            final int lastY = Math.min(size, sourceSize + toY);
+            if (firstX >= lastX || firstY >= lastY) {
+                return;
+            }
+
+            final int segmentBytes = (lastX - firstX) * 4;
+            final int rowsPerBuffer = Math.max(1, BUFFER_SIZE / segmentBytes);
+            final ByteBuffer buffer = ByteBuffer.allocate(rowsPerBuffer * segmentBytes);
+
+            for (int fromY = firstY; fromY < lastY; fromY += rowsPerBuffer) {
+                final int bandToY = Math.min(lastY, fromY + rowsPerBuffer);
+                for (int y = fromY; y < bandToY; y++) {
+                    final ByteBuffer segment = buffer.duplicate();
+                    ((Buffer) segment).limit((y - fromY + 1) * segmentBytes).position((y - fromY) * segmentBytes);
+                    MapFiles.readFully(source, segment, MapFiles.rowPosition(sourceLevel, y - toY) + (long) (firstX - toX) * 4);
+                }
+                for (int y = fromY; y < bandToY; y++) {
+                    final ByteBuffer segment = buffer.duplicate();
+                    ((Buffer) segment).limit((y - fromY + 1) * segmentBytes).position((y - fromY) * segmentBytes);
+                    MapFiles.writeFully(target, segment, MapFiles.rowPosition(sizeLevel, y) + (long) firstX * 4);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that all map files of world exist, are complete and have the same size.
+     *
+     * @param root world directory, ending with file separator.
+     * @return power of two of world size.
+     */
+    private static int checkWorld(String root) throws IOException {
+        int sizeLevel = -1;
+        for (MapLayer layer : MapLayer.values()) {
+            final File file = new File(root + layer.getFileName());
+            if (!file.isFile()) {
+                throw new IOException("Map file " + file.getPath() + " doesn't exist");
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final int level = MapFiles.readHeader(channel, file.getPath());
+                if (sizeLevel >= 0 && level != sizeLevel) {
+                    throw new IOException("Size of " + file.getPath() + " (2^" + level + ") doesn't match other map files (2^" + sizeLevel + ")");
+                }
+                else if (channel.size() < MapFiles.rowPosition(level, 1 << level)) {
+                    throw new IOException("Map file " + file.getPath() + " is incomplete");
+                }
+                sizeLevel = level;
+            }
+        }
+        return sizeLevel;
+    }
+
+    private static void fillDefault(ByteBuffer buffer, int rowStart, MapLayer layer, int fromX, int toX, int y, int size) {
+        for (int x = fromX; x < toX; x++) {
+            buffer.putInt(rowStart + x * 4, DefaultTiles.get(layer, x, y, size));
+        }
+    }
+
+}
@@ -0,0 +1,291 @@
+package com.wurmonline.wurmapi.internal;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+import com.wurmonline.wurmapi.api.MapData;
+import com.wurmonline.wurmapi.api.map.MapLayer;
+import com.wurmonline.wurmapi.api.map.validation.ValidationReport;
+import com.wurmonline.wurmapi.api.map.validation.Violation;
+import com.wurmonline.wurmapi.api.map.validation.ViolationType;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks all map rules in one pass over raw layer data, in parallel bands of rows, optionally repairing found errors.<br><br>
+ *
+ * Every row of surface and rock is decoded once: whether rock reaches surface in a corner is kept for current and next row,
+ * so checking fully exposed tiles doesn't decode neighbours again. Cave and resource rows of band are copied once and written
+ * back only if they were repaired. Surface repairs only raise surface to rock and change tile types, neither of which changes
+ * whether rock reaches surface in any corner, so bands may read rows of neighbouring bands while they are repaired.
+ */
+public final class WorldValidator {
+
+    /**
+     * Receives repaired rows after validation, from calling thread.
+     */
+    public interface RepairListener {
+
+        /**
+         * @param layer repaired layer.
+         * @param y repaired row.
+         * @param fromX first repaired tile in row (inclusive).
+         * @param toX last repaired tile in row (exclusive).
+         */
+        void rowRepaired(MapLayer layer, int y, int fromX, int toX);
+    }
+
+    private static final ViolationType[] TYPES = ViolationType.values();
+    private static final MapLayer[] REPAIRED_LAYERS = {MapLayer.SURFACE, MapLayer.CAVE, MapLayer.RESOURCES};
+
+    private static final byte ROCK = (byte) Tiles.TILE_TYPE_ROCK;
+    private static final byte DIRT = Tile.TILE_DIRT.getId();
+    private static final byte CAVE_WALL = Tile.TILE_CAVE_WALL.getId();
+
+    // properties of tile types, indexed by unsigned type id
+    private static final boolean[] KNOWN = new boolean[256];
+    private static final boolean[] CAVE = new boolean[256];
+    private static final boolean[] MINABLE = new boolean[256];
+
+    static {
+        for (int id = 0; id < 256; id++) {
+            final Tile tile = Tiles.getTile((byte) id);
+            KNOWN[id] = tile != null;
+            CAVE[id] = tile != null && tile.isCave();
+            MINABLE[id] = tile != null && tile.isSolidCave() && !tile.isReinforcedCave();
+        }
+    }
+
+    private final MeshIO surfaceMesh;
+    private final MeshIO rockMesh;
+    private final TileLayer caveLayer;
+    private final TileLayer resourcesLayer;
+    private final int size;
+    private final int sizeLevel;
+
+    public WorldValidator(MeshIO surfaceMesh, MeshIO rockMesh, TileLayer caveLayer, TileLayer resourcesLayer) {
+        this.surfaceMesh = surfaceMesh;
+        this.rockMesh = rockMesh;
+        this.caveLayer = caveLayer;
+        this.resourcesLayer = resourcesLayer;
+        this.size = surfaceMesh.getSize();
+        this.sizeLevel = surfaceMesh.getSizeLevel();
+    }
+
+    /**
+     * @param types kinds of errors to check.
+     * @param repair true to repair found errors.
+     * @param maxListed maximum number of listed errors of every kind.
+     * @param pool pool to validate on, or null to validate in calling thread.
+     * @param listener listener notified about every repaired row, can be null.
+     * @return found errors.
+     */
+    public ValidationReport validate(Set<ViolationType> types, boolean repair, int maxListed, ForkJoinPool pool, RepairListener listener) {
+        final boolean[] checked = new boolean[TYPES.length];
+        for (ViolationType type : types) {
+            checked[type.ordinal()] = true;
+        }
+
+        final int bandHeight = RowBands.DEFAULT_BAND_HEIGHT;
+        final Band[] bands = new Band[RowBands.bandCount(size, bandHeight)];
+        final int[] fromXs = new int[REPAIRED_LAYERS.length * size];
+        final int[] toXs = new int[REPAIRED_LAYERS.length * size];
+        RowBands.forEach(size, bandHeight, pool, (fromY, toY) -> {
+            final Band band = new Band(maxListed);
+            bands[fromY / bandHeight] = band;
+            if (checked[ViolationType.SURFACE_BELOW_ROCK.ordinal()] || checked[ViolationType.EXPOSED_ROCK.ordinal()]
+                    || checked[ViolationType.UNKNOWN_TILE.ordinal()] || checked[ViolationType.CAVE_TILE_ON_SURFACE.ordinal()]) {
+                validateSurface(fromY, toY, checked, repair, band, fromXs, toXs);
+            }
+            if (checked[ViolationType.UNKNOWN_TILE.ordinal()] || checked[ViolationType.ZERO_RESOURCES.ordinal()]) {
+                validateCaves(fromY, toY, checked, repair, band, fromXs, toXs);
+            }
+        });
+
+        final Map<ViolationType, Long> counts = new EnumMap<>(ViolationType.class);
+        final List<Violation> violations = new ArrayList<>();
+        for (ViolationType type : TYPES) {
+            long count = 0;
+            int listed = 0;
+            for (Band band : bands) {
+                count += band.counts[type.ordinal()];
+                for (Violation violation : band.violations.get(type.ordinal())) {
+                    if (listed < maxListed) {
+                        violations.add(violation);
+                        listed++;
+                    }
+                }
+            }
+            counts.put(type, count);
+        }
+
+        if (repair && listener != null) {
+            for (int i = 0; i < REPAIRED_LAYERS.length * size; i++) {
+                if (toXs[i] > 0) {
+                    listener.rowRepaired(REPAIRED_LAYERS[i / size], i % size, fromXs[i], toXs[i]);
+                }
+            }
+        }
+        return new ValidationReport(counts, violations, repair);
+    }
+
+    private void validateSurface(int fromY, int toY, boolean[] checked, boolean repair, Band band, int[] fromXs, int[] toXs) {
+        final int[] surface = surfaceMesh.getData();
+        final int[] rock = rockMesh.getData();
+        final boolean checkBelow = checked[ViolationType.SURFACE_BELOW_ROCK.ordinal()];
+        final boolean checkExposed = checked[ViolationType.EXPOSED_ROCK.ordinal()];
+        final boolean checkUnknown = checked[ViolationType.UNKNOWN_TILE.ordinal()];
+        final boolean checkCave = checked[ViolationType.CAVE_TILE_ON_SURFACE.ordinal()];
+
+        // corners where rock reaches surface, in current and next row
+        boolean[] bare = new boolean[size];
+        boolean[] nextBare = new boolean[size];
+        if (checkExposed) {
+            findBareCorners(surface, rock, fromY, bare);
+        }
+        for (int y = fromY; y < toY; y++) {
+            final boolean lastRow = y == size - 1;
+            if (checkExposed && !lastRow) {
+                findBareCorners(surface, rock, y + 1, nextBare);
+            }
+
+            final int row = y << sizeLevel;
+            int fromX = size;
+            int toX = 0;
+            for (int x = 0; x < size; x++) {
+                final int tile = surface[row | x];
+                final short height = Tiles.decodeHeight(tile);
+                final short rockHeight = Tiles.decodeHeight(rock[row | x]);
+                final int type = Tiles.decodeType(tile) & 0xFF;
+                int repaired = tile;
+                if (checkBelow && height < rockHeight) {
+                    band.add(ViolationType.SURFACE_BELOW_ROCK, MapLayer.SURFACE, x, y);
+                    repaired = Meshes.withHeight(repaired, rockHeight);
+                }
+
+                if (checkExposed && !lastRow && x < size - 1 && bare[x] && bare[x + 1] && nextBare[x] && nextBare[x + 1]
+                        && (type != (ROCK & 0xFF) || Tiles.decodeData(tile) != 0)) {
+                    band.add(ViolationType.EXPOSED_ROCK, MapLayer.SURFACE, x, y);
+                    repaired = Tiles.encode(Tiles.decodeHeight(repaired), ROCK, (byte) 0);
+                }
+                else if (checkUnknown && !KNOWN[type]) {
+                    band.add(ViolationType.UNKNOWN_TILE, MapLayer.SURFACE, x, y);
+                    repaired = Tiles.encode(Tiles.decodeHeight(repaired), DIRT, (byte) 0);
+                }
+                else if (checkCave && CAVE[type]) {
+                    band.add(ViolationType.CAVE_TILE_ON_SURFACE, MapLayer.SURFACE, x, y);
+                    repaired = Tiles.encode(Tiles.decodeHeight(repaired), DIRT, (byte) 0);
+                }
+
+                if (repair && repaired != tile) {
+                    surface[row | x] = repaired;
+                    fromX = Math.min(fromX, x);
+                    toX = x + 1;
+                }
+            }
+            if (toX > 0) {
+                Meshes.markRowsDirty(surfaceMesh, y, y + 1);
+                fromXs[y] = fromX;
+                toXs[y] = toX;
+            }
+
+            final boolean[] swap = bare;
+            bare = nextBare;
+            nextBare = swap;
+        }
+    }
+
+    private void findBareCorners(int[] surface, int[] rock, int y, boolean[] bare) {
+        final int row = y << sizeLevel;
+        for (int x = 0; x < size; x++) {
+            bare[x] = Tiles.decodeHeight(surface[row | x]) <= Tiles.decodeHeight(rock[row | x]);
+        }
+    }
+
+    private void validateCaves(int fromY, int toY, boolean[] checked, boolean repair, Band band, int[] fromXs, int[] toXs) {
+        final boolean checkUnknown = checked[ViolationType.UNKNOWN_TILE.ordinal()];
+        final boolean checkResources = checked[ViolationType.ZERO_RESOURCES.ordinal()];
+        final int[] caves = new int[(toY - fromY) * size];
+        final int[] resources = new int[(toY - fromY) * size];
+        caveLayer.readRows(fromY, toY, caves, 0);
+        resourcesLayer.readRows(fromY, toY, resources, 0);
+
+        for (int y = fromY; y < toY; y++) {
+            final int row = (y - fromY) * size;
+            int caveFromX = size;
+            int caveToX = 0;
+            int resourcesFromX = size;
+            int resourcesToX = 0;
+            for (int x = 0; x < size; x++) {
+                final int tile = caves[row + x];
+                int type = Tiles.decodeType(tile) & 0xFF;
+                boolean replaced = false;
+                if (checkUnknown && !KNOWN[type]) {
+                    band.add(ViolationType.UNKNOWN_TILE, MapLayer.CAVE, x, y);
+                    if (repair) {
+                        caves[row + x] = Tiles.encode(Tiles.decodeHeight(tile), CAVE_WALL, (byte) 0);
+                        caveFromX = Math.min(caveFromX, x);
+                        caveToX = x + 1;
+                        type = CAVE_WALL & 0xFF;
+                        replaced = true;
+                    }
+                }
+
+                final int value = resources[row + x];
+                if (MINABLE[type] && (short) (value >>> 16) <= 0 && (checkResources || replaced)) {
+                    // wall replacing unknown tile gets resources as part of its repair, without being reported twice
+                    if (!replaced) {
+                        band.add(ViolationType.ZERO_RESOURCES, MapLayer.RESOURCES, x, y);
+                    }
+                    if (repair) {
+                        final int count = type == (CAVE_WALL & 0xFF) ? MapData.DEFAULT_ROCK_RESOURCE_COUNT : MapData.DEFAULT_ORE_RESOURCE_COUNT;
+                        resources[row + x] = (count << 16) | (value & 0xFFFF);
+                        resourcesFromX = Math.min(resourcesFromX, x);
+                        resourcesToX = x + 1;
+                    }
+                }
+            }
+            if (caveToX > 0) {
+                caveLayer.writeRows(y, y + 1, caves, row);
+                fromXs[size + y] = caveFromX;
+                toXs[size + y] = caveToX;
+            }
+            if (resourcesToX > 0) {
+                resourcesLayer.writeRows(y, y + 1, resources, row);
+                fromXs[2 * size + y] = resourcesFromX;
+                toXs[2 * size + y] = resourcesToX;
+            }
+        }
+    }
+
+    /**
+     * Errors found in one band of rows.
+     */
+    private static final class Band {
+
+        final long[] counts = new long[TYPES.length];
+        final List<List<Violation>> violations = new ArrayList<>();
+        final int maxListed;
+
+        Band(int maxListed) {
+            this.maxListed = maxListed;
+            for (int i = 0; i < TYPES.length; i++) {
+                violations.add(new ArrayList<>());
+            }
+        }
+
+        void add(ViolationType type, MapLayer layer, int x, int y) {
+            counts[type.ordinal()]++;
+            final List<Violation> listed = violations.get(type.ordinal());
+            if (listed.size() < maxListed) {
+                listed.add(new Violation(type, layer, x, y));
+            }
+        }
+    }
+
+}